@@ -0,0 +1,52 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Custo da decisão do limite de envio (Admission.TokenBucket) no caminho de
+ * cada mensagem: com o ritmo alto todas passam (um compareAndSet cada); com
+ * 1 por segundo quase todas são recusadas (só leituras). O bucket
+ * compartilhado por 4 threads é o caso de um grupo com vários remetentes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdmissionBenchmark {
+
+    @Param({"1", "1000000000"})
+    public long perSecond;
+
+    private Object bucket;
+
+    @Setup
+    public void setup() {
+        bucket = Chat.tokenBucket(perSecond, 1);
+    }
+
+    @Benchmark
+    public boolean tryAcquire() {
+        return Chat.tryAcquire(bucket, 1, System.nanoTime());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean tryAcquireShared() {
+        return Chat.tryAcquire(bucket, 1, System.nanoTime());
+    }
+}
@@ -0,0 +1,450 @@
+package bench;
+
+import java.io.DataInputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Acesso às classes do chat, que ficam no pacote padrão: o JMH não aceita
+ * benchmarks no pacote padrão e código em um pacote nomeado não pode
+ * importá-las. Cada operação é um MethodHandle estático e final, que o JIT
+ * trata como uma chamada direta; os ClientHandler circulam como Object.
+ */
+final class Chat {
+
+    private static final Class<?> SERVER = load("ChatServer");
+    private static final Class<?> CLIENT = load("ClientHandler");
+    private static final Class<?> PROTOCOL = load("Protocol");
+
+    private static final MethodHandle NEW_CLIENT = constructor(CLIENT, java.net.Socket.class);
+    private static final MethodHandle SET_USERNAME = setter(CLIENT, "username", String.class);
+    private static final MethodHandle DISPATCH =
+            staticMethod(load("Commands"), "dispatch", void.class, CLIENT, byte[].class, int.class, int.class);
+    private static final MethodHandle OUTBOX = virtual(CLIENT, "outbox", load("OutboundQueue"));
+    private static final MethodHandle DRAIN_TO = virtual(load("OutboundQueue"), "drainTo", void.class, List.class);
+    private static final MethodHandle CLIENTS = staticGetter(SERVER, "clients", Map.class);
+    private static final MethodHandle SET_HISTORY = staticSetter(SERVER, "history", load("GroupHistory"));
+    private static final MethodHandle NEW_HISTORY = constructor(load("GroupHistory"), load("MessageLog"));
+    private static final MethodHandle START = staticMethod(SERVER, "start", void.class, String.class, int.class);
+    private static final MethodHandle CREATE_GROUP =
+            staticMethod(SERVER, "createGroup", void.class, String.class, CLIENT);
+    private static final MethodHandle JOIN_GROUP = staticMethod(SERVER, "joinGroup", void.class, String.class, CLIENT);
+    private static final MethodHandle ROUTE_GROUP =
+            staticMethod(SERVER, "routeGroupMessage", void.class, String.class, String.class, CLIENT);
+    private static final MethodHandle REMOVE_CLIENT = staticMethod(SERVER, "removeClient", void.class, CLIENT);
+    private static final Class<?> BUCKET = load("Admission$TokenBucket");
+    private static final MethodHandle NEW_BUCKET = constructor(BUCKET, long.class, double.class);
+    private static final MethodHandle TRY_ACQUIRE = virtual(BUCKET, "tryAcquire", boolean.class, long.class, long.class);
+
+    private static final MethodHandle GET_ID = virtual(CLIENT, "getId", long.class);
+    private static final MethodHandle ENABLE_BINARY = virtual(CLIENT, "enableBinaryProtocol", void.class);
+    private static final MethodHandle SEND_MESSAGE = virtual(CLIENT, "sendMessage", void.class, String.class);
+    private static final MethodHandle NEW_SHARED = constructor(load("SharedMessage"), String.class);
+    private static final MethodHandle SEND_SHARED = virtual(CLIENT, "sendShared", void.class, load("SharedMessage"));
+    private static final Class<?> REGISTRY = load("GroupRegistry");
+    private static final Class<?> GROUP = load("GroupRegistry$Group");
+    private static final MethodHandle NEW_REGISTRY = constructor(REGISTRY);
+    private static final MethodHandle REGISTRY_CREATE =
+            virtual(REGISTRY, "create", boolean.class, String.class, CLIENT);
+    private static final MethodHandle REGISTRY_JOIN =
+            virtual(REGISTRY, "join", load("GroupRegistry$JoinResult"), String.class, CLIENT);
+    private static final MethodHandle REGISTRY_GET = virtual(REGISTRY, "get", GROUP, String.class);
+    private static final MethodHandle GROUP_CONTAINS = virtual(GROUP, "contains", boolean.class, CLIENT);
+    private static final MethodHandle GROUP_MEMBERS = virtual(GROUP, "members", CLIENT.arrayType());
+
+    private static final Class<?> COMPRESSION = load("Compression");
+    private static final MethodHandle DEFLATE =
+            staticMethod(COMPRESSION, "deflate", int.class, byte[].class, int.class, int.class, byte[].class);
+    private static final MethodHandle INFLATE =
+            staticMethod(COMPRESSION, "inflate", void.class, byte[].class, int.class, int.class, byte[].class, int.class);
+    private static final MethodHandle CHUNK_SIZE = staticMethod(load("FileTransfer"), "chunkSize", int.class, long.class);
+
+    private static final MethodHandle HANDSHAKE = staticMethod(PROTOCOL, "handshake", byte[].class);
+    private static final MethodHandle FRAME =
+            staticMethod(PROTOCOL, "frame", byte[].class, byte.class, String.class);
+    private static final MethodHandle FRAME_FIELDS =
+            staticMethod(PROTOCOL, "frame", byte[].class, byte.class, String.class, String.class);
+    private static final MethodHandle FILE_FRAME =
+            staticMethod(PROTOCOL, "fileFrame", byte[].class, byte.class, String.class, String.class, long.class);
+    private static final MethodHandle READ_FRAME =
+            staticMethod(PROTOCOL, "readFrame", ByteBuffer.class, DataInputStream.class, byte[].class, int.class);
+    private static final MethodHandle READ_FIELD = staticMethod(PROTOCOL, "readField", String.class, ByteBuffer.class);
+    private static final MethodHandle READ_REST = staticMethod(PROTOCOL, "readRest", String.class, ByteBuffer.class);
+
+    // Tipos de quadro do protocolo binário (Protocol)
+    static final byte LOGIN = constant("LOGIN");
+    static final byte PRIVATE = constant("PRIVATE");
+    static final byte CREATE = constant("CREATE_GROUP");
+    static final byte JOIN = constant("JOIN_GROUP");
+    static final byte SEND_FILE = constant("SEND_FILE");
+    static final byte MESSAGE = constant("MESSAGE");
+    static final byte RECV_FILE = constant("RECV_FILE");
+
+    private Chat() {
+    }
+
+    // --- Servidor sem rede: clientes sem socket, só com a fila de saída ---
+
+    /**
+     * Cliente sem conexão já registrado no servidor com o nome dado. O
+     * registro é feito direto no mapa: ChatServer.addClient registra o
+     * endereço do socket no log.
+     */
+    @SuppressWarnings("unchecked")
+    static Object client(String name) {
+        try {
+            Object client = NEW_CLIENT.invoke((java.net.Socket) null);
+            SET_USERNAME.invoke(client, name);
+            ((Map<String, Object>) CLIENTS.invoke()).put(name, client);
+            return client;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Cliente sem conexão e fora do servidor, só para ser membro de grupos
+    static Object member() {
+        try {
+            return NEW_CLIENT.invoke((java.net.Socket) null);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static long id(Object client) {
+        try {
+            return (long) GET_ID.invoke(client);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void enableBinaryProtocol(Object client) {
+        try {
+            ENABLE_BINARY.invoke(client);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void sendMessage(Object client, String text) {
+        try {
+            SEND_MESSAGE.invoke(client, text);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Mensagem codificada uma única vez para todos os membros (SharedMessage)
+    static Object sharedMessage(String text) {
+        try {
+            return NEW_SHARED.invoke(text);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void sendShared(Object client, Object message) {
+        try {
+            SEND_SHARED.invoke(client, message);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Registro de grupos próprio (GroupRegistry), fora do servidor, com um grupo e seus membros
+    static Object registry(String group, Object[] members) {
+        try {
+            Object registry = NEW_REGISTRY.invoke();
+            REGISTRY_CREATE.invoke(registry, group, members[0]);
+            for (int i = 1; i < members.length; i++) {
+                REGISTRY_JOIN.invoke(registry, group, members[i]);
+            }
+            return REGISTRY_GET.invoke(registry, group);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static boolean contains(Object group, Object member) {
+        try {
+            return (boolean) GROUP_CONTAINS.invoke(group, member);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Object[] members(Object group) {
+        try {
+            return (Object[]) GROUP_MEMBERS.invoke(group);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // O que ChatServer.start prepara e o envio para grupos usa (sem log em disco)
+    static void initHistory() {
+        try {
+            SET_HISTORY.invoke(NEW_HISTORY.invoke(null));
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Uma linha do protocolo de texto, como o servidor a lê do socket
+    static void dispatch(Object client, byte[] line) {
+        try {
+            DISPATCH.invoke(client, line, 0, line.length);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void createGroup(String group, Object creator) {
+        try {
+            CREATE_GROUP.invoke(group, creator);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void joinGroup(String group, Object user) {
+        try {
+            JOIN_GROUP.invoke(group, user);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void routeGroupMessage(String group, String message, Object sender) {
+        try {
+            ROUTE_GROUP.invoke(group, message, sender);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void removeClient(Object client) {
+        try {
+            REMOVE_CLIENT.invoke(client);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Token bucket do controle de admissão (Admission.TokenBucket)
+    static Object tokenBucket(long perSecond, double burstSeconds) {
+        try {
+            return NEW_BUCKET.invoke(perSecond, burstSeconds);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static boolean tryAcquire(Object bucket, long units, long now) {
+        try {
+            return (boolean) TRY_ACQUIRE.invoke(bucket, units, now);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Esvazia a fila de saída do cliente (o que a thread escritora faria) e
+     * devolve o total de bytes que seriam escritos.
+     */
+    static long drain(Object client, List<Object> scratch) {
+        try {
+            DRAIN_TO.invoke(OUTBOX.invoke(client), scratch);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        long bytes = 0;
+        for (Object message : scratch) {
+            bytes += message instanceof byte[] ? ((byte[]) message).length : 0;
+        }
+        scratch.clear();
+        return bytes;
+    }
+
+    static List<Object> scratch() {
+        return new ArrayList<>(64);
+    }
+
+    // --- Compressão (Compression) ---
+
+    // Caminho do servidor e dos clientes: -1 quando o conteúdo não compensa
+    static int deflate(byte[] input, byte[] output) {
+        try {
+            return (int) DEFLATE.invoke(input, 0, input.length, output);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void inflate(byte[] input, int length, byte[] output, int expected) {
+        try {
+            INFLATE.invoke(input, 0, length, output, expected);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Tamanho dos blocos das transferências de arquivos (FileTransfer)
+    static int chunkSize(long size) {
+        try {
+            return (int) CHUNK_SIZE.invoke(size);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // --- Servidor completo, no próprio processo ---
+
+    // Sobe o servidor em uma thread daemon (start bloqueia no loop de aceitação)
+    static void startServer(String mode) {
+        Thread server = new Thread(() -> {
+            try {
+                START.invoke(mode, 2);
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }, "chat-server");
+        server.setDaemon(true);
+        server.start();
+    }
+
+    static byte[] handshake() {
+        try {
+            return (byte[]) HANDSHAKE.invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static byte[] frame(byte type, String text) {
+        try {
+            return (byte[]) FRAME.invoke(type, text);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static byte[] frame(byte type, String first, String rest) {
+        try {
+            return (byte[]) FRAME_FIELDS.invoke(type, first, rest);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static byte[] fileFrame(String dest, String filename, long size) {
+        try {
+            return (byte[]) FILE_FRAME.invoke(SEND_FILE, dest, filename, size);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Próximo quadro do servidor (null no fim do stream); o tipo vai em type[0]
+    static ByteBuffer readFrame(DataInputStream in, byte[] type) throws java.io.IOException {
+        try {
+            return (ByteBuffer) READ_FRAME.invoke(in, type, 16 * 1024 * 1024);
+        } catch (java.io.IOException | RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String readField(ByteBuffer payload) {
+        try {
+            return (String) READ_FIELD.invoke(payload);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String readRest(ByteBuffer payload) {
+        try {
+            return (String) READ_REST.invoke(payload);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // --- Resolução dos handles ---
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandles.Lookup lookup(Class<?> type) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+    }
+
+    private static MethodHandle constructor(Class<?> type, Class<?>... parameters) {
+        try {
+            return lookup(type).findConstructor(type, MethodType.methodType(void.class, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle virtual(Class<?> type, String name, Class<?> result, Class<?>... parameters) {
+        try {
+            return lookup(type).findVirtual(type, name, MethodType.methodType(result, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle staticMethod(Class<?> type, String name, Class<?> result, Class<?>... parameters) {
+        try {
+            return lookup(type).findStatic(type, name, MethodType.methodType(result, parameters));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle setter(Class<?> type, String name, Class<?> fieldType) {
+        try {
+            return lookup(type).findSetter(type, name, fieldType);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle staticGetter(Class<?> type, String name, Class<?> fieldType) {
+        try {
+            return lookup(type).findStaticGetter(type, name, fieldType);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle staticSetter(Class<?> type, String name, Class<?> fieldType) {
+        try {
+            return lookup(type).findStaticSetter(type, name, fieldType);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static byte constant(String name) {
+        try {
+            return (byte) lookup(PROTOCOL).findStaticGetter(PROTOCOL, name, byte.class).invoke();
+        } catch (Throwable e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
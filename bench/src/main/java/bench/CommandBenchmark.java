@@ -0,0 +1,75 @@
+package bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Interpretação de uma linha do protocolo de texto (Commands.dispatch, com os
+ * bytes como o servidor os lê do socket) e a ação correspondente até as filas
+ * de saída, para cada tipo de comando. O grupo tem só os dois usuários, então
+ * o custo do envio é pequeno perto do da interpretação. Os comandos de grupo
+ * medem o caminho de sucesso: antes de cada chamada (Level.Invocation, fora
+ * da medição) quem envia é trocado por um usuário novo, fora de 'sala', e o
+ * grupo 'nova' criado na chamada anterior some com o usuário que saiu. Com
+ * -prof gc, gc.alloc.rate.norm é o que cada comando aloca.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+
+    @Param({"@bob:mensagem de teste", "#sala:mensagem de teste", "/joingroup sala", "/creategroup nova"})
+    public String command;
+
+    private byte[] line;
+    private boolean changesGroups;
+
+    private Object alice;
+    private Object bob;
+    private final List<Object> scratch = Chat.scratch();
+
+    @Setup
+    public void setup() {
+        Chat.initHistory();
+        bob = Chat.client("bob");
+        Chat.createGroup("sala", bob);
+        alice = Chat.client("alice");
+        Chat.joinGroup("sala", alice);
+        Chat.drain(alice, scratch);
+        Chat.drain(bob, scratch);
+        line = command.getBytes(StandardCharsets.UTF_8);
+        changesGroups = command.startsWith("/");
+    }
+
+    @Setup(Level.Invocation)
+    public void freshSender() {
+        if (changesGroups) {
+            // Sai de 'sala' (bob continua nela) e de 'nova', que fica vazia e é removida
+            Chat.removeClient(alice);
+            alice = Chat.client("alice");
+        }
+    }
+
+    @Benchmark
+    public long dispatch() {
+        Chat.dispatch(alice, line);
+        return Chat.drain(alice, scratch) + Chat.drain(bob, scratch);
+    }
+}
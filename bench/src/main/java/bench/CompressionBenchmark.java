@@ -0,0 +1,139 @@
+package bench;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Deflate (níveis 1 e 6) e Inflate nos conteúdos que o chat comprime: um lote
+ * de 200 mensagens como o que a escritora junta, uma mensagem de grupo de
+ * 4 KB, um bloco de arquivo de texto (log) e um bloco aleatório (arquivo já
+ * comprimido). deflatePool é o caminho do servidor e dos clientes
+ * (Compression.deflate, nível chat.compressLevel, independente de level),
+ * que desiste cedo do que não comprime. A taxa de cada conteúdo é impressa
+ * no início da execução.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"lote", "grupo", "log", "aleatorio"})
+    public String payload;
+
+    @Param({"1", "6"})
+    public int level;
+
+    private byte[] data;
+    private byte[] output;
+    private byte[] compressed;
+    private int compressedLength;
+    private byte[] inflated;
+    private Deflater deflater;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        switch (payload) {
+            case "lote":
+                data = batch(random, 200);
+                break;
+            case "grupo":
+                data = Chat.frame(Chat.MESSAGE, "[grupo geral] " + text(random, 4096));
+                break;
+            case "log":
+                data = logChunk(random, Chat.chunkSize(0));
+                break;
+            default:
+                data = new byte[Chat.chunkSize(0)];
+                random.nextBytes(data);
+        }
+        output = new byte[data.length + 1024];
+        inflated = new byte[data.length];
+        deflater = new Deflater(level);
+        compressedLength = deflate();
+        compressed = Arrays.copyOf(output, compressedLength);
+        int pooled = Chat.deflate(data, new byte[data.length]);
+        System.out.printf("%n[COMPRESSÃO] %s (%,d bytes): nível %d %.1f%%; Compression.deflate %s%n", payload,
+                data.length, level, 100.0 * compressedLength / data.length,
+                pooled < 0 ? "sem compressão" : String.format("%.1f%%", 100.0 * pooled / data.length));
+    }
+
+    @TearDown
+    public void tearDown() {
+        deflater.end();
+    }
+
+    @Benchmark
+    public int deflate() {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            length += deflater.deflate(output, length, output.length - length);
+        }
+        return length;
+    }
+
+    @Benchmark
+    public byte[] inflate() {
+        Chat.inflate(compressed, compressedLength, inflated, data.length);
+        return inflated;
+    }
+
+    @Benchmark
+    public int deflatePool() {
+        return Chat.deflate(data, output);
+    }
+
+    // Quadros de mensagens privadas, como a escritora de ChatConnection os junta
+    private static byte[] batch(Random random, int messages) {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        for (int i = 0; i < messages; i++) {
+            frames.writeBytes(Chat.frame(Chat.PRIVATE, "usuario" + random.nextInt(50),
+                    text(random, 20 + random.nextInt(100))));
+        }
+        return frames.toByteArray();
+    }
+
+    private static byte[] logChunk(Random random, int size) {
+        StringBuilder log = new StringBuilder(size + 200);
+        for (int i = 0; log.length() < size; i++) {
+            log.append(String.format("2026-10-17 12:%02d:%02d.%03d [INFO] cliente usuario%d enviou %d bytes para #grupo%d%n",
+                    i / 60000 % 60, i / 1000 % 60, i % 1000, random.nextInt(500), random.nextInt(100_000),
+                    random.nextInt(20)));
+        }
+        return log.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Texto em português com palavras repetidas, como uma conversa
+    private static String text(Random random, int length) {
+        String[] words = {"olá", "pessoal", "reunião", "amanhã", "às", "dez", "horas", "o", "arquivo", "está", "no",
+                "grupo", "confirmem", "por", "favor", "servidor", "mensagem", "obrigado", "sim", "não", "trabalho"};
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            text.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        return text.substring(0, length);
+    }
+}
@@ -0,0 +1,70 @@
+package bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ChatServer.removeClient de um usuário que está em alguns grupos, com
+ * muitos grupos no servidor. A entrada nos grupos é refeita antes de cada
+ * chamada (Level.Invocation) e fica fora da medição.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DisconnectBenchmark {
+
+    @Param({"100", "10000"})
+    public int groups;
+
+    @Param({"5", "50"})
+    public int memberships;
+
+    private final List<Object> scratch = Chat.scratch();
+    private Object leaving;
+    private int round;
+
+    @Setup
+    public void setup() {
+        Chat.initHistory();
+        // Dois membros fixos por grupo: a saída nunca esvazia (e remove) um grupo
+        Object first = Chat.client("fixo1");
+        Object second = Chat.client("fixo2");
+        for (int g = 0; g < groups; g++) {
+            Chat.createGroup("g" + g, first);
+            Chat.joinGroup("g" + g, second);
+        }
+        Chat.drain(first, scratch);
+        Chat.drain(second, scratch);
+    }
+
+    @Setup(Level.Invocation)
+    public void join() {
+        leaving = Chat.client("saindo" + (round & 1023));
+        for (int i = 0; i < memberships; i++) {
+            Chat.joinGroup("g" + (round * 7 + i * 13) % groups, leaving);
+        }
+        round++;
+    }
+
+    @Benchmark
+    public Object removeClient() {
+        Chat.removeClient(leaving);
+        return leaving;
+    }
+}
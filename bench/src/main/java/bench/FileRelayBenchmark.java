@@ -0,0 +1,193 @@
+package bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Vazão do repasse de arquivos (FileRelay) de ponta a ponta: o servidor roda
+ * no processo do benchmark e cada operação é um /sendfile do remetente que
+ * termina quando todos os destinatários receberam o último byte. Com um
+ * destinatário o arquivo vai a @usuario (repasse direto); com mais, a um
+ * grupo (buffer único ou disco, conforme chat.spoolThreshold).
+ *
+ * Bytes por segundo = operações por segundo x size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Dchat.logRate=10")
+public class FileRelayBenchmark {
+
+    @Param({"nio", "blocking"})
+    public String mode;
+
+    @Param({"1", "10"})
+    public int recipients;
+
+    @Param({"65536", "1048576", "16777216"})
+    public int size;
+
+    private Socket sender;
+    private OutputStream out;
+    private final List<Socket> receivers = new ArrayList<>();
+    // Um permit por destinatário que terminou de receber um arquivo
+    private final Semaphore received = new Semaphore(0);
+    // Destinatários que já confirmaram a entrada no grupo
+    private final Set<Integer> joined = ConcurrentHashMap.newKeySet();
+    private byte[] header;
+    private byte[] content;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        System.setProperty("chat.port", String.valueOf(port));
+        System.setProperty("chat.logDir", Files.createTempDirectory("chat-bench-log").toString());
+        Chat.startServer(mode);
+
+        sender = connect(port, "remetente");
+        out = new BufferedOutputStream(sender.getOutputStream(), 64 * 1024);
+        for (int i = 0; i < recipients; i++) {
+            Socket receiver = connect(port, "destino" + i);
+            receivers.add(receiver);
+            int index = i;
+            Thread reader = new Thread(() -> readLoop(receiver, index), "destino" + i);
+            reader.setDaemon(true);
+            reader.start();
+        }
+        String dest = "@destino0";
+        if (recipients > 1) {
+            write(out, Chat.frame(Chat.CREATE, "arquivos"));
+            joinAll();
+            dest = "#arquivos";
+        }
+        header = Chat.fileFrame(dest, "bench.bin", size);
+        content = new byte[size];
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        sender.close();
+        for (Socket receiver : receivers) {
+            receiver.close();
+        }
+    }
+
+    @Benchmark
+    public void sendFile() throws Exception {
+        out.write(header);
+        out.write(content);
+        out.flush();
+        if (!received.tryAcquire(recipients, 60, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Arquivo não entregue a todos os destinatários");
+        }
+    }
+
+    /**
+     * Cada conexão é atendida por um reator diferente: um JOIN pode chegar
+     * antes do CREATE do remetente. Repete o JOIN até todos confirmarem.
+     */
+    private void joinAll() throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            boolean complete = true;
+            for (int i = 0; i < recipients; i++) {
+                if (!joined.contains(i)) {
+                    complete = false;
+                    write(receivers.get(i).getOutputStream(), Chat.frame(Chat.JOIN, "arquivos"));
+                }
+            }
+            if (complete) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Destinatários não entraram no grupo");
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private static Socket connect(int port, String name) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            try {
+                Socket socket = new Socket("127.0.0.1", port);
+                OutputStream out = socket.getOutputStream();
+                out.write(Chat.handshake());
+                write(out, Chat.frame(Chat.LOGIN, name));
+                return socket;
+            } catch (IOException e) {
+                // Servidor ainda subindo
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static void write(OutputStream out, byte[] frame) throws IOException {
+        out.write(frame);
+        out.flush();
+    }
+
+    // Lê quadros do servidor; o conteúdo de cada arquivo vem logo após o RECV_FILE
+    private void readLoop(Socket socket, int index) {
+        byte[] type = new byte[1];
+        byte[] skip = new byte[64 * 1024];
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            ByteBuffer payload;
+            while ((payload = Chat.readFrame(in, type)) != null) {
+                if (type[0] == Chat.MESSAGE && Chat.readRest(payload).startsWith("[INFO] Você entrou")) {
+                    joined.add(index);
+                } else if (type[0] == Chat.RECV_FILE) {
+                    Chat.readField(payload);
+                    Chat.readField(payload);
+                    long remaining = payload.getLong();
+                    while (remaining > 0) {
+                        int read = in.read(skip, 0, (int) Math.min(skip.length, remaining));
+                        if (read < 0) {
+                            return;
+                        }
+                        remaining -= read;
+                    }
+                    received.release();
+                }
+            }
+        } catch (IOException e) {
+            // Conexão encerrada no fim do benchmark
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ChatServer.routeGroupMessage para grupos de vários tamanhos: formatação,
+ * codificação única, histórico e uma entrada na fila de saída de cada membro.
+ * As filas são esvaziadas a cada operação, como faria a thread escritora;
+ * sem isso elas encheriam e o benchmark mediria o descarte.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GroupFanOutBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int members;
+
+    private Object[] users;
+    private final List<Object> scratch = Chat.scratch();
+
+    @Setup
+    public void setup() {
+        Chat.initHistory();
+        users = new Object[members];
+        for (int i = 0; i < members; i++) {
+            users[i] = Chat.client("u" + i);
+        }
+        Chat.createGroup("sala", users[0]);
+        for (int i = 1; i < members; i++) {
+            Chat.joinGroup("sala", users[i]);
+        }
+        drainAll();
+    }
+
+    @Benchmark
+    public long routeGroupMessage() {
+        Chat.routeGroupMessage("sala", "mensagem de teste para medir o envio ao grupo", users[0]);
+        return drainAll();
+    }
+
+    private long drainAll() {
+        long bytes = 0;
+        for (Object user : users) {
+            bytes += Chat.drain(user, scratch);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,108 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Registro de grupos (GroupRegistry) contra a estrutura anterior (lista
+ * sincronizada por grupo, contains e cópia da lista a cada envio), e a
+ * codificação de uma mensagem de grupo por membro contra a codificação única
+ * (SharedMessage), com metade dos membros no protocolo binário. Sem rede nem
+ * servidor: só as estruturas e a codificação. A desconexão está em
+ * DisconnectBenchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GroupRegistryBenchmark {
+
+    private static final String TEXT = "[GRUPO bench de remetente]: mensagem de teste para medir a codificação";
+
+    @Param({"10", "100", "1000", "10000"})
+    public int members;
+
+    private Object[] users;
+    private Object sender;
+    private List<Object> legacy;
+    private Object group;
+    private final List<Object> scratch = Chat.scratch();
+
+    @Setup
+    public void setup() {
+        users = new Object[members];
+        for (int i = 0; i < members; i++) {
+            users[i] = Chat.member();
+        }
+        for (int i = 0; i < members; i += 2) {
+            Chat.enableBinaryProtocol(users[i]);
+        }
+        sender = users[members - 1];
+        legacy = Collections.synchronizedList(new ArrayList<>());
+        Collections.addAll(legacy, users);
+        group = Chat.registry("g", users);
+    }
+
+    @Benchmark
+    public long fanOutList() {
+        long sum = 0;
+        if (legacy.contains(sender)) {
+            for (Object member : new ArrayList<>(legacy)) {
+                sum += Chat.id(member);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long fanOutRegistry() {
+        long sum = 0;
+        if (Chat.contains(group, sender)) {
+            for (Object member : Chat.members(group)) {
+                sum += Chat.id(member);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long encodePerMember() {
+        for (Object member : users) {
+            Chat.sendMessage(member, TEXT);
+        }
+        return drainAll();
+    }
+
+    @Benchmark
+    public long encodeShared() {
+        Object message = Chat.sharedMessage(TEXT);
+        for (Object member : users) {
+            Chat.sendShared(member, message);
+        }
+        return drainAll();
+    }
+
+    private long drainAll() {
+        long bytes = 0;
+        for (Object user : users) {
+            bytes += Chat.drain(user, scratch);
+        }
+        return bytes;
+    }
+}
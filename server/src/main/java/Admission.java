@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Controle de admissão do servidor: limite global de conexões (recusadas
+ * já no accept, com RST e sem criar thread nem handler), prazo para concluir
+ * o login, tamanho máximo de arquivo e limites de envio por usuário e por
+ * grupo (mensagens e bytes por segundo).
+ *
+ * Os limites de envio são token buckets sem lock: cada verificação é uma
+ * leitura do relógio e um compareAndSet. Com um limite desligado (0) não há
+ * bucket, e a verificação custa só um teste de null.
+ *
+ * Propriedades:
+ * - chat.maxConnections: conexões abertas ao mesmo tempo, do chat e de dados (padrão 20000; 0 = sem limite)
+ * - chat.handshakeTimeoutMs: prazo entre aceitar a conexão e o login (padrão 10000; contado pelo Heartbeat)
+ * - chat.maxFileSize: maior arquivo aceito, em bytes (padrão 4 GB)
+ * - chat.userMessagesPerSecond, chat.userBytesPerSecond: por usuário (padrão 0 = sem limite)
+ * - chat.groupMessagesPerSecond, chat.groupBytesPerSecond: por grupo (padrão 0 = sem limite)
+ * - chat.rateBurstSeconds: rajada aceita acima do ritmo, em segundos de limite (padrão 1)
+ */
+final class Admission {
+
+    static final int MAX_CONNECTIONS = Integer.getInteger("chat.maxConnections", 20_000);
+    static final long HANDSHAKE_TIMEOUT_MILLIS = Long.getLong("chat.handshakeTimeoutMs", 10_000);
+    static final long MAX_FILE_SIZE = Long.getLong("chat.maxFileSize", 4L << 30);
+    private static final long USER_MESSAGES = Long.getLong("chat.userMessagesPerSecond", 0);
+    private static final long USER_BYTES = Long.getLong("chat.userBytesPerSecond", 0);
+    private static final long GROUP_MESSAGES = Long.getLong("chat.groupMessagesPerSecond", 0);
+    private static final long GROUP_BYTES = Long.getLong("chat.groupBytesPerSecond", 0);
+    private static final double BURST_SECONDS =
+            Double.parseDouble(System.getProperty("chat.rateBurstSeconds", "1"));
+
+    // Conexões abertas (do chat e da porta de dados)
+    private static final AtomicInteger connections = new AtomicInteger();
+
+    private Admission() {
+    }
+
+    /**
+     * Token bucket sem lock no formato GCRA: em vez de contar tokens, guarda
+     * o instante teórico em que o bucket volta a ficar cheio. Cada envio
+     * empurra esse instante pelo custo; o envio é recusado se ele passaria
+     * da rajada permitida à frente do relógio.
+     */
+    static final class TokenBucket {
+        private final double nanosPerUnit;
+        private final long tolerance;
+        private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE / 2);
+
+        TokenBucket(long perSecond, double burstSeconds) {
+            this.nanosPerUnit = 1e9 / perSecond;
+            this.tolerance = (long) (burstSeconds * 1e9);
+        }
+
+        /**
+         * Consome units se houver saldo. Com o bucket cheio o envio sempre
+         * passa, mesmo maior que a rajada (fica em débito até o ritmo cobrir).
+         */
+        boolean tryAcquire(long units, long now) {
+            long cost = (long) (units * nanosPerUnit);
+            while (true) {
+                long current = fullAt.get();
+                long next = Math.max(current, now) + cost;
+                if (current > now && next - now > tolerance) {
+                    return false;
+                }
+                if (fullAt.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /** Limites de mensagens e de bytes de um usuário ou de um grupo; null se ambos desligados. */
+    static final class Limits {
+        private final TokenBucket messages;
+        private final TokenBucket bytes;
+
+        private Limits(long messagesPerSecond, long bytesPerSecond) {
+            this.messages = messagesPerSecond > 0 ? new TokenBucket(messagesPerSecond, BURST_SECONDS) : null;
+            this.bytes = bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond, BURST_SECONDS) : null;
+        }
+
+        boolean tryAcquire(int length) {
+            long now = System.nanoTime();
+            return (messages == null || messages.tryAcquire(1, now)) && (bytes == null || bytes.tryAcquire(length, now));
+        }
+    }
+
+    static Limits userLimits() {
+        return USER_MESSAGES > 0 || USER_BYTES > 0 ? new Limits(USER_MESSAGES, USER_BYTES) : null;
+    }
+
+    static Limits groupLimits() {
+        return GROUP_MESSAGES > 0 || GROUP_BYTES > 0 ? new Limits(GROUP_MESSAGES, GROUP_BYTES) : null;
+    }
+
+    // --- Conexões ---
+
+    /**
+     * Reserva uma vaga para uma conexão recém-aceita. Sem vaga, a conexão é
+     * fechada na hora com RST (sem TIME_WAIT no servidor) e false é retornado.
+     */
+    static boolean admit(SocketChannel channel) {
+        int open = connections.incrementAndGet();
+        if (MAX_CONNECTIONS <= 0 || open <= MAX_CONNECTIONS) {
+            return true;
+        }
+        connections.decrementAndGet();
+        Metrics.rejectedConnections.increment();
+        ServerLog.info("[ADMISSÃO] Conexão recusada: limite de " + MAX_CONNECTIONS + " conexões atingido");
+        try {
+            channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+            channel.close();
+        } catch (IOException e) {
+            // Já fechada pelo outro lado
+        }
+        return false;
+    }
+
+    // Libera a vaga de uma conexão admitida (uma vez por conexão)
+    static void release() {
+        connections.decrementAndGet();
+    }
+
+    static int openConnections() {
+        return connections.get();
+    }
+
+    // Tamanho de arquivo anunciado pelo cliente dentro do limite
+    static boolean acceptsFileSize(long size) {
+        return size >= 0 && size <= MAX_FILE_SIZE;
+    }
+}
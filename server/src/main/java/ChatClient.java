@@ -0,0 +1,398 @@
+
+import java.io.*;
+// Importa classes para comunicação via rede
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+// Importa classe para ler entrada do usuário
+import java.util.Scanner;
+
+import javax.swing.JOptionPane;
+
+// Classe principal do cliente de chat
+public class ChatClient {
+    // Endereço do servidor
+    private static final String SERVER_HOST = "127.0.0.1";
+    // Porta do servidor (-Dchat.port=<porta> para conectar a outro nó do cluster)
+    private static final int SERVER_PORT = Integer.getInteger("chat.port", 55555);
+
+    // Limite de tamanho para mensagens vindas do servidor
+    static final int MAX_SERVER_PAYLOAD = 16 * 1024 * 1024;
+
+    // Método principal
+    // Uso: java ChatClient [--text]   (--text usa o protocolo de texto antigo)
+    public static void main(String[] args) {
+        // Protocolo binário por padrão; texto para servidores antigos
+        boolean binary = !(args.length > 0 && args[0].equals("--text"));
+        // Tenta conectar ao servidor e inicializar recursos
+        try (
+                // Cria o socket para conectar ao servidor
+                Socket socket = new Socket(SERVER_HOST, SERVER_PORT);
+                // Scanner para ler entrada do usuário
+                Scanner consoleInput = new Scanner(System.in)) {
+            // Stream para enviar mensagens e arquivos ao servidor
+            OutputStream out = socket.getOutputStream();
+            // Stream único para ler mensagens e arquivos do servidor
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            // Solicita o nome de usuário ao usuário
+            System.out.print("\nDigite seu nome de usuário: ");
+            String username = consoleInput.nextLine();
+            // Envia o nome de usuário ao servidor
+            // Transferências em blocos pela porta de dados (null: arquivos vão pela conexão do chat)
+            FileTransfer transfers = null;
+            if (binary) {
+                ByteBuffer hello = binaryHandshake(socket, in, out);
+                if (hello == null) {
+                    System.err.println("O servidor não respondeu ao protocolo binário. Use: java ChatClient --text");
+                    return;
+                }
+                int version = hello.get();
+                transfers = transfersFrom(version, hello, username);
+                out.write(Protocol.frame(Protocol.LOGIN, username));
+                // Versão 3: lotes de mensagens podem vir comprimidos
+                if (version >= 3 && Compression.ENABLED) {
+                    out.write(Protocol.frame(Protocol.COMPRESS, "deflate"));
+                }
+            } else {
+                out.write(Protocol.textLine(username));
+                // Este cliente responde ao /ping (clientes de texto antigos não recebem)
+                out.write(Protocol.textLine("/heartbeat"));
+            }
+
+            // Cria e inicia a thread para receber mensagens do servidor
+            ReceiverThread receiver = new ReceiverThread(socket, in, out, binary, transfers);
+            new Thread(receiver).start();
+
+            // A thread principal fica responsável por enviar mensagens para o servidor
+            System.out.println("--- Conectado ao chat. Digite /exit para sair ---");
+            String userInput;
+            // Loop para ler e enviar mensagens do usuário
+            while (true) {
+                userInput = consoleInput.nextLine(); // Lê mensagem do usuário
+                if (userInput.equalsIgnoreCase("/exit")) { // Se for comando de sair
+                    break;
+                }
+                // Verifica se o comando é para enviar um arquivo
+                if (userInput.startsWith("/sendfile ")) {
+                    // Chama método para enviar arquivo
+                    handleSendFile(userInput, binary, out, transfers);
+                } else if (binary) {
+                    byte[] frame = encodeCommand(userInput);
+                    if (frame != null) {
+                        send(out, frame);
+                    } else {
+                        System.out.println("Comando desconhecido: " + userInput);
+                    }
+                } else {
+                    // Envia mensagem normal ao servidor
+                    send(out, Protocol.textLine(userInput));
+                }
+            }
+            // Mensagem de desconexão
+            System.out.println("Desconectando...");
+
+        } catch (UnknownHostException e) {
+            // Erro de host desconhecido
+            System.err.println("Host desconhecido: " + SERVER_HOST);
+        } catch (IOException e) {
+            // Erro de conexão
+            System.err.println("Não foi possível conectar ao servidor. Verifique se ele está online.");
+        }
+    }
+
+    // Escritas na conexão do chat: a thread receptora também escreve (respostas ao ping)
+    static void send(OutputStream out, byte[] bytes) throws IOException {
+        synchronized (out) {
+            out.write(bytes);
+        }
+    }
+
+    // Envia Protocol.MAGIC e espera o HELLO do servidor (null: servidores antigos não respondem)
+    private static ByteBuffer binaryHandshake(Socket socket, DataInputStream in, OutputStream out) throws IOException {
+        out.write(Protocol.handshake());
+        socket.setSoTimeout(5000);
+        try {
+            byte[] type = new byte[1];
+            ByteBuffer hello = Protocol.readFrame(in, type, MAX_SERVER_PAYLOAD);
+            return hello != null && type[0] == Protocol.HELLO ? hello : null;
+        } catch (SocketTimeoutException e) {
+            return null;
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+
+    // HELLO da versão 2: token da sessão e porta de transferências (0 se o servidor não as oferece)
+    private static FileTransfer transfersFrom(int version, ByteBuffer hello, String username) throws IOException {
+        if (version < 2) {
+            return null;
+        }
+        String token = Protocol.readField(hello);
+        int port = Protocol.readInt(hello);
+        return port > 0
+                ? new FileTransfer(SERVER_HOST, port, username, token, FileTransfer.STREAMS, version >= 3)
+                : null;
+    }
+
+    // Converte um comando digitado no quadro binário correspondente (null se desconhecido)
+    static byte[] encodeCommand(String command) {
+        if (command.startsWith("@") || command.startsWith("#")) {
+            int separator = command.indexOf(':');
+            if (separator < 0) {
+                return null;
+            }
+            byte type = command.charAt(0) == '@' ? Protocol.PRIVATE : Protocol.GROUP;
+            return Protocol.frame(type, command.substring(1, separator), command.substring(separator + 1));
+        } else if (command.startsWith("/creategroup ")) {
+            return Protocol.frame(Protocol.CREATE_GROUP, command.substring(13).trim());
+        } else if (command.startsWith("/joingroup ")) {
+            return Protocol.frame(Protocol.JOIN_GROUP, command.substring(11).trim());
+        }
+        return null;
+    }
+
+    // Método para enviar arquivo ao servidor
+    private static void handleSendFile(String command, boolean binary, OutputStream socketOutStream,
+            FileTransfer transfers) {
+        // Divide o comando em partes
+        String[] parts = command.split(" ", 3);
+        if (parts.length != 3) {
+            // Formato inválido
+            System.out.println("Formato inválido. Use: /sendfile <@username/#grupo> <caminho_do_arquivo>");
+            return;
+        }
+
+        String dest = parts[1]; // Destinatário
+        String filepath = parts[2]; // Caminho do arquivo
+        File file = new File(filepath); // Cria objeto arquivo
+
+        if (!file.exists()) {
+            // Arquivo não encontrado
+            System.out.println("Arquivo não encontrado em: " + filepath);
+            return;
+        }
+
+        if (transfers != null) {
+            // Em segundo plano, por conexões de dados: o chat continua livre durante o envio
+            Thread upload = new Thread(() -> sendInChunks(transfers, dest, file.toPath()), "upload-" + file.getName());
+            upload.setDaemon(true);
+            upload.start();
+            return;
+        }
+
+        // O cabeçalho e o conteúdo seguem juntos, sem um pong no meio
+        synchronized (socketOutStream) {
+            sendOverChat(dest, file, binary, socketOutStream);
+        }
+    }
+
+    private static void sendOverChat(String dest, File file, boolean binary, OutputStream socketOutStream) {
+        try {
+            long filesize = file.length(); // Tamanho do arquivo
+            String filename = file.getName(); // Nome do arquivo
+
+            // 1. Envia o cabeçalho do arquivo para o servidor
+            if (binary) {
+                socketOutStream.write(Protocol.fileFrame(Protocol.SEND_FILE, dest, filename, filesize));
+            } else {
+                socketOutStream.write(Protocol.textLine("/sendfile " + dest + " " + filename + " " + filesize));
+            }
+
+            // 2. Envia o conteúdo binário do arquivo
+            FileInputStream fileIn = new FileInputStream(file);
+            byte[] buffer = new byte[FileRelay.CHUNK_SIZE];
+            int bytesRead;
+            while ((bytesRead = fileIn.read(buffer)) != -1) {
+                socketOutStream.write(buffer, 0, bytesRead);
+            }
+            socketOutStream.flush(); // Garante envio
+            fileIn.close(); // Fecha arquivo
+
+            System.out.println("'" + filename + "' enviado para o servidor para roteamento.");
+
+        } catch (IOException e) {
+            // Erro ao enviar arquivo
+            System.err.println("Falha ao enviar o arquivo: " + e.getMessage());
+        }
+    }
+
+    // Envia um arquivo em blocos; se falhar, repetir o /sendfile continua de onde parou
+    private static void sendInChunks(FileTransfer transfers, String dest, Path file) {
+        try {
+            System.out.println("Enviando '" + file.getFileName() + "' em segundo plano...");
+            long start = System.nanoTime();
+            transfers.upload(dest, file);
+            long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+            System.out.println("'" + file.getFileName() + "' enviado para o servidor para roteamento ("
+                    + file.toFile().length() / 1024 * 1000 / 1024 / millis + " MB/s).");
+        } catch (IOException e) {
+            System.err.println("Falha ao enviar o arquivo (repita o /sendfile para continuar): " + e.getMessage());
+        }
+    }
+}
+
+/**
+ * Uma classe Runnable para lidar com o recebimento de mensagens do servidor em
+ * uma thread separada.
+ */
+class ReceiverThread implements Runnable {
+
+    private static final byte[] PONG_FRAME = Protocol.header(Protocol.PONG, 0).array();
+    private static final byte[] PONG_LINE = Protocol.textLine("/pong");
+
+    private final Socket socket; // Socket do cliente
+
+    // Stream único para mensagens e dados binários: os bytes de um arquivo
+    // que chegam logo após o cabeçalho não se perdem em outro buffer
+    private final DataInputStream dataLeitor;
+
+    // Conexão do chat, para responder aos pings (ChatClient.send)
+    private final OutputStream out;
+
+    private final boolean binary; // Protocolo binário ou texto
+
+    // Busca arquivos oferecidos pela porta de dados (null sem transferências em blocos)
+    private final FileTransfer transfers;
+
+    // Construtor
+    public ReceiverThread(Socket socket, DataInputStream dataLeitor, OutputStream out, boolean binary,
+            FileTransfer transfers) {
+        this.socket = socket;
+        this.dataLeitor = dataLeitor;
+        this.out = out;
+        this.binary = binary;
+        this.transfers = transfers;
+    }
+
+    // Método principal da thread
+    @Override
+    public void run() {
+        try {
+            if (binary) {
+                receiveFrames();
+            } else {
+                receiveLines();
+            }
+        } catch (IOException e) {
+            // Mensagem de desconexão
+            System.out.println("\nDesconectado do servidor.");
+        } finally {
+            try {
+                // Fecha socket
+                socket.close();
+            } catch (IOException e) {
+                // Ignorar erro no fechamento
+            }
+            // Encerra o cliente
+            System.exit(0); // Força o encerramento do cliente
+        }
+    }
+
+    // Loop para receber mensagens do servidor no protocolo de texto
+    private void receiveLines() throws IOException {
+        ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(256);
+        String mensagem;
+        while ((mensagem = Protocol.readLine(dataLeitor, lineBuffer, ChatClient.MAX_SERVER_PAYLOAD)) != null) {
+            // Se for comando de recebimento de arquivo
+            if (mensagem.startsWith("/recvfile ")) {
+                // Protocolo: /recvfile <remetente> <filename> <filesize>
+                String[] parts = mensagem.split(" ", 4);
+                try {
+                    handleReceiveFile(parts[1], parts[2], Long.parseLong(parts[3]));
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    System.err.println("[ERRO] Cabeçalho de arquivo inválido: " + mensagem);
+                }
+            } else if (mensagem.equals("/ping")) {
+                // Heartbeat do servidor: responde sem mostrar ao usuário
+                ChatClient.send(out, PONG_LINE);
+            } else {
+                // Imprime mensagem recebida
+                System.out.println(mensagem);
+            }
+        }
+    }
+
+    // Loop para receber quadros do servidor no protocolo binário
+    private void receiveFrames() throws IOException {
+        byte[] type = new byte[1];
+        ByteBuffer payload;
+        while ((payload = Protocol.readFrame(dataLeitor, type, ChatClient.MAX_SERVER_PAYLOAD)) != null) {
+            handleFrame(type[0], payload);
+        }
+    }
+
+    // Trata um quadro do servidor (os de um COMPRESSED, um a um)
+    private void handleFrame(byte type, ByteBuffer payload) throws IOException {
+        if (type == Protocol.MESSAGE) {
+            System.out.println(Protocol.readRest(payload));
+        } else if (type == Protocol.PING) {
+            ChatClient.send(out, PONG_FRAME);
+        } else if (type == Protocol.COMPRESSED) {
+            ByteBuffer frames = Protocol.inflateFrames(payload, ChatClient.MAX_SERVER_PAYLOAD);
+            byte[] innerType = new byte[1];
+            while (frames.hasRemaining()) {
+                ByteBuffer inner = Protocol.nextFrame(frames, innerType);
+                handleFrame(innerType[0], inner);
+            }
+        } else if (type == Protocol.RECV_FILE) {
+            String remetente = Protocol.readField(payload);
+            String filename = Protocol.readField(payload);
+            handleReceiveFile(remetente, filename, Protocol.readLong(payload));
+        } else if (type == Protocol.TRANSFER_OFFER && transfers != null) {
+            FileTransfer.Offer offer = FileTransfer.Offer.decode(payload);
+            Thread download = new Thread(() -> downloadOffer(offer), "download-" + offer.filename);
+            download.setDaemon(true);
+            download.start();
+        }
+    }
+
+    // Busca um arquivo oferecido sem parar a leitura das mensagens
+    private void downloadOffer(FileTransfer.Offer offer) {
+        System.out.println("\n[ARQUIVO] Recebendo '" + offer.filename + "' de " + offer.sender + " ("
+                + offer.size + " bytes).");
+        try {
+            Path file = transfers.download(offer, Paths.get("ArquivosRecebidos"));
+            System.out.println("\n[ARQUIVO] '" + offer.filename + "' recebido e salvo em " + file.toAbsolutePath());
+        } catch (IOException e) {
+            // O servidor oferece de novo no próximo login; o download continua de onde parou
+            System.err.println("[ERRO] Falha ao receber o arquivo '" + offer.filename + "': " + e.getMessage());
+        }
+    }
+
+    // Método para receber arquivo do servidor
+    private void handleReceiveFile(String remetente, String filename, long tamanho_arquivo) {
+        try {
+            String downloadDir = "ArquivosRecebidos";
+            new File(downloadDir).mkdirs(); // Garante que o diretório de downloads exista
+
+            File file = new File(downloadDir, "recebido_de_" + remetente + "_" + filename); // Arquivo destino
+            FileOutputStream fileOut = new FileOutputStream(file);
+
+            System.out.println("\n[ARQUIVO] Recebendo '" + filename + " de " + remetente + ".");
+            System.out.println("Salvando em: " + file.getAbsolutePath());
+            //JOptionPane.showMessageDialog(null,"Arquivo recebido de " + remetente);
+
+            byte[] buffer = new byte[FileRelay.CHUNK_SIZE];
+            int bytesRead;
+            long totalRead = 0;
+
+            // Lê os bytes do arquivo do stream de entrada
+            while (totalRead < tamanho_arquivo && (bytesRead = dataLeitor.read(buffer, 0,
+                    (int) Math.min(buffer.length, tamanho_arquivo - totalRead))) != -1) {
+                fileOut.write(buffer, 0, bytesRead);
+                totalRead += bytesRead;
+            }
+
+            fileOut.close(); // Fecha arquivo
+            System.out.println("\n[ARQUIVO] '" + filename + "' recebido e salvo com sucesso!");
+
+        } catch (IOException e) {
+            // Erro ao receber arquivo
+            System.err.println("[ERRO] Falha ao receber o arquivo: " + e.getMessage());
+             //JOptionPane.showConfirmDialog(null,"Erro ao receber Arquivo");
+            e.printStackTrace();
+        }
+    }
+}
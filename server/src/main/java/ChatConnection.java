@@ -0,0 +1,454 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Cliente do chat como biblioteca, para bots e integrações (o ChatClient é
+ * só o console). Usa o protocolo binário.
+ *
+ * Envio: cada send apenas enfileira o quadro e devolve um futuro. Uma única
+ * thread escritora junta tudo o que estiver na fila em um buffer e faz um
+ * flush por lote, então milhares de comandos seguidos viajam em poucos
+ * segmentos TCP. Com servidores da versão 3 cada lote (até o tamanho máximo
+ * de um quadro) vai comprimido em um quadro COMPRESSED quando compensa, e os
+ * lotes do servidor também podem chegar assim. O futuro completa quando o
+ * lote foi escrito no socket (o protocolo não tem confirmação de entrega) ou
+ * falha se a conexão cair. Com a fila cheia (chat.clientQueue quadros,
+ * padrão 65536), send bloqueia até a escritora abrir espaço.
+ *
+ * Recebimento: uma thread leitora decodifica os quadros e chama o Listener.
+ * Os callbacks rodam nessa thread: devem ser rápidos, ou repassar o trabalho.
+ */
+public class ChatConnection implements Closeable {
+
+    static final int QUEUE_CAPACITY = Integer.getInteger("chat.clientQueue", 65536);
+    // Quadros escritos antes de um flush forçado, mesmo com a fila ainda cheia
+    private static final int MAX_BATCH = 1024;
+    private static final byte[] PONG = Protocol.header(Protocol.PONG, 0).array();
+
+    /** Callbacks do recebimento (todos, menos onMessage, são opcionais). */
+    public interface Listener {
+        void onMessage(String text);
+
+        /**
+         * Arquivo pela conexão do chat. content termina no fim do arquivo; o
+         * que não for lido é descartado ao retornar.
+         */
+        default void onFile(String sender, String filename, long size, InputStream content) throws IOException {
+        }
+
+        // Arquivo pronto na porta de dados (protocolo 2); buscar com download
+        default void onOffer(FileTransfer.Offer offer) {
+        }
+
+        // Conexão encerrada; cause é null se foi fechada por close
+        default void onClose(IOException cause) {
+        }
+    }
+
+    /** Quadro na fila de envio e o futuro de quem o enviou. */
+    private static final class Pending {
+        final byte[] frame;
+        final CompletableFuture<Void> written;
+
+        Pending(byte[] frame, CompletableFuture<Void> written) {
+            this.frame = frame;
+            this.written = written;
+        }
+    }
+
+    private final String username;
+    private final String host;
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final Listener listener;
+    // Transferências em blocos; null se o servidor não as oferece
+    private final FileTransfer transfers;
+    // Servidor da versão 3 e chat.compress ligado: lotes comprimidos nos dois sentidos
+    private final boolean compress;
+    private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final Semaphore capacity = new Semaphore(QUEUE_CAPACITY);
+    private final Thread writer;
+    private final Thread reader;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    private ChatConnection(String host, int port, String username, Listener listener) throws IOException {
+        this.username = username;
+        this.host = host;
+        this.listener = listener;
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), FileRelay.CHUNK_SIZE));
+        out = new BufferedOutputStream(socket.getOutputStream(), FileRelay.CHUNK_SIZE);
+        out.write(Protocol.handshake());
+        out.flush();
+        socket.setSoTimeout(5000);
+        ByteBuffer hello;
+        try {
+            byte[] type = new byte[1];
+            hello = Protocol.readFrame(in, type, ChatClient.MAX_SERVER_PAYLOAD);
+            if (hello == null || type[0] != Protocol.HELLO) {
+                throw new IOException("O servidor não respondeu ao protocolo binário");
+            }
+        } catch (SocketTimeoutException e) {
+            socket.close();
+            throw new IOException("O servidor não respondeu ao protocolo binário");
+        } finally {
+            socket.setSoTimeout(0);
+        }
+        int version = hello.get();
+        transfers = transfersFrom(version, hello);
+        compress = version >= 3 && Compression.ENABLED;
+        out.write(Protocol.frame(Protocol.LOGIN, username));
+        if (compress) {
+            out.write(Protocol.frame(Protocol.COMPRESS, "deflate"));
+        }
+        out.flush();
+        writer = new Thread(this::writeLoop, "chat-writer-" + username);
+        reader = new Thread(this::readLoop, "chat-reader-" + username);
+        writer.setDaemon(true);
+        reader.setDaemon(true);
+    }
+
+    /**
+     * Conecta e faz o login. Um nome já em uso é recusado pelo servidor com
+     * uma mensagem de erro (onMessage) seguida do fim da conexão (onClose).
+     */
+    public static ChatConnection connect(String host, int port, String username, Listener listener)
+            throws IOException {
+        ChatConnection connection = new ChatConnection(host, port, username, listener);
+        connection.writer.start();
+        connection.reader.start();
+        return connection;
+    }
+
+    private FileTransfer transfersFrom(int version, ByteBuffer hello) throws IOException {
+        if (version < 2) {
+            return null;
+        }
+        String token = Protocol.readField(hello);
+        int transferPort = Protocol.readInt(hello);
+        return transferPort > 0
+                ? new FileTransfer(host, transferPort, username, token, FileTransfer.STREAMS, version >= 3)
+                : null;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    // --- Envio ---
+
+    public CompletableFuture<Void> sendPrivate(String user, String text) {
+        return send(Protocol.frame(Protocol.PRIVATE, user, text));
+    }
+
+    public CompletableFuture<Void> sendGroup(String group, String text) {
+        return send(Protocol.frame(Protocol.GROUP, group, text));
+    }
+
+    public CompletableFuture<Void> createGroup(String group) {
+        return send(Protocol.frame(Protocol.CREATE_GROUP, group));
+    }
+
+    public CompletableFuture<Void> joinGroup(String group) {
+        return send(Protocol.frame(Protocol.JOIN_GROUP, group));
+    }
+
+    /** Comando com a mesma sintaxe do console (@usuario:texto, #grupo:texto, /creategroup, /joingroup). */
+    public CompletableFuture<Void> send(String command) {
+        byte[] frame = ChatClient.encodeCommand(command);
+        if (frame == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Comando desconhecido: " + command));
+        }
+        return send(frame);
+    }
+
+    // Enfileira um quadro já codificado para a thread escritora
+    private CompletableFuture<Void> send(byte[] frame) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        try {
+            capacity.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            written.completeExceptionally(e);
+            return written;
+        }
+        if (closed) {
+            capacity.release();
+            written.completeExceptionally(failure != null ? failure : new IOException("Conexão fechada"));
+            return written;
+        }
+        queue.add(new Pending(frame, written));
+        if (closed) {
+            // A conexão fechou entre a verificação e o add: a escritora pode
+            // já ter saído, então ninguém mais esvaziaria a fila
+            failPending(failure != null ? failure : new IOException("Conexão fechada"));
+        }
+        LockSupport.unpark(writer);
+        return written;
+    }
+
+    /**
+     * Responde ao heartbeat do servidor pela fila de envio, sem bloquear a
+     * leitura: com a fila cheia há envios a caminho, e eles já contam como
+     * atividade.
+     */
+    private void sendPong() {
+        if (closed || !capacity.tryAcquire()) {
+            return;
+        }
+        queue.add(new Pending(PONG, new CompletableFuture<>()));
+        if (closed) {
+            failPending(new IOException("Conexão fechada"));
+        }
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Envia um arquivo pela porta de dados, em segundo plano. Sem a porta
+     * (servidor com protocolo 1) o futuro falha: arquivos grandes pela
+     * conexão do chat atrasariam todas as mensagens.
+     */
+    public CompletableFuture<Void> upload(String dest, Path file) {
+        if (transfers == null) {
+            return CompletableFuture.failedFuture(new IOException("O servidor não oferece transferências em blocos"));
+        }
+        return inBackground("upload-" + file.getFileName(), () -> {
+            transfers.upload(dest, file);
+            return null;
+        });
+    }
+
+    // Busca um arquivo oferecido (onOffer) e o salva em dir
+    public CompletableFuture<Path> download(FileTransfer.Offer offer, Path dir) {
+        if (transfers == null) {
+            return CompletableFuture.failedFuture(new IOException("O servidor não oferece transferências em blocos"));
+        }
+        return inBackground("download-" + offer.filename, () -> transfers.download(offer, dir));
+    }
+
+    private interface Transfer<T> {
+        T run() throws IOException;
+    }
+
+    private static <T> CompletableFuture<T> inBackground(String name, Transfer<T> transfer) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                result.complete(transfer.run());
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return result;
+    }
+
+    /**
+     * Escreve o que estiver na fila e faz um flush quando ela esvazia (ou a
+     * cada MAX_BATCH quadros); os futuros do lote completam depois do flush.
+     * Com compressão os quadros se juntam em frames (sem passar do tamanho
+     * máximo de um quadro do servidor) e saem comprimidos juntos.
+     */
+    private void writeLoop() {
+        List<CompletableFuture<Void>> batch = new ArrayList<>(MAX_BATCH);
+        ByteArrayOutputStream frames = new ByteArrayOutputStream(compress ? Protocol.MAX_PAYLOAD : 0);
+        try {
+            while (true) {
+                Pending pending = queue.poll();
+                if (pending != null) {
+                    if (!compress) {
+                        out.write(pending.frame);
+                    } else {
+                        if (frames.size() + pending.frame.length > Protocol.MAX_PAYLOAD) {
+                            writeCompressed(frames);
+                        }
+                        frames.writeBytes(pending.frame);
+                    }
+                    capacity.release();
+                    batch.add(pending.written);
+                    if (batch.size() < MAX_BATCH) {
+                        continue;
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    writeCompressed(frames);
+                    out.flush();
+                    for (CompletableFuture<Void> written : batch) {
+                        written.complete(null);
+                    }
+                    batch.clear();
+                } else if (closed) {
+                    return;
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+            for (CompletableFuture<Void> written : batch) {
+                written.completeExceptionally(e);
+            }
+            failPending(e);
+        }
+    }
+
+    // Quadros juntados em frames, comprimidos se forem grandes o bastante e compensar
+    private void writeCompressed(ByteArrayOutputStream frames) throws IOException {
+        if (frames.size() == 0) {
+            return;
+        }
+        byte[] plain = frames.toByteArray();
+        out.write(plain.length >= Compression.MIN_SIZE ? Protocol.compressed(plain) : plain);
+        frames.reset();
+    }
+
+    // --- Recebimento ---
+
+    private void readLoop() {
+        byte[] type = new byte[1];
+        IOException cause = null;
+        try {
+            ByteBuffer payload;
+            while ((payload = Protocol.readFrame(in, type, ChatClient.MAX_SERVER_PAYLOAD)) != null) {
+                handleFrame(type[0], payload);
+            }
+        } catch (IOException e) {
+            cause = closed ? null : e;
+        }
+        fail(cause != null ? cause : new IOException("Conexão encerrada pelo servidor"));
+        failPending(failure);
+        listener.onClose(cause);
+    }
+
+    // Trata um quadro do servidor (os de um COMPRESSED, um a um)
+    private void handleFrame(byte type, ByteBuffer payload) throws IOException {
+        switch (type) {
+            case Protocol.MESSAGE:
+                listener.onMessage(Protocol.readRest(payload));
+                break;
+            case Protocol.COMPRESSED: {
+                ByteBuffer frames = Protocol.inflateFrames(payload, ChatClient.MAX_SERVER_PAYLOAD);
+                byte[] innerType = new byte[1];
+                while (frames.hasRemaining()) {
+                    ByteBuffer inner = Protocol.nextFrame(frames, innerType);
+                    handleFrame(innerType[0], inner);
+                }
+                break;
+            }
+            case Protocol.RECV_FILE: {
+                String sender = Protocol.readField(payload);
+                String filename = Protocol.readField(payload);
+                long size = Protocol.readLong(payload);
+                FileContent content = new FileContent(in, size);
+                listener.onFile(sender, filename, size, content);
+                content.skipRest();
+                break;
+            }
+            case Protocol.TRANSFER_OFFER:
+                listener.onOffer(FileTransfer.Offer.decode(payload));
+                break;
+            case Protocol.PING:
+                sendPong();
+                break;
+            default:
+                // Tipos novos do servidor são ignorados
+        }
+    }
+
+    /** Conteúdo de um arquivo recebido: lê do stream da conexão até size bytes. */
+    private static final class FileContent extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        FileContent(InputStream in, long size) {
+            this.in = in;
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int read = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        void skipRest() throws IOException {
+            byte[] skip = new byte[FileRelay.CHUNK_SIZE];
+            while (remaining > 0) {
+                if (read(skip, 0, skip.length) < 0) {
+                    throw new IOException("Conexão encerrada no meio de um arquivo");
+                }
+            }
+        }
+    }
+
+    // --- Encerramento ---
+
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+    }
+
+    private void failPending(IOException e) {
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            capacity.release();
+            pending.written.completeExceptionally(e);
+        }
+    }
+
+    /** Envia o que já estava na fila e fecha a conexão. */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Envios que chegaram depois da escritora terminar
+        failPending(new IOException("Conexão fechada"));
+        socket.close();
+    }
+}
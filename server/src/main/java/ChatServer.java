@@ -0,0 +1,563 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Classe principal do servidor de chat.
+ * Aceita conexões de clientes e cria uma thread ClientHandler (de plataforma
+ * ou virtual) para cada um, ou atende todos com poucas threads reatoras (nio).
+ * Gerencia clientes e grupos de forma segura para múltiplas threads.
+ * No modo cluster (ClusterNode) também entrega a usuários e grupos de outros nós.
+ */
+public class ChatServer {
+    
+    // Porta dos clientes (-Dchat.port=<porta>, para vários nós na mesma máquina)
+    private static final int PORT = Integer.getInteger("chat.port", 55555);
+    // Endereço de escuta (-Dchat.bind=0.0.0.0 aceita conexões de outras máquinas)
+    private static final String IP_ADDRESS = System.getProperty("chat.bind", "127.0.0.1");
+    // Conexões aguardando accept antes de o sistema recusar novas (também na porta de dados e entre nós)
+    static final int BACKLOG = Integer.getInteger("chat.backlog", 50);
+    // Mapa de nome de usuário para seu ClientHandler (thread do cliente)
+    // ConcurrentHashMap garante segurança em ambiente multithread
+    private static final Map<String, ClientHandler> clients = new ConcurrentHashMap<>();
+    // Grupos e seus membros, com índice reverso de usuário para grupos
+    private static final GroupRegistry groups = new GroupRegistry();
+    // Log persistente de mensagens (offline e de grupo); null se não puder ser aberto
+    private static MessageLog messageLog;
+    // Mensagens recentes de cada grupo, reenviadas a quem entra
+    private static GroupHistory history;
+    // Mensagens offline entregues por item da fila de saída de quem se conecta
+    static final int OFFLINE_BATCH = Integer.getInteger("chat.offlineBatch", 256);
+    // Nó do cluster (-Dchat.cluster); null quando o servidor roda sozinho
+    private static ClusterNode cluster;
+    // Transferências de arquivos em blocos; null se a porta de dados não abriu
+    private static TransferServer transfers;
+
+    // Método principal do servidor
+    // Uso: java ChatServer [blocking | virtual | nio [numero_de_reatores]]
+    // (ou -Dchat.mode e -Dchat.reactors; os argumentos têm precedência)
+    public static void main(String[] args) {
+        String mode = args.length > 0 ? args[0] : System.getProperty("chat.mode", "blocking");
+        int reactors = args.length > 1 ? Integer.parseInt(args[1])
+                : Integer.getInteger("chat.reactors", Runtime.getRuntime().availableProcessors());
+        // Avisos gráficos só se pedidos, fora do caminho das conexões
+        if (Boolean.getBoolean("chat.gui")) {
+            SwingNotifier.install();
+        }
+        start(mode, reactors);
+    }
+
+    /**
+     * Inicia o servidor no modo escolhido e bloqueia a thread atual no loop de
+     * aceitação:
+     * - blocking: uma thread de plataforma por cliente
+     * - virtual: uma thread virtual por cliente (Java 21+)
+     * - nio: poucas threads reatoras atendem todos os clientes
+     */
+    static void start(String mode, int reactors) {
+        long begin = System.nanoTime();
+        try {
+            messageLog = MessageLog.open();
+        } catch (IOException e) {
+            ServerLog.error("[ERRO] Não foi possível abrir o log de mensagens em '" + MessageLog.DIR
+                    + "'; mensagens offline desativadas: " + e.getMessage());
+        }
+        history = new GroupHistory(messageLog);
+        try {
+            Metrics.start();
+        } catch (IOException e) {
+            ServerLog.error("[ERRO] Não foi possível abrir o endpoint de métricas na porta " + Metrics.PORT + ": "
+                    + e.getMessage());
+        }
+        TransferServer transferServer = new TransferServer(IP_ADDRESS, TransferServer.PORT,
+                Paths.get(MessageLog.DIR, "transfers"));
+        try {
+            transferServer.start();
+            transfers = transferServer;
+        } catch (IOException e) {
+            ServerLog.error("[ERRO] Não foi possível abrir a porta de transferências " + TransferServer.PORT
+                    + "; arquivos seguem pela conexão do chat: " + e.getMessage());
+        }
+        try {
+            cluster = ClusterNode.fromProperties();
+            if (cluster != null) {
+                cluster.start();
+            }
+        } catch (IOException e) {
+            ServerLog.error("[ERRO] Não foi possível iniciar o nó do cluster: " + e.getMessage());
+            return;
+        }
+        try {
+            switch (mode) {
+                case "nio":
+                    new NioServer(IP_ADDRESS, PORT, BACKLOG, reactors).start(() -> ready(mode, begin));
+                    break;
+                case "virtual":
+                    Executor virtual = virtualThreadExecutor();
+                    startBlocking(virtual, virtual, () -> ready(mode, begin));
+                    break;
+                default:
+                    // Escritoras só rodam com fila: threads reaproveitadas entre clientes
+                    startBlocking(task -> new Thread(task).start(), Executors.newCachedThreadPool(), () -> ready(mode, begin));
+            }
+        } catch (IOException e) {
+            // Exibe erro caso não consiga iniciar o servidor
+            ServerLog.error("Não foi possível iniciar o servidor na porta " + PORT + ": " + e);
+        }
+    }
+
+    // Socket de escuta aberto: registra o tempo de inicialização e avisa os observadores
+    private static void ready(String mode, long begin) {
+        long nanos = System.nanoTime() - begin;
+        Metrics.startupNanos = nanos;
+        long sinceLaunch = ProcessHandle.current().info().startInstant()
+                .map(launch -> Duration.between(launch, Instant.now()).toMillis())
+                .orElse(-1L);
+        ServerLog.info("[INFO] Servidor ouvindo em " + IP_ADDRESS + ":" + PORT + " (modo " + mode + ", backlog "
+                + BACKLOG + ") em " + nanos / 1_000_000 + " ms"
+                + (sinceLaunch >= 0 ? " (" + sinceLaunch + " ms desde o início do processo)" : ""));
+        ServerEvents.started(IP_ADDRESS, PORT, mode);
+    }
+
+    // Modo bloqueante: cada cliente é atendido por uma tarefa do executor
+    private static void startBlocking(Executor executor, Executor writers, Runnable onListening) throws IOException {
+        // Tenta abrir o socket do servidor na porta definida. O canal fica em modo
+        // bloqueante; ele só é usado para que cada socket aceito tenha um
+        // SocketChannel, necessário para o envio de arquivos com transferTo.
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(IP_ADDRESS, PORT), BACKLOG);
+            onListening.run();
+            // Loop infinito para aceitar conexões de clientes
+            while (true) {
+                // Aceita uma nova conexão de cliente
+                SocketChannel channel = serverChannel.accept();
+                Metrics.accepted.increment();
+                // Acima do limite de conexões: recusada sem criar thread nem handler
+                if (!Admission.admit(channel)) {
+                    continue;
+                }
+                // Cria um ClientHandler para o novo cliente (a escritora, quando
+                // há fila, roda em writers)
+                ClientHandler clientHandler = new ClientHandler(channel.socket(), writers);
+                clientHandler.startHeartbeat();
+                // Inicia a thread do ClientHandler
+                executor.execute(clientHandler);
+            }
+        }
+    }
+
+    /**
+     * Executor de threads virtuais. É obtido por reflexão para que o projeto
+     * continue compilando em JDKs anteriores ao 21; sem suporte, usa threads de
+     * plataforma.
+     */
+    private static Executor virtualThreadExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            ServerLog.error("[AVISO] Threads virtuais indisponíveis nesta JVM (requer Java 21); usando threads de plataforma.");
+            return task -> new Thread(task).start();
+        }
+    }
+
+    // --- Métodos de Gerenciamento (usados pelos ClientHandlers) ---
+
+    // Adiciona um cliente ao mapa de clientes
+    public static void addClient(String username, ClientHandler handler) {
+        clients.put(username, handler); // Adiciona ao mapa
+        Metrics.logins.increment();
+        // Exibe mensagem de conexão
+        ServerLog.info(
+                "[CONEXÃO] " + username + " conectou-se de " + handler.getSocket().getInetAddress().getHostAddress());
+        if (cluster != null) {
+            cluster.syncUser(username);
+        }
+        ServerEvents.connected(username);
+        deliverPending(handler);
+        if (transfers != null) {
+            transfers.offerPending(handler);
+        }
+    }
+
+    /**
+     * Entrega de uma vez as mensagens guardadas enquanto o usuário estava
+     * offline (handler pode ser um usuário conectado a outro nó do cluster).
+     * A leitura do disco roda na thread de leitura do log, e as mensagens
+     * seguem pela fila de saída do cliente: no modo nio quem chama é um reator.
+     */
+    static void deliverPending(ClientHandler handler) {
+        if (messageLog == null) {
+            return;
+        }
+        String username = handler.getUsername();
+        messageLog.registerUser(username);
+        messageLog.execute(() -> {
+            try {
+                // Em lotes limitados: um backlog grande não vira um único item da fila de saída
+                int delivered = 0;
+                List<String> pending;
+                while (!(pending = messageLog.takePending(username, OFFLINE_BATCH)).isEmpty()) {
+                    handler.sendBatch(pending);
+                    delivered += pending.size();
+                }
+                if (delivered > 0) {
+                    ServerLog.info("[OFFLINE] " + delivered + " mensagens entregues a " + username);
+                }
+            } catch (IOException e) {
+                ServerLog.error("[ERRO] Falha ao ler mensagens offline de " + username + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Guarda uma mensagem privada para um usuário offline (que já se conectou
+     * alguma vez). O remetente é avisado quando ela estiver gravada em disco.
+     * Retorna false se o usuário é desconhecido ou não há log.
+     */
+    public static boolean storeOffline(String recipientName, String message, ClientHandler sender) {
+        if (messageLog == null || !messageLog.isKnownUser(recipientName)) {
+            return false;
+        }
+        // Sem remetente local (mensagem vinda de outro nó) ninguém é avisado
+        long offset = messageLog.appendPrivate(recipientName, message, sender == null ? () -> { } : () -> sender.sendMessage(
+                "[INFO] Usuário '" + recipientName + "' está offline; a mensagem será entregue quando se conectar."));
+        if (offset < 0) {
+            // Descartada: o disco não acompanha e quem chamou é um reator
+            if (sender != null) {
+                sender.sendMessage("[ERRO] Servidor sobrecarregado; a mensagem para '" + recipientName
+                        + "' não foi guardada.");
+            }
+            return true;
+        }
+        // O destinatário pode ter se conectado logo antes da gravação
+        ClientHandler recipient = clients.get(recipientName);
+        if (recipient != null) {
+            deliverPending(recipient);
+        }
+        return true;
+    }
+
+    // Remove um cliente do mapa de clientes e dos grupos
+    public static void removeClient(ClientHandler handler) {
+        String username = handler.getUsername(); // Obtém o nome do usuário
+        if (username != null) {
+            // Exibe mensagem de desconexão
+            ServerLog.info("[DESCONEXÃO] " + username + " desconectou-se.");
+            if (handler.getDroppedMessages() > 0) {
+                ServerLog.info("[FILA] " + handler.getDroppedMessages() + " mensagens para " + username
+                        + " foram descartadas por estouro da fila de saída.");
+            }
+            clients.remove(username); // Remove do mapa de clientes
+            Metrics.logouts.increment();
+            ServerEvents.disconnected(username);
+            if (cluster != null) {
+                cluster.syncUser(username);
+            }
+            // Remove o cliente dos grupos em que participa; grupos vazios são removidos
+            for (String groupName : groups.leaveAll(handler)) {
+                history.forget(groupName);
+                if (cluster != null) {
+                    cluster.syncGroup(groupName);
+                }
+                ServerLog.info("[INFO] Grupo '" + groupName + "' ficou vazio e foi removido.");
+            }
+        }
+    }
+
+    /**
+     * Retorna o ClientHandler de um usuário pelo nome. No modo cluster, um
+     * usuário conectado a outro nó é representado por um RemoteClient.
+     */
+    public static ClientHandler getClient(String username) {
+        ClientHandler client = clients.get(username);
+        if (client == null && cluster != null) {
+            client = cluster.remoteUser(username);
+        }
+        return client;
+    }
+
+    // Como getClient, para um nome que aponta para os bytes recebidos (sem criar String)
+    static ClientHandler getClient(NameKey username) {
+        ClientHandler client = clients.get(username);
+        if (client == null && cluster != null) {
+            client = cluster.remoteUser(username.toString());
+        }
+        return client;
+    }
+
+    // Nome (a String guardada) do grupo local procurado por key; null se não existe
+    static String groupName(NameKey key) {
+        GroupRegistry.Group group = groups.get(key);
+        return group != null ? group.getName() : null;
+    }
+
+    // Cliente conectado a este servidor (sem procurar nos outros nós do cluster)
+    static ClientHandler getLocalClient(String username) {
+        return clients.get(username);
+    }
+
+    static TransferServer transfers() {
+        return transfers;
+    }
+
+    // Clientes conectados a este servidor
+    static Collection<ClientHandler> localClients() {
+        return clients.values();
+    }
+
+    static GroupHistory history() {
+        return history;
+    }
+
+    static MessageLog messageLog() {
+        return messageLog;
+    }
+
+    static boolean hasLocalClient(String username) {
+        return clients.containsKey(username);
+    }
+
+    static boolean hasLocalGroup(String groupName) {
+        return groups.get(groupName) != null;
+    }
+
+    // Cria um novo grupo com o nome especificado
+    public static void createGroup(String groupName, ClientHandler creator) {
+        Metrics.commands.increment();
+        if (cluster != null && cluster.hasRemoteMembers(groupName)) {
+            // Já existe em outro nó do cluster
+            creator.sendMessage("[ERRO] Grupo '" + groupName + "' já existe.");
+        } else if (groups.create(groupName, creator)) { // Se o grupo não existia (o criador já é membro)
+            if (cluster != null) {
+                cluster.syncGroup(groupName);
+            }
+            creator.sendMessage("[INFO] Grupo '" + groupName + "' criado com sucesso!");
+        } else {
+            // Grupo já existe
+            creator.sendMessage("[ERRO] Grupo '" + groupName + "' já existe.");
+        }
+    }
+
+    // Adiciona um usuário a um grupo existente
+    public static void joinGroup(String groupName, ClientHandler user) {
+        Metrics.commands.increment();
+        GroupRegistry.JoinResult result = groups.join(groupName, user);
+        if (result == GroupRegistry.JoinResult.NOT_FOUND && cluster != null && cluster.hasRemoteMembers(groupName)) {
+            // O grupo só tem membros em outros nós: passa a existir também neste
+            result = groups.create(groupName, user) ? GroupRegistry.JoinResult.JOINED : groups.join(groupName, user);
+            cluster.syncGroup(groupName);
+        }
+        switch (result) {
+            case JOINED: {
+                List<String> recent = history.cached(groupName);
+                if (recent != null) {
+                    sendJoined(user, groupName, recent);
+                } else {
+                    // Fora do cache: o histórico é lido do log na thread de leitura
+                    messageLog.execute(() -> sendJoined(user, groupName, history.recent(groupName)));
+                }
+                break;
+            }
+            case ALREADY_MEMBER:
+                user.sendMessage("[INFO] Você já é membro do grupo '" + groupName + "'.");
+                break;
+            default:
+                // Grupo não existe
+                user.sendMessage("[ERRO] Grupo '" + groupName + "' não encontrado.");
+        }
+    }
+
+    // Confirmação e histórico recente vão juntos, em uma única escrita
+    private static void sendJoined(ClientHandler user, String groupName, List<String> recent) {
+        List<String> replay = new ArrayList<>();
+        replay.add("[INFO] Você entrou no grupo '" + groupName + "'.");
+        if (!recent.isEmpty()) {
+            replay.add("[HISTÓRICO] Últimas " + recent.size() + " mensagens do grupo '" + groupName + "':");
+            replay.addAll(recent);
+        }
+        user.sendBatch(replay);
+    }
+
+    // Tamanho do texto em UTF-8, sem codificá-lo
+    static int utf8Length(String text) {
+        int length = text.length();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x800 && !Character.isSurrogate(c)) {
+                length += 2;
+            } else if (c >= 0x80) {
+                // Um par substituto (2 chars) vira 4 bytes
+                length += 1;
+            }
+        }
+        return length;
+    }
+
+    // Roteia mensagem para todos os membros de um grupo (exceto o remetente)
+    public static void routeGroupMessage(String groupName, String message, ClientHandler sender) {
+        Metrics.groupMessages.increment();
+        GroupRegistry.Group group = groups.get(groupName);
+        if (group != null && group.contains(sender)) { // Se grupo existe e remetente é membro
+            // Cobrado em bytes UTF-8, como o limite de cada usuário
+            if (!group.admit(utf8Length(message))) {
+                Metrics.throttledGroupMessages.increment();
+                sender.sendMessage("[ERRO] Grupo '" + groupName + "' acima do limite de envio; mensagem descartada.");
+                return;
+            }
+            long start = System.nanoTime();
+            // Formata e codifica a mensagem uma única vez para todos os membros
+            String text = "[GRUPO " + groupName + " de " + sender.getUsername() + "]: " + message;
+            SharedMessage formattedMsg = new SharedMessage(text);
+            // Histórico do grupo: no log (se houver) e no cache de mensagens recentes
+            long offset = messageLog != null ? messageLog.appendGroup(groupName, text) : -1;
+            history.record(groupName, offset, text);
+            // O array de membros nunca é alterado: percorre sem cópia e sem lock
+            for (ClientHandler member : group.members()) {
+                if (member != sender) { // Não envia para o remetente
+                    member.sendShared(formattedMsg); // Envia mensagem
+                }
+            }
+            // Uma cópia para cada outro nó do cluster com membros do grupo
+            if (cluster != null) {
+                for (ClientHandler node : cluster.remoteGroup(groupName)) {
+                    node.sendShared(formattedMsg);
+                }
+            }
+            Metrics.groupFanout.record(System.nanoTime() - start);
+        } else {
+            // Grupo não existe ou remetente não é membro
+            sender.sendMessage("[ERRO] Você não pode enviar mensagem para o grupo '" + groupName + "'.");
+        }
+    }
+
+    /**
+     * Prepara o repasse de um arquivo para todos os membros de um grupo (exceto
+     * o remetente). Se o grupo for inválido o repasse não tem destinatários e
+     * os bytes recebidos são apenas descartados.
+     */
+    public static FileRelay openGroupFileRelay(String groupName, String filename, long filesize, ClientHandler sender) {
+        GroupRegistry.Group group = groups.get(groupName);
+        List<ClientHandler> recipients = new ArrayList<>();
+        if (group != null && group.contains(sender)) { // Se grupo existe e remetente é membro
+            // Exibe mensagem de roteamento de arquivo
+            ServerLog.info("[ARQUIVO] Roteando '" + filename + "' para o grupo " + groupName);
+            for (ClientHandler member : group.members()) {
+                if (member != sender) { // Não envia para o remetente
+                    recipients.add(member);
+                }
+            }
+            if (cluster != null) {
+                recipients.addAll(cluster.remoteGroup(groupName));
+            }
+        } else {
+            // Grupo não existe ou remetente não é membro
+            sender.sendMessage("[ERRO] Grupo '" + groupName + "' inválido para envio de arquivo.");
+        }
+        return new FileRelay(sender.getUsername(), filename, filesize, recipients);
+    }
+
+    /**
+     * Confere se o remetente pode enviar um arquivo ao destino (@usuario,
+     * usuario ou #grupo). Retorna a mensagem de erro, ou null se puder.
+     */
+    static String checkFileDestination(String dest, ClientHandler sender) {
+        if (dest.startsWith("#")) {
+            GroupRegistry.Group group = groups.get(dest.substring(1));
+            return group != null && group.contains(sender) ? null
+                    : "[ERRO] Grupo '" + dest.substring(1) + "' inválido para envio de arquivo.";
+        }
+        String recipientName = dest.startsWith("@") ? dest.substring(1) : dest;
+        return getClient(recipientName) != null ? null
+                : "[ERRO] Usuário '" + recipientName + "' não encontrado para envio de arquivo.";
+    }
+
+    /**
+     * Destinatários atuais de um arquivo já recebido por completo (o
+     * remetente pode ter saído do grupo ou desconectado nesse meio tempo).
+     */
+    static List<ClientHandler> fileRecipients(String dest, String senderName) {
+        List<ClientHandler> recipients = new ArrayList<>();
+        if (dest.startsWith("#")) {
+            String groupName = dest.substring(1);
+            GroupRegistry.Group group = groups.get(groupName);
+            if (group != null) {
+                for (ClientHandler member : group.members()) {
+                    if (!senderName.equals(member.getUsername())) {
+                        recipients.add(member);
+                    }
+                }
+            }
+            if (cluster != null) {
+                recipients.addAll(cluster.remoteGroup(groupName));
+            }
+        } else {
+            ClientHandler recipient = getClient(dest.startsWith("@") ? dest.substring(1) : dest);
+            if (recipient != null) {
+                recipients.add(recipient);
+            }
+        }
+        return recipients;
+    }
+
+    // --- Entregas vindas de outros nós do cluster ---
+
+    // Entrega uma mensagem repassada por outro nó aos clientes locais do destino
+    static void deliverFromCluster(String destination, String text) {
+        String name = destination.substring(1);
+        if (destination.startsWith("#")) {
+            GroupRegistry.Group group = groups.get(name);
+            if (group == null) {
+                return;
+            }
+            SharedMessage message = new SharedMessage(text);
+            // Cada nó guarda o histórico do grupo para os seus membros
+            long offset = messageLog != null ? messageLog.appendGroup(name, text) : -1;
+            history.record(name, offset, text);
+            for (ClientHandler member : group.members()) {
+                member.sendShared(message);
+            }
+            return;
+        }
+        ClientHandler recipient = clients.get(name);
+        if (recipient != null) {
+            recipient.sendMessage(text);
+        } else {
+            // Desconectou enquanto a mensagem vinha de outro nó
+            storeOffline(name, text, null);
+        }
+    }
+
+    /**
+     * Prepara a entrega de um arquivo repassado por outro nó aos clientes
+     * locais do destino. O arquivo é recebido por completo antes da entrega:
+     * a conexão entre os nós intercala blocos de vários arquivos.
+     */
+    static FileRelay openClusterFileRelay(String destination, String sender, String filename, long filesize) {
+        String name = destination.substring(1);
+        List<ClientHandler> recipients = new ArrayList<>();
+        if (destination.startsWith("#")) {
+            GroupRegistry.Group group = groups.get(name);
+            if (group != null) {
+                Collections.addAll(recipients, group.members());
+            }
+        } else {
+            ClientHandler recipient = clients.get(name);
+            if (recipient != null) {
+                recipients.add(recipient);
+            }
+        }
+        return new FileRelay(sender, filename, filesize, recipients, true);
+    }
+}
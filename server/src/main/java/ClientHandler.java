@@ -0,0 +1,814 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lida com toda a comunicação para um único cliente em uma thread separada.
+ */
+public class ClientHandler implements Runnable {
+    private static final AtomicLong nextId = new AtomicLong();
+    // Pings já codificados, compartilhados por todas as conexões
+    private static final byte[] PING_FRAME = Protocol.header(Protocol.PING, 0).array();
+    private static final byte[] PING_LINE = Protocol.textLine("/ping");
+
+    // Identificador único, usado para ordenar a aquisição de locks entre clientes
+    private final long id = nextId.incrementAndGet();
+    // Instante em que a conexão foi aceita, para medir o handshake até o login
+    private final long acceptedAt = System.nanoTime();
+    private final Socket clientSocket;
+    // Protege todas as escritas no socket. ReentrantLock em vez de synchronized
+    // para não prender (pin) a thread portadora quando rodando em thread virtual.
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Mensagens para este cliente: quem envia só enfileira e a thread
+    // escritora (ou o reator, no modo nio) escreve no socket
+    private final OutboundQueue outbox = new OutboundQueue();
+    // Executa a escritora quando há fila (modo bloqueante); null no modo nio
+    private final Executor writerExecutor;
+    // Nenhuma escritora agendada; falso até os streams existirem e depois de uma falha de escrita
+    private final AtomicBoolean writerIdle = new AtomicBoolean();
+    // Thread que lê deste cliente: só ela escreve direto no socket
+    private volatile Thread reader;
+    // Um único stream com buffer para linhas, quadros e conteúdo de arquivos:
+    // nenhum byte lido adiante se perde entre leitores diferentes
+    private DataInputStream input;
+    private DataOutputStream dataOutput;
+    private String username;
+    // Protocolo negociado no handshake: binário (Protocol) ou texto por linhas
+    private volatile boolean binary;
+    // Versão do protocolo binário aceita no handshake (0 no protocolo de texto)
+    private volatile int protocolVersion;
+    // Cliente aceita quadros COMPRESSED (pediu com COMPRESS)
+    private volatile boolean compress;
+    // Cliente de texto que pediu o heartbeat com /heartbeat (sabe responder ao /ping)
+    private volatile boolean heartbeatRequested;
+    // Token que as conexões de dados desta sessão apresentam (TransferServer)
+    private volatile String transferToken;
+    // Limites de envio deste usuário (Admission); null se desligados
+    private final Admission.Limits limits = Admission.userLimits();
+    // Já avisado de que está acima do limite (só a thread de leitura usa)
+    private boolean throttled;
+    // Prazo para concluir o login, cancelado no registro
+    private final Heartbeat.Entry heartbeat = new Heartbeat.Entry(this);
+    // Nome procurado nos mapas do servidor sem criar String (só a thread leitora usa)
+    private final NameKey nameKey = new NameKey();
+    // "[PRIVADO de <nome>]: " em UTF-8, montado na primeira mensagem privada
+    private byte[] privatePrefix;
+
+    public ClientHandler(Socket socket) {
+        this(socket, null);
+    }
+
+    public ClientHandler(Socket socket, Executor writerExecutor) {
+        this.clientSocket = socket;
+        this.writerExecutor = writerExecutor;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public Socket getSocket() {
+        return clientSocket;
+    }
+
+    boolean isBinary() {
+        return binary;
+    }
+
+    void enableBinaryProtocol() {
+        this.binary = true;
+    }
+
+    OutboundQueue outbox() {
+        return outbox;
+    }
+
+    // Mensagens aguardando envio para este cliente
+    public int getQueueDepth() {
+        return outbox.depth();
+    }
+
+    // Mensagens descartadas por estouro da fila de saída deste cliente
+    public long getDroppedMessages() {
+        return outbox.dropped();
+    }
+
+    @Override
+    public void run() {
+        try {
+            // Inicializa os streams de comunicação
+            input = new DataInputStream(new BufferedInputStream(Metrics.countIn(clientSocket.getInputStream()))); // ler mensagens e dados binários recebidos do cliente
+            // Com buffer: a thread escritora junta as mensagens pendentes em um único flush
+            dataOutput = new DataOutputStream(new BufferedOutputStream(Metrics.countOut(clientSocket.getOutputStream()), FileRelay.CHUNK_SIZE));// enviar mensagens e dados binários para o cliente
+            Protocol.LineBuffer lineBuffer = new Protocol.LineBuffer(256);
+            reader = Thread.currentThread();
+            writerIdle.set(true);
+            if (!outbox.isEmpty()) {
+                startWriter();
+            }
+
+            // Handshake: clientes binários começam com Protocol.MAGIC; os demais
+            // enviam o nome de usuário em uma linha de texto
+            input.mark(1);
+            String name;
+            if (input.read() == Protocol.MAGIC[0]) {
+                name = binaryHandshake();
+            } else {
+                input.reset();
+                name = Protocol.readLine(input, lineBuffer, Protocol.MAX_PAYLOAD);
+            }
+
+            // A primeira mensagem recebida deve ser o nome de usuário
+            if (!register(name)) {
+                flushOutbox();
+                clientSocket.close();
+                return;
+            }
+            // Envia mensagens de boas-vindas e instruções
+            sendWelcome();
+
+            // Loop principal para ler mensagens do cliente
+            if (binary) {
+                byte[] type = new byte[1];
+                ByteBuffer payload;
+                while ((payload = Protocol.readFrame(input, type, Protocol.MAX_PAYLOAD)) != null) {
+                    markActive();
+                    handleFrame(type[0], payload);
+                }
+            } else {
+                while (Protocol.readLineInto(input, lineBuffer, Protocol.MAX_PAYLOAD)) {
+                    markActive();
+                    handleLine(lineBuffer.array(), 0, lineBuffer.size());
+                }
+            }
+
+        } catch (IOException e) {
+            // Acontece quando o cliente se desconecta abruptamente
+        } finally {
+            // Bloco de limpeza para garantir que o cliente seja removido
+            try {
+                connectionClosed();
+                ChatServer.removeClient(this);
+                outbox.close(new ArrayList<>());
+                clientSocket.close();
+            } catch (IOException e) {
+                ServerLog.error("[ERRO] Falha ao fechar a conexão de " + username + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Conclui o handshake binário (o primeiro byte já foi lido) e devolve o nome do LOGIN
+    private String binaryHandshake() throws IOException {
+        int version = Protocol.readHandshake(input);
+        if (version < 1) {
+            throw new IOException("Versão de protocolo não suportada: " + version);
+        }
+        write(acceptHandshake(version));
+        byte[] type = new byte[1];
+        ByteBuffer payload = Protocol.readFrame(input, type, Protocol.MAX_PAYLOAD);
+        if (payload == null || type[0] != Protocol.LOGIN) {
+            throw new IOException("Quadro LOGIN esperado no handshake");
+        }
+        return Protocol.readRest(payload);
+    }
+
+    /**
+     * Passa ao protocolo binário na versão aceita e devolve o HELLO. Na
+     * versão 2 ele leva o token e a porta das conexões de dados (porta 0
+     * se as transferências em blocos estiverem desativadas).
+     */
+    byte[] acceptHandshake(int requested) {
+        enableBinaryProtocol();
+        protocolVersion = Math.min(requested, Protocol.VERSION);
+        if (protocolVersion < 2) {
+            return Protocol.hello(protocolVersion);
+        }
+        TransferServer transfers = ChatServer.transfers();
+        if (transfers == null) {
+            return Protocol.hello(protocolVersion, "", 0);
+        }
+        transferToken = transfers.newToken();
+        return Protocol.hello(protocolVersion, transferToken, transfers.port());
+    }
+
+    int protocolVersion() {
+        return protocolVersion;
+    }
+
+    boolean checkTransferToken(String token) {
+        return TransferServer.tokenMatches(transferToken, token);
+    }
+
+    /**
+     * Valida o nome de usuário recebido no handshake e registra o cliente no
+     * servidor. Retorna false (e avisa o cliente) se o nome for inválido.
+     */
+    boolean register(String name) {
+        if (name == null || name.trim().isEmpty() || ChatServer.getClient(name) != null) {
+            sendMessage("[ERRO] Nome de usuário inválido ou já em uso.");
+            return false;
+        }
+        this.username = name;
+        ChatServer.addClient(this.username, this);
+        Metrics.handshakes.record(System.nanoTime() - acceptedAt);
+        return true;
+    }
+
+    /**
+     * Começa a contar o prazo do login (Admission.HANDSHAKE_TIMEOUT_MILLIS)
+     * e, depois dele, o heartbeat: uma conexão que não se identifica a tempo,
+     * ou que deixa de responder, é fechada e libera a thread.
+     */
+    void startHeartbeat() {
+        Heartbeat.register(heartbeat);
+    }
+
+    // Bytes recebidos do cliente (qualquer comando serve de resposta ao ping)
+    void markActive() {
+        heartbeat.markActive();
+    }
+
+    // Binários a partir da versão 4 respondem ao ping; clientes de texto só se pediram
+    boolean answersPing() {
+        return binary ? protocolVersion >= 4 : heartbeatRequested;
+    }
+
+    // /heartbeat: o cliente de texto passa a receber /ping (e a ser desconectado se não responder)
+    void requestHeartbeat() {
+        if (!binary && !heartbeatRequested) {
+            heartbeatRequested = true;
+            Heartbeat.enable(heartbeat);
+        }
+    }
+
+    /**
+     * Chamado pela thread do heartbeat, que nunca espera: com a fila cheia o
+     * ping não é enviado (retorna false) e o prazo da resposta corre igual.
+     */
+    boolean sendPing() {
+        return tryEnqueue(binary ? PING_FRAME : PING_LINE);
+    }
+
+    // Conexão aceita encerrada: libera a vaga e sai do heartbeat (uma vez por conexão)
+    void connectionClosed() {
+        heartbeat.close();
+        Admission.release();
+    }
+
+    // Envia mensagens de boas-vindas e instruções
+    void sendWelcome() {
+        sendMessage("Bem-vindo ao chat, " + username + "!");
+        sendMessage("Mensagens em grupo: #nome_do_grupo:mensagem");
+        sendMessage("Mensagens privadas: @nome_do_usuario:mensagem");
+        sendMessage("Criar Grupo: /creategroup nome_do_grupo");
+        sendMessage("Adiciona-se ao Grupo: /joingroup nome_do_grupo") ;
+        sendMessage("Enviar Arquivo: /sendfile @user | #group name  caminho do arquivo");
+    }
+
+    // Trata line[start, end), uma linha do protocolo de texto sem o '\n' (Commands)
+    void handleLine(byte[] line, int start, int end) throws IOException {
+        Commands.dispatch(this, line, start, end);
+    }
+
+    // Trata um quadro do protocolo binário (mesmas ações de handleLine)
+    void handleFrame(byte type, ByteBuffer payload) throws IOException {
+        // Mensagens e comandos de grupo contam para o limite de envio do usuário
+        if (type >= Protocol.PRIVATE && type <= Protocol.JOIN_GROUP && !admit(payload.remaining())) {
+            return;
+        }
+        switch (type) {
+            case Protocol.PRIVATE: {
+                // Nome e texto são lidos direto do array do quadro
+                int nameStart = fieldStart(payload);
+                int nameEnd = nameStart + (payload.getShort(payload.position()) & 0xFFFF);
+                sendPrivate(payload.array(), nameStart, nameEnd, nameEnd, payload.arrayOffset() + payload.limit());
+                break;
+            }
+            case Protocol.GROUP: {
+                int nameStart = fieldStart(payload);
+                int nameEnd = nameStart + (payload.getShort(payload.position()) & 0xFFFF);
+                sendGroup(payload.array(), nameStart, nameEnd, nameEnd, payload.arrayOffset() + payload.limit());
+                break;
+            }
+            case Protocol.CREATE_GROUP:
+                ChatServer.createGroup(Protocol.readRest(payload).trim(), this);
+                break;
+            case Protocol.JOIN_GROUP: {
+                byte[] bytes = payload.array();
+                int start = payload.arrayOffset() + payload.position();
+                int end = payload.arrayOffset() + payload.limit();
+                while (start < end && (bytes[start] & 0xFF) <= ' ') {
+                    start++;
+                }
+                while (end > start && (bytes[end - 1] & 0xFF) <= ' ') {
+                    end--;
+                }
+                joinGroup(bytes, start, end);
+                break;
+            }
+            case Protocol.PONG:
+                // A atividade já foi registrada na leitura do quadro
+                break;
+            case Protocol.COMPRESS:
+                compress = Compression.ENABLED && "deflate".equals(Protocol.readRest(payload));
+                break;
+            case Protocol.COMPRESSED: {
+                // Lote de comandos comprimido junto pelo cliente
+                ByteBuffer frames = Protocol.inflateFrames(payload, Protocol.MAX_PAYLOAD);
+                byte[] innerType = new byte[1];
+                while (frames.hasRemaining()) {
+                    ByteBuffer inner = Protocol.nextFrame(frames, innerType);
+                    handleFrame(innerType[0], inner);
+                }
+                break;
+            }
+            case Protocol.SEND_FILE: {
+                String dest = Protocol.readField(payload);
+                String filename = Protocol.readField(payload);
+                startFile(dest, filename, Protocol.readLong(payload));
+                break;
+            }
+            default:
+                // Tipos desconhecidos são ignorados (clientes de versões futuras)
+        }
+    }
+
+    /**
+     * Limite de envio do usuário: false (e um aviso, só no início de cada
+     * sequência recusada) se o comando deve ser descartado.
+     */
+    boolean admit(int length) {
+        if (limits == null || limits.tryAcquire(length)) {
+            throttled = false;
+            return true;
+        }
+        Metrics.throttledMessages.increment();
+        if (!throttled) {
+            throttled = true;
+            sendMessage("[ERRO] Limite de envio excedido; mensagens descartadas até o ritmo diminuir.");
+        }
+        return false;
+    }
+
+    /**
+     * Tamanho anunciado de um arquivo dentro do limite (Admission). Acima
+     * dele o conteúdo que vem em seguida não é lido: o cliente é avisado e
+     * desconectado.
+     */
+    private boolean acceptFileSize(long filesize) {
+        if (Admission.acceptsFileSize(filesize)) {
+            return true;
+        }
+        Metrics.rejectedFiles.increment();
+        ServerLog.info("[ADMISSÃO] Arquivo de " + filesize + " bytes recusado de " + username);
+        sendMessage("[ERRO] Arquivo recusado: o tamanho máximo é " + Admission.MAX_FILE_SIZE + " bytes.");
+        disconnectAfterNotice();
+        return false;
+    }
+
+    // Início do texto de um campo com tamanho (short) na posição atual do quadro;
+    // o prefixo e o campo inteiro precisam caber no que resta do quadro
+    private static int fieldStart(ByteBuffer payload) throws IOException {
+        Protocol.require(payload, 2);
+        int length = payload.getShort(payload.position()) & 0xFFFF;
+        Protocol.require(payload, 2 + length);
+        return payload.arrayOffset() + payload.position() + 2;
+    }
+
+    /**
+     * Envia uma mensagem privada para outro usuário (guardada no log se
+     * estiver offline). Nome e texto são trechos UTF-8 de buf: com o
+     * destinatário conectado, o texto vai para a fila dele sem virar String.
+     */
+    void sendPrivate(byte[] buf, int nameStart, int nameEnd, int textStart, int textEnd) {
+        Metrics.privateMessages.increment();
+        ClientHandler recipient = nameKey.set(buf, nameStart, nameEnd)
+                ? ChatServer.getClient(nameKey)
+                : ChatServer.getClient(NameKey.decode(buf, nameStart, nameEnd));
+        if (privatePrefix == null) {
+            privatePrefix = ("[PRIVADO de " + username + "]: ").getBytes(StandardCharsets.UTF_8);
+        }
+        if (recipient != null) {
+            recipient.sendMessage(privatePrefix, buf, textStart, textEnd - textStart);
+            return;
+        }
+        String recipientName = NameKey.decode(buf, nameStart, nameEnd);
+        String text = "[PRIVADO de " + username + "]: " + NameKey.decode(buf, textStart, textEnd);
+        if (!ChatServer.storeOffline(recipientName, text, this)) {
+            sendMessage("[ERRO] Usuário '" + recipientName + "' não encontrado ou offline.");
+        }
+    }
+
+    // Mensagem de grupo: o nome do grupo é procurado sem virar String
+    void sendGroup(byte[] buf, int nameStart, int nameEnd, int textStart, int textEnd) {
+        String groupName = nameKey.set(buf, nameStart, nameEnd) ? ChatServer.groupName(nameKey) : null;
+        if (groupName == null) {
+            groupName = NameKey.decode(buf, nameStart, nameEnd);
+        }
+        ChatServer.routeGroupMessage(groupName, NameKey.decode(buf, textStart, textEnd), this);
+    }
+
+    // Entrada em um grupo pelo nome em buf[start, end)
+    void joinGroup(byte[] buf, int start, int end) {
+        String groupName = nameKey.set(buf, start, end) ? ChatServer.groupName(nameKey) : null;
+        ChatServer.joinGroup(groupName != null ? groupName : NameKey.decode(buf, start, end), this);
+    }
+
+    /**
+     * Recebe o arquivo anunciado por /sendfile ou SEND_FILE. Sem destino
+     * (comando incompleto) ou com tamanho inválido, o envio é recusado.
+     */
+    void startFile(String dest, String filename, long filesize) throws IOException {
+        if (!acceptFileSize(filesize)) {
+            return;
+        }
+        ServerLog.info("[ARQUIVO] Recebendo '" + filename + "' (" + filesize + " bytes) de " + username);
+        receiveFile(dest, filename, filesize);
+    }
+
+    /**
+     * Lê o conteúdo do arquivo anunciado por /sendfile e o repassa em blocos
+     * aos destinatários à medida que chega, sem acumular o arquivo em memória.
+     * A escrita bloqueante nos destinatários segura a leitura do remetente
+     * quando algum deles é lento.
+     */
+    void receiveFile(String dest, String filename, long filesize) throws IOException {
+        FileRelay relay = openRelay(dest, filename, filesize);
+        byte[] buffer = new byte[(int) Math.min(FileRelay.CHUNK_SIZE, Math.max(filesize, 1))];
+        long remaining = filesize;
+        try {
+            while (remaining > 0) {
+                int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw new EOFException("Conexão encerrada durante o envio de '" + filename + "'");
+                }
+                markActive();
+                relay.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } catch (IOException e) {
+            relay.abort(remaining);
+            throw e;
+        }
+        relay.finish();
+    }
+
+    // Prepara o repasse do arquivo para o destino correto (@usuario ou #grupo)
+    FileRelay openRelay(String dest, String filename, long filesize) {
+        Metrics.files.increment();
+        Metrics.fileSizes.record(filesize);
+        if (dest.startsWith("#")) {
+            return ChatServer.openGroupFileRelay(dest.substring(1), filename, filesize, this);
+        }
+        List<ClientHandler> recipients = new ArrayList<>(1);
+        String recipientName = dest.startsWith("@") ? dest.substring(1) : dest;
+        ClientHandler recipient = ChatServer.getClient(recipientName);
+        if (recipient != null) {
+            recipients.add(recipient);
+        } else {
+            // Os bytes ainda precisam ser consumidos do socket, mas são descartados
+            sendMessage("[ERRO] Usuário '" + recipientName + "' não encontrado para envio de arquivo.");
+        }
+        return new FileRelay(username, filename, filesize, recipients);
+    }
+
+    // Codifica uma mensagem de texto no protocolo deste cliente
+    byte[] encodeMessage(String message) {
+        return binary ? Protocol.frame(Protocol.MESSAGE, message) : Protocol.textLine(message);
+    }
+
+    // Codifica o cabeçalho de recebimento de arquivo no protocolo deste cliente
+    byte[] encodeFileHeader(String sender, String filename, long filesize) {
+        return binary
+                ? Protocol.fileFrame(Protocol.RECV_FILE, sender, filename, filesize)
+                : Protocol.textLine("/recvfile " + sender + " " + filename + " " + filesize);
+    }
+
+    /** Envia uma mensagem de texto para este cliente (apenas enfileira). */
+    public void sendMessage(String message) {
+        enqueueMessage(compressible(encodeMessage(message)));
+    }
+
+    // Mensagem de texto formada por prefix e text[offset, offset + length), já em UTF-8
+    void sendMessage(byte[] prefix, byte[] text, int offset, int length) {
+        enqueueMessage(compressible(binary
+                ? Protocol.frame(Protocol.MESSAGE, prefix, text, offset, length)
+                : Protocol.textLine(prefix, text, offset, length)));
+    }
+
+    /**
+     * Envia várias mensagens como um único item da fila de saída (uma escrita
+     * só, e sem contar uma a uma para o limite da fila).
+     */
+    void sendBatch(List<String> messages) {
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        for (String message : messages) {
+            batch.writeBytes(encodeMessage(message));
+        }
+        enqueueMessage(compressible(batch.toByteArray()));
+    }
+
+    // Envia uma mensagem já codificada, compartilhada com outros destinatários
+    void sendShared(SharedMessage message) {
+        if (compress) {
+            byte[] plain = message.encoded(true);
+            byte[] compressed = message.compressed();
+            countCompressed(plain, compressed);
+            enqueueMessage(compressed);
+        } else {
+            enqueueMessage(message.encoded(binary));
+        }
+    }
+
+    // Quadros para a fila de saída, comprimidos juntos se o cliente aceita e compensar
+    private byte[] compressible(byte[] frames) {
+        if (!compress || frames.length < Compression.MIN_SIZE) {
+            return frames;
+        }
+        byte[] compressed = Protocol.compressed(frames);
+        countCompressed(frames, compressed);
+        return compressed;
+    }
+
+    private static void countCompressed(byte[] plain, byte[] sent) {
+        if (sent != plain) {
+            Metrics.compressedBytes.add(sent.length);
+            Metrics.uncompressedBytes.add(plain.length);
+        }
+    }
+
+    // Avisa que um arquivo está pronto para ser buscado pela porta de dados (só protocolo 2)
+    void sendOffer(byte[] offer) {
+        enqueueMessage(offer);
+    }
+
+    // Enfileira bytes já codificados (não são copiados: não podem ser alterados depois)
+    void enqueueMessage(byte[] encoded) {
+        if (Thread.currentThread() == reader && writeInline(encoded)) {
+            return;
+        }
+        // Quem chama é a thread de outro cliente: pode esperar (política block)
+        if (!outbox.offer(encoded, true)) {
+            disconnectSlowConsumer();
+            return;
+        }
+        startWriter();
+    }
+
+    // Enfileira só se houver espaço, sem esperar nem descartar outras mensagens
+    boolean tryEnqueue(byte[] encoded) {
+        if (!outbox.offerIfRoom(encoded)) {
+            return false;
+        }
+        startWriter();
+        return true;
+    }
+
+    /**
+     * Respostas aos comandos do próprio cliente saem direto, na thread dele,
+     * se nada estiver na frente. Mensagens de outros clientes sempre passam
+     * pela fila: a escrita bloqueante para um destinatário lento seguraria o
+     * remetente. Retorna false se a mensagem deve ir para a fila.
+     */
+    private boolean writeInline(byte[] encoded) {
+        if (!writeLock.tryLock()) {
+            return false;
+        }
+        try {
+            if (!outbox.isEmpty()) {
+                return false;
+            }
+            dataOutput.write(encoded);
+            dataOutput.flush();
+        } catch (IOException e) {
+            // A desconexão é detectada e tratada pelo loop de leitura em run()
+        } finally {
+            writeLock.unlock();
+        }
+        return true;
+    }
+
+    // Agenda a escritora, se nenhuma estiver agendada, para esvaziar a fila
+    private void startWriter() {
+        if (writerIdle.compareAndSet(true, false)) {
+            writerExecutor.execute(this::writeLoop);
+        }
+    }
+
+    /**
+     * Fila de saída cheia e política disconnect (ou block com tempo
+     * esgotado): derruba a conexão para não acumular mensagens sem limite.
+     */
+    void disconnectSlowConsumer() {
+        ServerLog.info("[FILA] " + username + " desconectado: fila de saída cheia ("
+                + outbox.dropped() + " mensagens descartadas)");
+        disconnect();
+    }
+
+    // Fecha a conexão a partir de qualquer thread
+    void disconnect() {
+        try {
+            // O loop de leitura em run() falha e faz a limpeza
+            clientSocket.close();
+        } catch (IOException e) {
+            ServerLog.error("[ERRO] Falha ao fechar a conexão de " + username + ": " + e.getMessage());
+        }
+    }
+
+    // Fecha a conexão depois de escrever o que já está na fila (ex.: o aviso de uma recusa)
+    void disconnectAfterNotice() {
+        flushOutbox();
+        disconnect();
+    }
+
+    /**
+     * Escritora: só roda enquanto há fila, e escreve todas as mensagens
+     * pendentes de uma vez. Um cliente ocioso não ocupa thread além da de
+     * leitura. Quem enfileira depois do último esvaziamento e antes de
+     * writerIdle voltar a true é visto pelo isEmpty do fim do laço.
+     */
+    private void writeLoop() {
+        List<Object> batch = new ArrayList<>();
+        try {
+            do {
+                writeLock.lock();
+                try {
+                    writeQueued(batch);
+                } finally {
+                    writeLock.unlock();
+                }
+                writerIdle.set(true);
+            } while (!outbox.isEmpty() && writerIdle.compareAndSet(true, false));
+        } catch (IOException e) {
+            // A desconexão é detectada e tratada pelo loop de leitura em run();
+            // writerIdle fica falso e nenhuma escritora nova é agendada
+        }
+    }
+
+    // Escreve as mensagens pendentes com um único flush; chamado com o lock de escrita
+    private void writeQueued(List<Object> batch) throws IOException {
+        outbox.drainTo(batch);
+        try {
+            for (Object message : batch) {
+                dataOutput.write((byte[]) message);
+            }
+            dataOutput.flush();
+        } finally {
+            batch.clear();
+        }
+    }
+
+    // Escreve já o que estiver na fila (antes de fechar a conexão)
+    private void flushOutbox() {
+        writeLock.lock();
+        try {
+            writeQueued(new ArrayList<>());
+        } catch (IOException e) {
+            // Conexão já perdida
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Escreve bytes já codificados no socket, na thread atual
+    private void write(byte[] bytes) {
+        writeLock.lock();
+        try {
+            dataOutput.write(bytes);
+            dataOutput.flush();
+        } catch (IOException e) {
+            // A desconexão é detectada e tratada pelo loop de leitura em run()
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Envia um arquivo já em memória para este cliente.
+     */
+    public void sendFile(String sender, String filename, byte[] fileData) {
+        FileRelay.Target target = openFile(sender, filename, fileData.length);
+        target.write(fileData, 0, fileData.length);
+        target.finish();
+    }
+
+    /**
+     * Envia um arquivo gravado em disco para este cliente. Com um socket criado
+     * a partir de um SocketChannel o conteúdo vai do cache de páginas direto
+     * para o socket (transferTo), sem cópia para o heap.
+     */
+    void sendSpooledFile(String sender, String filename, FileSpool spool) {
+        writeLock.lock();
+        try {
+            // Mensagens enfileiradas antes do arquivo saem antes dele
+            writeQueued(new ArrayList<>());
+            write(encodeFileHeader(sender, filename, spool.size()));
+            WritableByteChannel target = clientSocket.getChannel() != null
+                    ? clientSocket.getChannel()
+                    : Channels.newChannel(dataOutput);
+            spool.transferAllTo(target);
+            if (clientSocket.getChannel() != null) {
+                // Cópia zero: não passou pelo stream que conta os bytes
+                Metrics.bytesOut.add(spool.size());
+            }
+            ServerLog.info("[ARQUIVO] '" + filename + "' enviado para " + username);
+        } catch (IOException e) {
+            ServerLog.error("[ERRO] Falha ao enviar arquivo para " + username);
+        } finally {
+            writeLock.unlock();
+            spool.release();
+        }
+    }
+
+    /**
+     * Verdadeiro se openFile pode receber os blocos à medida que chegam do
+     * remetente. No modo bloqueante não: o destino segura o lock de escrita
+     * até o fim, e a saída deste cliente ficaria presa ao ritmo de outro socket.
+     */
+    boolean relaysWhileReceiving() {
+        return false;
+    }
+
+    /**
+     * Começa o envio de um arquivo para este cliente: adquire o lock de escrita
+     * e envia o cabeçalho. O lock só é liberado em finish()/abort(), para que
+     * nenhuma mensagem se intercale com o conteúdo do arquivo; por isso só é
+     * usado com o arquivo já recebido (ver relaysWhileReceiving).
+     */
+    FileRelay.Target openFile(String sender, String filename, long filesize) {
+        writeLock.lock();
+        // Mensagens enfileiradas antes do arquivo saem antes dele
+        flushOutbox();
+        // 1. Envia o cabeçalho de recebimento de arquivo
+        write(encodeFileHeader(sender, filename, filesize));
+        return new FileRelay.Target() {
+            private boolean failed;
+
+            @Override
+            public boolean write(byte[] data, int offset, int length) {
+                // 2. Envia os dados binários do arquivo, bloco a bloco
+                try {
+                    dataOutput.write(data, offset, length);
+                    return true;
+                } catch (IOException e) {
+                    ServerLog.error("[ERRO] Falha ao enviar arquivo para " + username);
+                    failed = true;
+                    finish();
+                    return false;
+                }
+            }
+
+            @Override
+            public void finish() {
+                if (!writeLock.isHeldByCurrentThread()) {
+                    return;
+                }
+                try {
+                    dataOutput.flush();
+                    if (!failed) {
+                        ServerLog.info("[ARQUIVO] '" + filename + "' enviado para " + username);
+                    }
+                } catch (IOException e) {
+                    ServerLog.error("[ERRO] Falha ao enviar arquivo para " + username);
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+
+            @Override
+            public void abort(long remaining, String notice) {
+                while (remaining > 0 && !failed) {
+                    int length = (int) Math.min(FileRelay.ZEROS.length, remaining);
+                    write(FileRelay.ZEROS, 0, length);
+                    remaining -= length;
+                }
+                finish();
+                sendMessage(notice);
+            }
+
+            @Override
+            public boolean isCongested() {
+                // A escrita bloqueante já aplica a contrapressão
+                return false;
+            }
+
+            @Override
+            public void whenDrained(Runnable callback) {
+                callback.run();
+            }
+        };
+    }
+}
@@ -0,0 +1,355 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Modo cluster: vários servidores (nós) atendem clientes diferentes e
+ * repassam entre si mensagens privadas, mensagens de grupo e arquivos.
+ *
+ * Cada nó mantém uma cópia do diretório do cluster: em que nó está cada
+ * usuário e quais nós têm membros de cada grupo. O diretório não tem servidor
+ * próprio: cada nó anuncia aos demais as mudanças dos seus clientes e, ao
+ * (re)conectar a um nó, envia o seu estado completo. Quando a conexão vinda de
+ * um nó cai, tudo o que ele anunciou é esquecido.
+ *
+ * Entre cada par de nós há duas conexões persistentes, uma em cada sentido
+ * (PeerLink envia; a conexão aceita aqui só recebe). Uma mensagem de grupo
+ * vai uma única vez para cada nó que tem membros do grupo, e esse nó a entrega
+ * aos seus membros. Arquivos vindos de outro nó são recebidos por completo
+ * (em memória ou em disco) antes de serem entregues aos clientes locais.
+ *
+ * Configuração (propriedades do sistema):
+ * - chat.cluster: nós do cluster, no formato nome=host:porta,... incluindo
+ *   este; a porta é a usada entre os nós, não a dos clientes (chat.port)
+ * - chat.nodeId: nome deste nó na lista
+ * - chat.clusterSecret: segredo comum a todos os nós (obrigatório); uma
+ *   conexão entre nós com outro segredo é recusada
+ */
+final class ClusterNode {
+
+    // Quadros entre nós (mesmo formato de Protocol: tipo, tamanho, conteúdo)
+    static final byte HELLO = 1;       // nome do nó, segredo do cluster
+    static final byte USER_UP = 2;     // usuário conectado ao nó
+    static final byte USER_DOWN = 3;   // usuário desconectado
+    static final byte GROUP_JOIN = 4;  // grupo (o nó passou a ter membros)
+    static final byte GROUP_LEAVE = 5; // grupo (o nó não tem mais membros)
+    static final byte DELIVER = 6;     // destino (@usuario ou #grupo), texto já formatado
+    static final byte FILE_BEGIN = 7;  // id (8), destino, remetente, nome do arquivo, tamanho (8)
+    static final byte FILE_DATA = 8;   // id (8), bloco do arquivo
+    static final byte FILE_END = 9;    // id (8)
+    static final byte FILE_ABORT = 10; // id (8): remetente caiu, arquivo incompleto
+
+    // Maior quadro entre nós: um bloco de arquivo com o seu cabeçalho
+    static final int MAX_PAYLOAD = FileRelay.CHUNK_SIZE + 1024;
+
+    /** Arquivo vindo de outro nó, ainda sendo recebido. */
+    private static final class IncomingFile {
+        final FileRelay relay;
+        long remaining;
+
+        IncomingFile(FileRelay relay, long size) {
+            this.relay = relay;
+            this.remaining = size;
+        }
+    }
+
+    private final String nodeId;
+    private final String secret;
+    private final InetSocketAddress listenAddress;
+    private final Map<String, PeerLink> links = new LinkedHashMap<>();
+    // Diretório: usuário -> nó onde está conectado (só usuários de outros nós)
+    private final Map<String, String> users = new ConcurrentHashMap<>();
+    // Diretório: grupo -> outros nós com membros do grupo
+    private final Map<String, Set<String>> groupNodes = new ConcurrentHashMap<>();
+    // Conexão atual vinda de cada nó; uma conexão antiga que cai não apaga o estado novo
+    private final Map<String, Socket> inbound = new ConcurrentHashMap<>();
+    // Estado local já anunciado aos outros nós (protegido pelo lock do nó)
+    private final Set<String> localUsers = new HashSet<>();
+    private final Set<String> localGroups = new HashSet<>();
+    // Entrega de arquivos já recebidos de outro nó: escrever para um destinatário
+    // lento do modo bloqueante não pode parar a thread que lê o nó
+    private final ExecutorService fileDelivery = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "chat-cluster-file");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    ClusterNode(String nodeId, String secret, Map<String, InetSocketAddress> nodes) {
+        this.nodeId = nodeId;
+        this.secret = secret;
+        this.listenAddress = nodes.get(nodeId);
+        for (Map.Entry<String, InetSocketAddress> entry : nodes.entrySet()) {
+            if (!entry.getKey().equals(nodeId)) {
+                links.put(entry.getKey(), new PeerLink(this, entry.getKey(), entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Nó configurado por chat.cluster e chat.nodeId, ou null se o servidor
+     * roda sozinho.
+     */
+    static ClusterNode fromProperties() throws IOException {
+        String spec = System.getProperty("chat.cluster", "").trim();
+        if (spec.isEmpty()) {
+            return null;
+        }
+        Map<String, InetSocketAddress> nodes = new LinkedHashMap<>();
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.trim().split("[=:]");
+            if (parts.length != 3) {
+                throw new IOException("Nó inválido em chat.cluster: '" + entry + "' (use nome=host:porta)");
+            }
+            nodes.put(parts[0], new InetSocketAddress(parts[1], Integer.parseInt(parts[2])));
+        }
+        String nodeId = System.getProperty("chat.nodeId");
+        if (nodeId == null || !nodes.containsKey(nodeId)) {
+            throw new IOException("chat.nodeId deve ser um dos nós de chat.cluster: " + nodes.keySet());
+        }
+        String secret = System.getProperty("chat.clusterSecret", "");
+        if (secret.isEmpty()) {
+            throw new IOException("chat.clusterSecret é obrigatório no modo cluster");
+        }
+        return new ClusterNode(nodeId, secret, nodes);
+    }
+
+    // Abre a porta entre nós e inicia as conexões para os demais
+    void start() throws IOException {
+        ServerSocket server = new ServerSocket();
+        server.bind(listenAddress, ChatServer.BACKLOG);
+        ServerLog.info("[CLUSTER] Nó " + nodeId + " ouvindo os demais nós em " + listenAddress
+                + "; nós: " + links.keySet());
+        daemon("chat-cluster-accept", () -> acceptLoop(server));
+        for (PeerLink link : links.values()) {
+            daemon("chat-cluster-" + link.peerId(), link);
+        }
+    }
+
+    private static void daemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // --- Estado local (chamado pelo ChatServer depois de cada mudança) ---
+
+    /**
+     * Anuncia aos outros nós se o usuário está ou não conectado aqui. Consulta
+     * o estado atual do servidor em vez de receber a mudança, para que duas
+     * mudanças seguidas nunca sejam anunciadas fora de ordem.
+     */
+    synchronized void syncUser(String username) {
+        boolean present = ChatServer.hasLocalClient(username);
+        if (present ? localUsers.add(username) : localUsers.remove(username)) {
+            broadcast(Protocol.frame(present ? USER_UP : USER_DOWN, username));
+        }
+    }
+
+    // Anuncia se este nó tem ou não membros do grupo (mesma lógica de syncUser)
+    synchronized void syncGroup(String groupName) {
+        boolean present = ChatServer.hasLocalGroup(groupName);
+        if (present ? localGroups.add(groupName) : localGroups.remove(groupName)) {
+            broadcast(Protocol.frame(present ? GROUP_JOIN : GROUP_LEAVE, groupName));
+        }
+    }
+
+    private void broadcast(byte[] frame) {
+        for (PeerLink link : links.values()) {
+            link.send(frame);
+        }
+    }
+
+    // Conexão para um nó (re)estabelecida: identificação e estado completo primeiro
+    synchronized void announceTo(PeerLink link) {
+        List<byte[]> frames = new ArrayList<>(1 + localUsers.size() + localGroups.size());
+        frames.add(Protocol.frame(HELLO, nodeId, secret));
+        for (String username : localUsers) {
+            frames.add(Protocol.frame(USER_UP, username));
+        }
+        for (String groupName : localGroups) {
+            frames.add(Protocol.frame(GROUP_JOIN, groupName));
+        }
+        link.open(frames);
+    }
+
+    // --- Consultas ao diretório ---
+
+    // Usuário conectado a outro nó, ou null
+    ClientHandler remoteUser(String username) {
+        String node = users.get(username);
+        PeerLink link = node != null ? links.get(node) : null;
+        return link != null ? link.destination("@" + username) : null;
+    }
+
+    boolean hasRemoteMembers(String groupName) {
+        return groupNodes.containsKey(groupName);
+    }
+
+    // Um destino por nó com membros do grupo
+    List<ClientHandler> remoteGroup(String groupName) {
+        Set<String> nodes = groupNodes.get(groupName);
+        if (nodes == null) {
+            return Collections.emptyList();
+        }
+        List<ClientHandler> destinations = new ArrayList<>(nodes.size());
+        for (String node : nodes) {
+            PeerLink link = links.get(node);
+            if (link != null) {
+                destinations.add(link.destination("#" + groupName));
+            }
+        }
+        return destinations;
+    }
+
+    // --- Recebimento (uma thread por conexão vinda de outro nó) ---
+
+    private void acceptLoop(ServerSocket server) {
+        while (true) {
+            try {
+                Socket socket = server.accept();
+                daemon("chat-cluster-in", () -> receive(socket));
+            } catch (IOException e) {
+                ServerLog.error("[ERRO] Falha ao aceitar conexão de nó: " + e.getMessage());
+            }
+        }
+    }
+
+    private void receive(Socket socket) {
+        String peer = null;
+        Map<Long, IncomingFile> files = new HashMap<>();
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), FileRelay.CHUNK_SIZE));
+            byte[] type = new byte[1];
+            ByteBuffer payload = Protocol.readFrame(in, type, MAX_PAYLOAD);
+            if (payload == null || type[0] != HELLO) {
+                return;
+            }
+            String name = Protocol.readField(payload);
+            if (!TransferServer.tokenMatches(secret, Protocol.readRest(payload))) {
+                ServerLog.error("[ERRO] Conexão de nó recusada (segredo inválido) de " + s.getRemoteSocketAddress());
+                return;
+            }
+            if (!links.containsKey(name)) {
+                ServerLog.error("[ERRO] Conexão de nó desconhecido: " + name);
+                return;
+            }
+            peer = name;
+            // O estado completo do nó vem em seguida: descarta o anterior
+            inbound.put(peer, s);
+            forgetNode(peer);
+            while ((payload = Protocol.readFrame(in, type, MAX_PAYLOAD)) != null) {
+                handle(peer, type[0], payload, files);
+            }
+        } catch (IOException e) {
+            // Nó caiu ou conexão perdida
+        } finally {
+            for (IncomingFile file : files.values()) {
+                file.relay.abort(file.remaining);
+            }
+            if (peer != null && inbound.remove(peer, socket)) {
+                forgetNode(peer);
+                ServerLog.info("[CLUSTER] Nó " + peer + " desconectado; seus usuários e grupos foram removidos do diretório");
+            }
+        }
+    }
+
+    private void handle(String peer, byte type, ByteBuffer payload, Map<Long, IncomingFile> files) throws IOException {
+        switch (type) {
+            case USER_UP: {
+                String username = Protocol.readRest(payload);
+                if (ChatServer.hasLocalClient(username)) {
+                    ServerLog.info("[CLUSTER] Usuário '" + username + "' conectado também no nó " + peer);
+                }
+                users.put(username, peer);
+                // Mensagens guardadas aqui enquanto estava offline seguem para o nó dele
+                ChatServer.deliverPending(links.get(peer).destination("@" + username));
+                break;
+            }
+            case USER_DOWN: {
+                String username = Protocol.readRest(payload);
+                users.remove(username, peer);
+                links.get(peer).forget("@" + username);
+                break;
+            }
+            case GROUP_JOIN:
+                groupNodes.computeIfAbsent(Protocol.readRest(payload), g -> ConcurrentHashMap.newKeySet()).add(peer);
+                break;
+            case GROUP_LEAVE: {
+                String groupName = Protocol.readRest(payload);
+                leaveGroup(groupName, peer);
+                links.get(peer).forget("#" + groupName);
+                break;
+            }
+            case DELIVER: {
+                String destination = Protocol.readField(payload);
+                ChatServer.deliverFromCluster(destination, Protocol.readRest(payload));
+                break;
+            }
+            case FILE_BEGIN: {
+                long id = Protocol.readLong(payload);
+                String destination = Protocol.readField(payload);
+                String sender = Protocol.readField(payload);
+                String filename = Protocol.readField(payload);
+                long size = Protocol.readLong(payload);
+                FileRelay relay = ChatServer.openClusterFileRelay(destination, sender, filename, size);
+                files.put(id, new IncomingFile(relay, size));
+                break;
+            }
+            case FILE_DATA: {
+                IncomingFile file = files.get(Protocol.readLong(payload));
+                if (file != null) {
+                    int length = payload.remaining();
+                    file.relay.write(payload.array(), payload.position(), length);
+                    file.remaining -= length;
+                }
+                break;
+            }
+            case FILE_END: {
+                IncomingFile file = files.remove(Protocol.readLong(payload));
+                if (file != null) {
+                    fileDelivery.execute(file.relay::finish);
+                }
+                break;
+            }
+            case FILE_ABORT: {
+                IncomingFile file = files.remove(Protocol.readLong(payload));
+                if (file != null) {
+                    file.relay.abort(file.remaining);
+                }
+                break;
+            }
+            default:
+                // Tipos desconhecidos são ignorados (nós de versões futuras)
+        }
+    }
+
+    private void leaveGroup(String groupName, String peer) {
+        groupNodes.computeIfPresent(groupName, (g, nodes) -> {
+            nodes.remove(peer);
+            return nodes.isEmpty() ? null : nodes;
+        });
+    }
+
+    // Esquece tudo o que um nó anunciou
+    private void forgetNode(String peer) {
+        users.values().removeIf(peer::equals);
+        for (String groupName : new ArrayList<>(groupNodes.keySet())) {
+            leaveGroup(groupName, peer);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Interpretação das linhas do protocolo de texto direto dos bytes UTF-8
+ * recebidos, sem split, substring nem String intermediária. O comando é
+ * escolhido por uma tabela indexada pelo primeiro byte ('@', '#', '/'); os
+ * comandos com barra ficam em uma tabela hash pela palavra, então novos
+ * comandos (register) não deixam os demais mais lentos.
+ *
+ * Cada comando recebe a linha e o trecho dela que lhe interessa; nomes de
+ * usuários e grupos são procurados sem cópia (NameKey).
+ */
+final class Commands {
+
+    /** Ação de um comando sobre line[start, end) (sem o '\n' nem um '\r' final). */
+    interface Command {
+        void run(ClientHandler client, byte[] line, int start, int end) throws IOException;
+    }
+
+    private static final Command[] BY_FIRST_BYTE = new Command[128];
+    // Comandos com barra: endereçamento aberto pelo hash da palavra (tamanho em potência de 2)
+    private static final byte[][] slashNames = new byte[32][];
+    private static final Command[] slashCommands = new Command[slashNames.length];
+    // Comandos que aceitam a palavra sozinha, sem argumentos
+    private static final boolean[] slashBare = new boolean[slashNames.length];
+
+    static {
+        // @usuario:mensagem
+        BY_FIRST_BYTE['@'] = (client, line, start, end) -> {
+            int colon = indexOf(line, start + 1, end, ':');
+            if (colon >= 0 && client.admit(end - start)) {
+                client.sendPrivate(line, start + 1, colon, colon + 1, end);
+            }
+        };
+        // #grupo:mensagem
+        BY_FIRST_BYTE['#'] = (client, line, start, end) -> {
+            int colon = indexOf(line, start + 1, end, ':');
+            if (colon >= 0 && client.admit(end - start)) {
+                client.sendGroup(line, start + 1, colon, colon + 1, end);
+            }
+        };
+        BY_FIRST_BYTE['/'] = Commands::slash;
+
+        // Os argumentos vêm depois do espaço que segue a palavra
+        register("creategroup", (client, line, start, end) -> {
+            if (client.admit(end - start)) {
+                ChatServer.createGroup(NameKey.decode(line, trimStart(line, start, end), trimEnd(line, start, end)),
+                        client);
+            }
+        });
+        register("joingroup", (client, line, start, end) -> {
+            if (client.admit(end - start)) {
+                client.joinGroup(line, trimStart(line, start, end), trimEnd(line, start, end));
+            }
+        });
+        // /sendfile <dest> <filename> <filesize>: o conteúdo do arquivo vem em seguida
+        register("sendfile", (client, line, start, end) -> {
+            int destEnd = indexOf(line, start, end, ' ');
+            int nameEnd = destEnd < 0 ? -1 : indexOf(line, destEnd + 1, end, ' ');
+            if (nameEnd < 0) {
+                client.startFile(null, null, -1);
+                return;
+            }
+            client.startFile(NameKey.decode(line, start, destEnd), NameKey.decode(line, destEnd + 1, nameEnd),
+                    parseSize(line, trimStart(line, nameEnd + 1, end), trimEnd(line, nameEnd + 1, end)));
+        });
+        // /heartbeat: cliente de texto que sabe responder ao /ping
+        registerBare("heartbeat", (client, line, start, end) -> client.requestHeartbeat());
+    }
+
+    private Commands() {
+    }
+
+    /** Interpreta uma linha recebida de um cliente já identificado. */
+    static void dispatch(ClientHandler client, byte[] line, int start, int end) throws IOException {
+        if (end > start && line[end - 1] == '\r') {
+            end--;
+        }
+        if (start == end) {
+            return;
+        }
+        int first = line[start];
+        Command command = first >= 0 ? BY_FIRST_BYTE[first] : null;
+        if (command != null) {
+            command.run(client, line, start, end);
+        }
+    }
+
+    // /palavra argumentos: a palavra é procurada na tabela sem virar String
+    private static void slash(ClientHandler client, byte[] line, int start, int end) throws IOException {
+        int space = indexOf(line, start + 1, end, ' ');
+        int wordEnd = space < 0 ? end : space;
+        int mask = slashNames.length - 1;
+        for (int i = hash(line, start + 1, wordEnd) & mask; slashNames[i] != null; i = (i + 1) & mask) {
+            byte[] name = slashNames[i];
+            if (Arrays.equals(name, 0, name.length, line, start + 1, wordEnd)) {
+                // Sem argumentos, só os comandos que não precisam deles
+                if (space >= 0 || slashBare[i]) {
+                    slashCommands[i].run(client, line, space < 0 ? end : space + 1, end);
+                }
+                return;
+            }
+        }
+    }
+
+    // Acrescenta um comando com barra (a tabela fica no máximo meio cheia)
+    private static void register(String name, Command command) {
+        slashBare[add(name, command)] = false;
+    }
+
+    // Acrescenta um comando com barra que também aceita a palavra sozinha
+    private static void registerBare(String name, Command command) {
+        slashBare[add(name, command)] = true;
+    }
+
+    private static int add(String name, Command command) {
+        byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        int mask = slashNames.length - 1;
+        int i = hash(bytes, 0, bytes.length) & mask;
+        while (slashNames[i] != null) {
+            i = (i + 1) & mask;
+        }
+        slashNames[i] = bytes;
+        slashCommands[i] = command;
+        return i;
+    }
+
+    private static int hash(byte[] bytes, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + bytes[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    static int indexOf(byte[] bytes, int start, int end, char c) {
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Limites do trecho sem espaços nas pontas (como String.trim)
+    private static int trimStart(byte[] bytes, int start, int end) {
+        while (start < end && (bytes[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(byte[] bytes, int start, int end) {
+        while (end > start && (bytes[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    // Tamanho em decimal; -1 se vazio, inválido ou grande demais para um long
+    private static long parseSize(byte[] bytes, int start, int end) {
+        if (start == end) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
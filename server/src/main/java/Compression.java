@@ -0,0 +1,99 @@
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressão Deflate (java.util.zip) para lotes de mensagens e blocos de
+ * arquivos. Dados que não diminuem pelo menos 1/8 são enviados sem
+ * compressão; em blocos grandes uma amostra do início decide antes de
+ * comprimir o bloco inteiro (arquivos já comprimidos, mídia).
+ *
+ * Deflaters e Inflaters ficam em um pool pequeno e não por thread: no modo
+ * virtual cada cliente tem a sua thread, e cada Deflater ocupa centenas de
+ * KB de memória nativa.
+ *
+ * Propriedades (no cliente e no servidor):
+ * - chat.compress: true (padrão) ou false
+ * - chat.compressMin: menor lote de mensagens comprimido, em bytes (padrão 512)
+ * - chat.compressLevel: nível do Deflate, 1 a 9 (padrão 1, o mais rápido)
+ */
+final class Compression {
+
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("chat.compress", "true"));
+    static final int MIN_SIZE = Integer.getInteger("chat.compressMin", 512);
+    static final int LEVEL = Integer.getInteger("chat.compressLevel", Deflater.BEST_SPEED);
+    // Tamanho da amostra testada antes de comprimir um bloco grande
+    private static final int SAMPLE = 16 * 1024;
+
+    private static final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private static final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+
+    private Compression() {
+    }
+
+    /**
+     * Comprime input[offset, offset + length) em output. Retorna o tamanho
+     * comprimido, ou -1 se não compensar (output deve ter ao menos length bytes).
+     */
+    static int deflate(byte[] input, int offset, int length, byte[] output) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(LEVEL);
+        }
+        try {
+            if (length >= 4 * SAMPLE && deflate(deflater, input, offset, SAMPLE, output) < 0) {
+                return -1;
+            }
+            return deflate(deflater, input, offset, length, output);
+        } finally {
+            deflaters.offer(deflater);
+        }
+    }
+
+    // Para assim que a saída passar de 7/8 da entrada
+    private static int deflate(Deflater deflater, byte[] input, int offset, int length, byte[] output) {
+        deflater.reset();
+        deflater.setInput(input, offset, length);
+        deflater.finish();
+        int limit = length - length / 8;
+        int written = 0;
+        while (!deflater.finished() && written < limit) {
+            written += deflater.deflate(output, written, limit - written);
+        }
+        return deflater.finished() ? written : -1;
+    }
+
+    /**
+     * Descomprime input[offset, offset + length) em output[0, expected). Falha
+     * se o conteúdo for inválido ou não tiver exatamente expected bytes.
+     */
+    static void inflate(byte[] input, int offset, int length, byte[] output, int expected) throws IOException {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        try {
+            inflater.reset();
+            inflater.setInput(input, offset, length);
+            int read = 0;
+            byte[] extra = new byte[1];
+            while (!inflater.finished() && read <= expected) {
+                // Com a saída cheia, um byte a mais só cabe se o conteúdo for maior que o esperado
+                int n = read < expected ? inflater.inflate(output, read, expected - read) : inflater.inflate(extra);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != expected || !inflater.finished()) {
+                throw new IOException("Conteúdo comprimido inválido");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Conteúdo comprimido inválido: " + e.getMessage());
+        } finally {
+            inflaters.offer(inflater);
+        }
+    }
+}
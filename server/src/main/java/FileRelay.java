@@ -0,0 +1,190 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Repasse de um arquivo em blocos de tamanho fixo, do remetente para um ou
+ * mais destinatários, sem nunca manter o arquivo inteiro em memória.
+ * O remetente empurra os blocos à medida que chegam do seu socket.
+ *
+ * Com um único destinatário no modo nio (ou em outro nó) cada bloco é
+ * enfileirado imediatamente. Para vários destinatários, ou um destinatário do
+ * modo bloqueante, o arquivo é recebido uma vez e depois entregue: em um único
+ * buffer compartilhado se for pequeno, ou gravado em disco e enviado com cópia
+ * zero se passar de SPOOL_THRESHOLD. Assim nenhum lock de escrita de um
+ * destinatário fica preso enquanto se lê o socket do remetente.
+ */
+class FileRelay {
+
+    // Tamanho dos blocos lidos do remetente
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    // Bloco de zeros usado para completar transferências interrompidas
+    static final byte[] ZEROS = new byte[CHUNK_SIZE];
+
+    // Limite entre entrega em memória e entrega a partir do disco (em bytes);
+    // o arquivo inteiro fica em um array, então o limite não passa de 64 MB
+    static final long SPOOL_THRESHOLD =
+            Math.min(Long.getLong("chat.spoolThreshold", 1024 * 1024), 64 * 1024 * 1024);
+
+    /** Destino de um arquivo em repasse: a saída de um destinatário. */
+    interface Target {
+        // Escreve um bloco; retorna false se o destinatário desconectou
+        boolean write(byte[] data, int offset, int length);
+
+        // Conclui o envio do arquivo e libera a saída do destinatário
+        void finish();
+
+        // Completa os bytes restantes com zeros, conclui o envio e avisa o destinatário
+        void abort(long remaining, String notice);
+
+        // Verdadeiro se o destinatário acumulou blocos demais ainda não enviados
+        boolean isCongested();
+
+        // Executa o callback quando o destinatário deixar de estar congestionado
+        void whenDrained(Runnable callback);
+    }
+
+    private final String sender;
+    private final String filename;
+    // Repasse direto: um destino aberto por destinatário
+    private final List<Target> targets = new ArrayList<>();
+    // Entrega após o recebimento completo: destinatários e onde o arquivo está
+    private final List<ClientHandler> deferred = new ArrayList<>();
+    private byte[] buffer;
+    private int buffered;
+    private FileSpool spool;
+
+    FileRelay(String sender, String filename, long filesize, List<ClientHandler> recipients) {
+        this(sender, filename, filesize, recipients, false);
+    }
+
+    /**
+     * Com wholeFile, mesmo um único destinatário só recebe o arquivo depois que
+     * ele chegou por completo (arquivos vindos de outro nó do cluster).
+     */
+    FileRelay(String sender, String filename, long filesize, List<ClientHandler> recipients, boolean wholeFile) {
+        this.sender = sender;
+        this.filename = filename;
+        // Entrega sempre na mesma ordem global de destinatários
+        List<ClientHandler> ordered = new ArrayList<>(recipients);
+        ordered.sort(Comparator.comparingLong(ClientHandler::getId));
+        if (ordered.size() > 1 || !ordered.isEmpty() && (wholeFile || !ordered.get(0).relaysWhileReceiving())) {
+            if (filesize <= SPOOL_THRESHOLD) {
+                buffer = new byte[(int) filesize];
+                deferred.addAll(ordered);
+                return;
+            }
+            try {
+                spool = new FileSpool();
+                deferred.addAll(ordered);
+                return;
+            } catch (IOException e) {
+                // Sem disco temporário: repasse direto só para quem não trava a saída
+                ServerLog.error("[ERRO] Falha ao criar arquivo temporário: " + e.getMessage());
+            }
+        }
+        for (ClientHandler recipient : ordered) {
+            if (recipient.relaysWhileReceiving()) {
+                targets.add(recipient.openFile(sender, filename, filesize));
+            } else {
+                recipient.sendMessage("[ERRO] Arquivo '" + filename + "' de " + sender + " não pôde ser entregue.");
+            }
+        }
+    }
+
+    // Repassa um bloco a todos os destinatários ainda conectados
+    void write(byte[] data, int offset, int length) {
+        if (buffer != null) {
+            System.arraycopy(data, offset, buffer, buffered, length);
+            buffered += length;
+            return;
+        }
+        if (spool != null) {
+            try {
+                spool.write(data, offset, length);
+            } catch (IOException e) {
+                // O restante do arquivo é descartado e ninguém o recebe
+                ServerLog.error("[ERRO] Falha ao gravar '" + filename + "' em disco: " + e.getMessage());
+                spool.release();
+                spool = null;
+                deferred.clear();
+            }
+            return;
+        }
+        Iterator<Target> it = targets.iterator();
+        while (it.hasNext()) {
+            Target target = it.next();
+            if (!target.write(data, offset, length)) {
+                it.remove();
+            }
+        }
+    }
+
+    void finish() {
+        for (Target target : targets) {
+            target.finish();
+        }
+        // Todos os destinatários compartilham o mesmo buffer ou arquivo em disco
+        long start = System.nanoTime();
+        for (ClientHandler recipient : deferred) {
+            if (buffer != null) {
+                recipient.sendFile(sender, filename, buffer);
+            } else {
+                spool.retain();
+                recipient.sendSpooledFile(sender, filename, spool);
+            }
+        }
+        if (spool != null) {
+            spool.release();
+        }
+        if (deferred.size() > 1) {
+            Metrics.fileFanout.record(System.nanoTime() - start);
+        }
+        ServerLog.info("[ARQUIVO] '" + filename + "' de " + sender + " repassado para "
+                + (targets.size() + deferred.size()) + " destinatário(s)");
+    }
+
+    /**
+     * O remetente caiu no meio da transferência: completa o tamanho anunciado
+     * com zeros para manter o fluxo dos destinatários sincronizado e os avisa
+     * de que o arquivo recebido está incompleto.
+     */
+    void abort(long remaining) {
+        // Na entrega diferida os destinatários ainda não viram nada: só descarta
+        if (spool != null) {
+            spool.release();
+        }
+        String notice = "[ERRO] Transferência de '" + filename + "' de " + sender + " interrompida; arquivo incompleto.";
+        for (Target target : targets) {
+            target.abort(remaining, notice);
+        }
+        ServerLog.info("[ARQUIVO] Transferência de '" + filename + "' de " + sender + " interrompida.");
+    }
+
+    boolean isCongested() {
+        for (Target target : targets) {
+            if (target.isCongested()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // O callback pode rodar mais de uma vez (uma por destinatário congestionado)
+    void whenDrained(Runnable callback) {
+        boolean waiting = false;
+        for (Target target : targets) {
+            if (target.isCongested()) {
+                target.whenDrained(callback);
+                waiting = true;
+            }
+        }
+        if (!waiting) {
+            // Todos drenaram entre a verificação e o registro
+            callback.run();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cópia em disco de um arquivo enviado a um grupo grande. O arquivo é gravado
+ * uma única vez e cada membro o recebe com FileChannel.transferTo, que usa
+ * cópia zero (sendfile) em vez de passar o conteúdo pelo heap a cada envio.
+ * O arquivo temporário é apagado quando o último membro termina de recebê-lo.
+ */
+class FileSpool {
+
+    private final FileChannel channel;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private long size;
+
+    FileSpool() throws IOException {
+        Path path = Files.createTempFile("chat-spool", ".tmp");
+        this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    // Arquivo já completo em disco (transferência em blocos), só para leitura; não é apagado no fim
+    FileSpool(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+    }
+
+    // Grava mais um bloco recebido do remetente
+    void write(byte[] data, int offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+        while (buffer.hasRemaining()) {
+            size += channel.write(buffer, size);
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * Transfere a partir de position o quanto o destino aceitar. Em canais não
+     * bloqueantes pode transferir menos que o restante (ou nada).
+     */
+    long transferTo(long position, WritableByteChannel target) throws IOException {
+        return channel.transferTo(position, size - position, target);
+    }
+
+    // Lê a partir de position até encher o buffer ou chegar ao fim; retorna os bytes lidos
+    int read(ByteBuffer target, long position) throws IOException {
+        int start = target.position();
+        while (target.hasRemaining() && position < size) {
+            int read = channel.read(target, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+        return target.position() - start;
+    }
+
+    // Transfere o arquivo inteiro para um canal bloqueante
+    void transferAllTo(WritableByteChannel target) throws IOException {
+        long position = 0;
+        while (position < size) {
+            position += transferTo(position, target);
+        }
+    }
+
+    // Cada destinatário que recebe o arquivo mantém uma referência
+    void retain() {
+        references.incrementAndGet();
+    }
+
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                ServerLog.error("[ERRO] Falha ao apagar arquivo temporário: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,498 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+/**
+ * Lado do cliente das transferências em blocos (TransferServer): envia e
+ * busca arquivos por conexões de dados próprias, sem ocupar a conexão do chat.
+ *
+ * Cada bloco leva o seu CRC32C; blocos corrompidos são enviados de novo. Se
+ * a conexão cair, a próxima tentativa (ou um novo /sendfile do mesmo
+ * arquivo, mesmo depois de reiniciar o cliente) continua dos blocos que o
+ * outro lado já confirmou. Arquivos grandes usam várias conexões em
+ * paralelo, cada uma com um trecho contíguo dos blocos que faltam.
+ *
+ * Com servidores da versão 3 os blocos que comprimem bem vão comprimidos
+ * (Deflate), nos dois sentidos; os demais vão como estão.
+ *
+ * Propriedades:
+ * - chat.transferStreams: conexões paralelas para arquivos grandes (padrão 4)
+ * - chat.parallelThreshold: tamanho a partir do qual usa mais de uma (padrão 64 MB)
+ */
+final class FileTransfer {
+
+    static final int STREAMS = Integer.getInteger("chat.transferStreams", 4);
+    static final long PARALLEL_THRESHOLD = Long.getLong("chat.parallelThreshold", 64L * 1024 * 1024);
+    // Blocos enviados sem confirmação em cada conexão
+    private static final int WINDOW = 16;
+    // Tentativas de uma transferência antes de desistir (cada uma retoma da anterior)
+    private static final int ATTEMPTS = 3;
+    // Vezes que um mesmo bloco pode chegar corrompido
+    private static final int CHUNK_RETRIES = 5;
+
+    /** Arquivo oferecido pelo servidor (TRANSFER_OFFER). */
+    static final class Offer {
+        final String id;
+        final String sender;
+        final String filename;
+        final long size;
+        final int chunkSize;
+
+        private Offer(String id, String sender, String filename, long size, int chunkSize) {
+            this.id = id;
+            this.sender = sender;
+            this.filename = filename;
+            this.size = size;
+            this.chunkSize = chunkSize;
+        }
+
+        static Offer decode(ByteBuffer payload) throws IOException {
+            return new Offer(Protocol.readField(payload), Protocol.readField(payload), Protocol.readField(payload),
+                    Protocol.readLong(payload), Protocol.readInt(payload));
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final String user;
+    private final String token;
+    private final int streams;
+    // Servidor aceita blocos comprimidos (versão 3) e chat.compress não está desligado
+    private final boolean compress;
+
+    FileTransfer(String host, int port, String user, String token, int streams, boolean compress) {
+        this.host = host;
+        this.port = port;
+        this.user = user;
+        this.token = token;
+        this.streams = Math.max(1, streams);
+        this.compress = compress && Compression.ENABLED;
+    }
+
+    /**
+     * Tamanho dos blocos: 1 MB, dobrando até o arquivo caber no máximo de
+     * blocos do servidor (o bitmap de blocos recebidos cabe em um quadro).
+     */
+    static int chunkSize(long size) {
+        int chunkSize = 1024 * 1024;
+        while ((size + chunkSize - 1) / chunkSize > TransferServer.MAX_CHUNKS
+                && chunkSize < TransferServer.MAX_CHUNK_SIZE) {
+            chunkSize *= 2;
+        }
+        return chunkSize;
+    }
+
+    // --- Envio ---
+
+    /**
+     * Envia o arquivo a dest (@usuario ou #grupo) e retorna quando o servidor
+     * confirmou todos os blocos.
+     */
+    void upload(String dest, Path file) throws IOException {
+        long size = Files.size(file);
+        int chunkSize = chunkSize(size);
+        // Mesmo arquivo (caminho, tamanho e data) para o mesmo destino: mesma transferência no servidor
+        String key = UUID.nameUUIDFromBytes((dest + '\0' + file.toAbsolutePath() + '\0' + size + '\0'
+                + Files.getLastModifiedTime(file).toMillis()).getBytes(StandardCharsets.UTF_8)).toString();
+        ByteBuffer frame = Protocol.fields(Protocol.DATA_UPLOAD, 12, key, dest, file.getFileName().toString());
+        byte[] request = frame.putLong(size).putInt(chunkSize).array();
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            retrying(() -> uploadOnce(source, request, size, chunkSize));
+        }
+    }
+
+    private void uploadOnce(FileChannel source, byte[] request, long size, int chunkSize) throws IOException {
+        List<DataConnection> connections = new ArrayList<>();
+        try {
+            DataConnection first = new DataConnection(request);
+            connections.add(first);
+            int[] missing = first.missingChunks(size, chunkSize);
+            int count = parallelism(size, missing.length);
+            for (int i = 1; i < count; i++) {
+                connections.add(new DataConnection(request));
+            }
+            inParallel(count, stream -> {
+                int from = missing.length * stream / count;
+                int to = missing.length * (stream + 1) / count;
+                connections.get(stream).sendChunks(source, missing, from, to, size, chunkSize);
+            });
+        } finally {
+            closeAll(connections);
+        }
+    }
+
+    // --- Recebimento ---
+
+    /**
+     * Busca um arquivo oferecido e o salva em dir. Os blocos são gravados em
+     * um arquivo .part na sua posição; o diário .part.chunks guarda os já
+     * gravados, para continuar de onde parou se o download for interrompido.
+     */
+    Path download(Offer offer, Path dir) throws IOException {
+        Files.createDirectories(dir);
+        String name = "recebido_de_" + offer.sender + "_" + Path.of(offer.filename).getFileName();
+        Path target = dir.resolve(name);
+        Path part = dir.resolve(name + ".part");
+        Path journalPath = dir.resolve(name + ".part.chunks");
+        byte[] request = Protocol.fields(Protocol.DATA_DOWNLOAD, 1, offer.id).put((byte) (compress ? 1 : 0)).array();
+        try (FileChannel data = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileChannel journal = FileChannel.open(journalPath, StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            retrying(() -> downloadOnce(offer, request, data, journal));
+        }
+        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(journalPath);
+        return target;
+    }
+
+    private void downloadOnce(Offer offer, byte[] request, FileChannel data, FileChannel journal) throws IOException {
+        int chunkCount = (int) ((offer.size + offer.chunkSize - 1) / offer.chunkSize);
+        BitSet written = readJournal(journal, chunkCount);
+        int[] missing = new int[chunkCount - written.cardinality()];
+        for (int index = written.nextClearBit(0), i = 0; i < missing.length; index = written.nextClearBit(index + 1)) {
+            missing[i++] = index;
+        }
+        List<DataConnection> connections = new ArrayList<>();
+        try {
+            DataConnection first = new DataConnection(request);
+            connections.add(first);
+            int count = parallelism(offer.size, missing.length);
+            for (int i = 1; i < count; i++) {
+                connections.add(new DataConnection(request));
+            }
+            inParallel(count, stream -> {
+                int from = missing.length * stream / count;
+                int to = missing.length * (stream + 1) / count;
+                connections.get(stream).receiveChunks(data, journal, missing, from, to, offer);
+            });
+            data.force(false);
+            first.out.write(Protocol.header(Protocol.DATA_DONE, 0).array());
+            first.out.flush();
+        } finally {
+            closeAll(connections);
+        }
+    }
+
+    // Blocos já gravados em um download anterior (entradas de 4 bytes com o índice)
+    private static BitSet readJournal(FileChannel journal, int chunkCount) throws IOException {
+        long length = journal.size() - journal.size() % 4;
+        ByteBuffer entries = ByteBuffer.allocate((int) Math.min(length, 4L * chunkCount));
+        while (entries.hasRemaining() && journal.read(entries, entries.position()) > 0) {
+            // lê até encher
+        }
+        entries.flip();
+        BitSet written = new BitSet(chunkCount);
+        while (entries.remaining() >= 4) {
+            int index = entries.getInt();
+            if (index >= 0 && index < chunkCount) {
+                written.set(index);
+            }
+        }
+        journal.truncate(length);
+        journal.position(length);
+        return written;
+    }
+
+    // --- Conexões de dados ---
+
+    /** Uma conexão com a porta de transferências, já identificada (ATTACH) e com o STATUS lido. */
+    private final class DataConnection implements Closeable {
+        final Socket socket;
+        final DataInputStream in;
+        final OutputStream out;
+        final ByteBuffer status;
+        final byte[] type = new byte[1];
+
+        DataConnection(byte[] request) throws IOException {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), FileRelay.CHUNK_SIZE));
+            out = new BufferedOutputStream(socket.getOutputStream(), FileRelay.CHUNK_SIZE);
+            out.write(Protocol.frame(Protocol.DATA_ATTACH, user, token));
+            out.write(request);
+            out.flush();
+            status = expect(Protocol.DATA_STATUS);
+        }
+
+        // Próximo quadro, que deve ser de um dos tipos esperados (DATA_ERROR vira exceção)
+        ByteBuffer expect(byte... expected) throws IOException {
+            ByteBuffer payload = Protocol.readFrame(in, type, ChatClient.MAX_SERVER_PAYLOAD);
+            if (payload == null) {
+                throw new EOFException("Conexão de dados encerrada pelo servidor");
+            }
+            if (type[0] == Protocol.DATA_ERROR) {
+                throw new IOException(Protocol.readRest(payload));
+            }
+            for (byte allowed : expected) {
+                if (type[0] == allowed) {
+                    return payload;
+                }
+            }
+            throw new IOException("Quadro inesperado na conexão de dados: " + type[0]);
+        }
+
+        // Blocos que o servidor ainda não tem, segundo o STATUS
+        int[] missingChunks(long size, int chunkSize) throws IOException {
+            Protocol.readField(status);
+            if (Protocol.readLong(status) != size || Protocol.readInt(status) != chunkSize) {
+                throw new IOException("O servidor tem outra transferência com esta chave");
+            }
+            byte[] bitmap = new byte[status.remaining()];
+            status.get(bitmap);
+            BitSet present = BitSet.valueOf(bitmap);
+            int chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+            int[] missing = new int[chunkCount - present.cardinality()];
+            for (int index = present.nextClearBit(0), i = 0; i < missing.length;
+                    index = present.nextClearBit(index + 1)) {
+                missing[i++] = index;
+            }
+            return missing;
+        }
+
+        /**
+         * Envia os blocos missing[from..to) com até WINDOW sem confirmação;
+         * os recusados por CRC voltam para a fila.
+         */
+        void sendChunks(FileChannel source, int[] missing, int from, int to, long size, int chunkSize)
+                throws IOException {
+            ArrayDeque<Integer> queue = new ArrayDeque<>(to - from);
+            for (int i = from; i < to; i++) {
+                queue.add(missing[i]);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+            byte[] compressed = compress ? new byte[chunkSize] : null;
+            CRC32C checksum = new CRC32C();
+            int outstanding = 0;
+            int failures = 0;
+            while (!queue.isEmpty() || outstanding > 0) {
+                if (!queue.isEmpty() && outstanding < WINDOW) {
+                    int index = queue.poll();
+                    int length = (int) Math.min(chunkSize, size - (long) index * chunkSize);
+                    buffer.clear().limit(length);
+                    long position = (long) index * chunkSize;
+                    while (buffer.hasRemaining()) {
+                        int read = source.read(buffer, position + buffer.position());
+                        if (read < 0) {
+                            throw new IOException("O arquivo diminuiu durante o envio");
+                        }
+                    }
+                    checksum.reset();
+                    checksum.update(buffer.array(), 0, length);
+                    int crc = (int) checksum.getValue();
+                    int compressedLength = compress ? Compression.deflate(buffer.array(), 0, length, compressed) : -1;
+                    if (compressedLength > 0) {
+                        out.write(Protocol.deflatedChunkHeader(index, length, crc, compressedLength));
+                        out.write(compressed, 0, compressedLength);
+                    } else {
+                        out.write(Protocol.chunkHeader(index, length, crc));
+                        out.write(buffer.array(), 0, length);
+                    }
+                    outstanding++;
+                    continue;
+                }
+                out.flush();
+                ByteBuffer ack = expect(Protocol.DATA_ACK);
+                int index = Protocol.readInt(ack);
+                outstanding--;
+                if (ack.get() == 0) {
+                    if (++failures > CHUNK_RETRIES) {
+                        throw new IOException("Bloco " + index + " corrompido repetidas vezes");
+                    }
+                    queue.add(index);
+                }
+            }
+            out.flush();
+        }
+
+        /**
+         * Pede os blocos missing[from..to) em trechos contíguos e grava cada um
+         * na sua posição. Blocos com CRC errado são pedidos de novo.
+         */
+        void receiveChunks(FileChannel data, FileChannel journal, int[] missing, int from, int to, Offer offer)
+                throws IOException {
+            byte[] buffer = new byte[offer.chunkSize];
+            byte[] compressed = null;
+            CRC32C checksum = new CRC32C();
+            int failures = 0;
+            while (from < to) {
+                int expected = requestRanges(missing, from, to);
+                List<Integer> corrupted = new ArrayList<>();
+                for (int i = 0; i < expected; i++) {
+                    ByteBuffer header = expect(Protocol.DATA_CHUNK, Protocol.DATA_CHUNK_DEFLATE);
+                    int index = Protocol.readInt(header);
+                    int length = Protocol.readInt(header);
+                    int crc = Protocol.readInt(header);
+                    int compressedLength = header.hasRemaining() ? Protocol.readInt(header) : 0;
+                    if (index < 0 || length < 0 || length > buffer.length || compressedLength < 0
+                            || compressedLength > length) {
+                        throw new IOException("Bloco inválido: " + index);
+                    }
+                    boolean valid = true;
+                    if (compressedLength > 0) {
+                        if (compressed == null) {
+                            compressed = new byte[offer.chunkSize];
+                        }
+                        in.readFully(compressed, 0, compressedLength);
+                        try {
+                            Compression.inflate(compressed, 0, compressedLength, buffer, length);
+                        } catch (IOException e) {
+                            valid = false;
+                        }
+                    } else {
+                        in.readFully(buffer, 0, length);
+                    }
+                    if (valid) {
+                        checksum.reset();
+                        checksum.update(buffer, 0, length);
+                        valid = (int) checksum.getValue() == crc;
+                    }
+                    if (!valid) {
+                        corrupted.add(index);
+                        continue;
+                    }
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, length);
+                    long position = (long) index * offer.chunkSize;
+                    while (chunk.hasRemaining()) {
+                        position += data.write(chunk, position);
+                    }
+                    ByteBuffer entry = ByteBuffer.allocate(4).putInt(index).flip();
+                    synchronized (journal) {
+                        while (entry.hasRemaining()) {
+                            journal.write(entry);
+                        }
+                    }
+                }
+                if (corrupted.isEmpty()) {
+                    return;
+                }
+                if ((failures += corrupted.size()) > CHUNK_RETRIES) {
+                    throw new IOException("Blocos corrompidos repetidas vezes");
+                }
+                missing = corrupted.stream().mapToInt(Integer::intValue).toArray();
+                from = 0;
+                to = missing.length;
+            }
+        }
+
+        // Um DATA_GET por trecho contíguo de missing[from..to); retorna quantos blocos virão
+        private int requestRanges(int[] missing, int from, int to) throws IOException {
+            int i = from;
+            while (i < to) {
+                int first = missing[i];
+                int count = 1;
+                while (i + count < to && missing[i + count] == first + count) {
+                    count++;
+                }
+                ByteBuffer get = Protocol.header(Protocol.DATA_GET, 8);
+                out.write(get.putInt(first).putInt(count).array());
+                i += count;
+            }
+            out.flush();
+            return to - from;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    // --- Auxiliares ---
+
+    private interface Attempt {
+        void run() throws IOException;
+    }
+
+    private interface StreamTask {
+        void run(int stream) throws IOException;
+    }
+
+    // Repete a transferência após falhas de rede; cada tentativa retoma da anterior
+    private static void retrying(Attempt attempt) throws IOException {
+        for (int i = 1; ; i++) {
+            try {
+                attempt.run();
+                return;
+            } catch (IOException e) {
+                if (i == ATTEMPTS) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(1000L * i);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    // Uma conexão, ou várias para arquivos grandes (nunca mais que os blocos que faltam)
+    private int parallelism(long size, int missingChunks) {
+        int count = size >= PARALLEL_THRESHOLD ? streams : 1;
+        return Math.max(1, Math.min(count, missingChunks));
+    }
+
+    // Roda task(0..count-1) em paralelo (a 0 na thread atual) e propaga a primeira falha
+    private static void inParallel(int count, StreamTask task) throws IOException {
+        IOException[] failures = new IOException[count];
+        Thread[] threads = new Thread[count];
+        for (int stream = 1; stream < count; stream++) {
+            int current = stream;
+            threads[stream] = new Thread(() -> {
+                try {
+                    task.run(current);
+                } catch (IOException e) {
+                    failures[current] = e;
+                }
+            }, "transfer-stream-" + stream);
+            threads[stream].start();
+        }
+        try {
+            task.run(0);
+        } catch (IOException e) {
+            failures[0] = e;
+        }
+        for (int stream = 1; stream < count; stream++) {
+            try {
+                threads[stream].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Transferência interrompida");
+            }
+        }
+        for (IOException failure : failures) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private static void closeAll(List<DataConnection> connections) {
+        for (DataConnection connection : connections) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // Já encerrada
+            }
+        }
+    }
+}
@@ -0,0 +1,279 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache das mensagens recentes de cada grupo, reenviadas a quem entra no
+ * grupo. Cada grupo tem um buffer circular das últimas mensagens; a memória
+ * total é limitada por um orçamento em bytes, e os grupos usados há mais
+ * tempo são descartados primeiro.
+ *
+ * Com o log de mensagens ativo o cache é só uma cópia: um grupo fora do
+ * cache é carregado do log na próxima entrada (falta) e mensagens de grupos
+ * fora do cache não são guardadas em memória. Sem o log, o cache é o único
+ * histórico.
+ *
+ * Configuração (propriedades do sistema):
+ * - chat.historySize: mensagens guardadas por grupo (padrão 50; 0 desativa)
+ * - chat.historyBytes: orçamento total aproximado em bytes (padrão 16 MB)
+ */
+final class GroupHistory {
+
+    static final int SIZE = Integer.getInteger("chat.historySize", 50);
+    static final long BUDGET_BYTES = Long.getLong("chat.historyBytes", 16L * 1024 * 1024);
+
+    // Custo aproximado de uma entrada além do texto (objetos e referências)
+    private static final int ENTRY_OVERHEAD = 64;
+
+    /** Buffer circular das últimas mensagens de um grupo. */
+    private static final class Ring {
+        private final String[] texts;
+        private final long[] offsets;
+        private int head;
+        private int size;
+        private long bytes;
+        // Retirado do cache: não contabiliza mais nada
+        private boolean detached;
+        // Falso enquanto as mensagens anteriores ainda estão sendo lidas do log
+        private volatile boolean loaded;
+        // Último acesso, para escolher o que descartar quando o orçamento estoura
+        private volatile long lastUsed;
+
+        Ring(int capacity, boolean loaded) {
+            texts = new String[capacity];
+            offsets = new long[capacity];
+            this.loaded = loaded;
+        }
+
+        // Adiciona uma mensagem (ignora offsets já vistos); retorna a variação em bytes
+        synchronized long add(long offset, String text) {
+            if (detached) {
+                return 0;
+            }
+            if (size > 0 && offset >= 0 && offset <= offsets[(head + size - 1) % texts.length]) {
+                return 0;
+            }
+            long delta = cost(text);
+            int slot;
+            if (size == texts.length) {
+                slot = head;
+                delta -= cost(texts[head]);
+                head = (head + 1) % texts.length;
+            } else {
+                slot = (head + size) % texts.length;
+                size++;
+            }
+            texts[slot] = text;
+            offsets[slot] = offset;
+            bytes += delta;
+            return delta;
+        }
+
+        /**
+         * Junta as mensagens lidas do log (da mais antiga para a mais nova):
+         * entram antes das que já estão no buffer as anteriores à mais antiga
+         * delas, até a capacidade. Retorna a variação em bytes.
+         */
+        synchronized long merge(List<MessageLog.Entry> entries) {
+            loaded = true;
+            if (detached) {
+                return 0;
+            }
+            long earliest = Long.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                long offset = offsets[(head + i) % texts.length];
+                if (offset >= 0 && offset < earliest) {
+                    earliest = offset;
+                }
+            }
+            int older = 0;
+            while (older < entries.size() && entries.get(older).offset < earliest) {
+                older++;
+            }
+            // As mensagens do buffer são mais novas: as lidas só ocupam o espaço livre
+            int count = Math.min(older, texts.length - size);
+            long delta = 0;
+            for (int i = older - 1; i >= older - count; i--) {
+                MessageLog.Entry entry = entries.get(i);
+                head = (head - 1 + texts.length) % texts.length;
+                texts[head] = entry.text;
+                offsets[head] = entry.offset;
+                delta += cost(entry.text);
+            }
+            size += count;
+            bytes += delta;
+            return delta;
+        }
+
+        synchronized List<String> snapshot() {
+            List<String> copy = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                copy.add(texts[(head + i) % texts.length]);
+            }
+            return copy;
+        }
+
+        // Retira do cache e devolve os bytes que ocupava
+        synchronized long detach() {
+            detached = true;
+            return bytes;
+        }
+
+        private static long cost(String text) {
+            return ENTRY_OVERHEAD + 2L * text.length();
+        }
+    }
+
+    private final MessageLog log;
+    private final int size;
+    private final long budget;
+    private final Map<String, Ring> rings = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    GroupHistory(MessageLog log) {
+        this(log, SIZE, BUDGET_BYTES);
+    }
+
+    GroupHistory(MessageLog log, int size, long budget) {
+        this.log = log;
+        this.size = size;
+        this.budget = budget;
+    }
+
+    /**
+     * Registra uma mensagem enviada ao grupo. offset é a posição da mensagem
+     * no log (ou -1 sem log).
+     */
+    void record(String group, long offset, String text) {
+        if (size <= 0) {
+            return;
+        }
+        Ring ring = rings.get(group);
+        if (ring == null) {
+            if (log != null) {
+                // Fica só no log; é carregada se alguém entrar no grupo
+                return;
+            }
+            ring = rings.computeIfAbsent(group, k -> new Ring(size, true));
+        }
+        ring.lastUsed = System.nanoTime();
+        charge(ring.add(offset, text));
+    }
+
+    /**
+     * Como recent, mas só com o que está em memória: null se o histórico
+     * precisa ser lido do log (recent, fora das threads dos clientes).
+     */
+    List<String> cached(String group) {
+        if (size <= 0) {
+            return new ArrayList<>();
+        }
+        Ring ring = rings.get(group);
+        if (ring == null || !ring.loaded) {
+            if (log != null) {
+                return null;
+            }
+            misses.incrementAndGet();
+            return new ArrayList<>();
+        }
+        hits.incrementAndGet();
+        ring.lastUsed = System.nanoTime();
+        return ring.snapshot();
+    }
+
+    /**
+     * Mensagens recentes do grupo, da mais antiga para a mais nova, para
+     * reenviar a quem acabou de entrar. Pode ler o log.
+     */
+    List<String> recent(String group) {
+        if (size <= 0) {
+            return new ArrayList<>();
+        }
+        Ring ring = rings.get(group);
+        if (ring != null && ring.loaded) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            ring = load(group);
+            if (ring == null) {
+                return new ArrayList<>();
+            }
+        }
+        ring.lastUsed = System.nanoTime();
+        return ring.snapshot();
+    }
+
+    // Carrega do log as últimas mensagens do grupo
+    private Ring load(String group) {
+        if (log == null) {
+            return null;
+        }
+        // O buffer entra no cache antes da leitura, que é feita sem travas:
+        // mensagens novas continuam sendo acrescentadas a ele, e as lidas
+        // entram depois, antes delas (merge compara os offsets). Duas cargas
+        // ao mesmo tempo só repetem a leitura.
+        Ring ring = rings.computeIfAbsent(group, k -> new Ring(size, false));
+        List<MessageLog.Entry> entries;
+        try {
+            entries = log.readGroup(group, size);
+        } catch (IOException e) {
+            ServerLog.error("[ERRO] Falha ao ler o histórico do grupo '" + group + "': " + e.getMessage());
+            if (!ring.loaded && rings.remove(group, ring)) {
+                bytes.addAndGet(-ring.detach());
+            }
+            return null;
+        }
+        charge(ring.merge(entries));
+        return ring;
+    }
+
+    // Descarta o histórico em memória de um grupo removido
+    void forget(String group) {
+        Ring ring = rings.remove(group);
+        if (ring != null) {
+            bytes.addAndGet(-ring.detach());
+        }
+    }
+
+    // Contabiliza bytes e, acima do orçamento, descarta os grupos menos usados
+    private void charge(long delta) {
+        if (bytes.addAndGet(delta) <= budget) {
+            return;
+        }
+        synchronized (this) {
+            // Desce até 90% do orçamento para não repetir a varredura a cada mensagem
+            long target = budget - budget / 10;
+            while (bytes.get() > target && !rings.isEmpty()) {
+                String oldest = null;
+                long oldestUse = Long.MAX_VALUE;
+                for (Map.Entry<String, Ring> entry : rings.entrySet()) {
+                    if (entry.getValue().lastUsed < oldestUse) {
+                        oldestUse = entry.getValue().lastUsed;
+                        oldest = entry.getKey();
+                    }
+                }
+                forget(oldest);
+            }
+        }
+    }
+
+    // Entradas atendidas pelo cache
+    long hits() {
+        return hits.get();
+    }
+
+    // Entradas que precisaram ler o log (ou não tinham histórico)
+    long misses() {
+        return misses.get();
+    }
+
+    // Bytes aproximados ocupados pelo cache
+    long bytes() {
+        return bytes.get();
+    }
+}
@@ -0,0 +1,155 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registro de grupos otimizado para leitura: o envio para um grupo é muito
+ * mais frequente que entradas e saídas de membros.
+ *
+ * - Cada grupo guarda os membros em um array copiado a cada alteração (copy
+ *   on write): o envio percorre o array atual sem lock e sem alocar.
+ * - A verificação de participação usa um conjunto por grupo (O(1)).
+ * - Um índice reverso (usuário -> grupos) faz a desconexão custar só o número
+ *   de grupos do próprio usuário, e não o total de grupos do servidor.
+ */
+final class GroupRegistry {
+
+    /** Resultado de join(). */
+    enum JoinResult {
+        JOINED, ALREADY_MEMBER, NOT_FOUND
+    }
+
+    private static final ClientHandler[] NO_MEMBERS = new ClientHandler[0];
+
+    /** Um grupo e seus membros. */
+    static final class Group {
+        private final String name;
+        private final Set<ClientHandler> index = ConcurrentHashMap.newKeySet();
+        // Substituído (nunca alterado) a cada entrada ou saída
+        private volatile ClientHandler[] members = NO_MEMBERS;
+        // Grupo esvaziado e retirado do registro: não aceita novos membros
+        private boolean removed;
+        // Limites de envio do grupo, somando todos os membros (Admission); null se desligados
+        private final Admission.Limits limits = Admission.groupLimits();
+
+        private Group(String name) {
+            this.name = name;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        boolean contains(ClientHandler member) {
+            return index.contains(member);
+        }
+
+        /**
+         * Membros no momento da chamada. O array é compartilhado e não deve ser
+         * alterado; entradas e saídas posteriores não o afetam.
+         */
+        ClientHandler[] members() {
+            return members;
+        }
+
+        int size() {
+            return members.length;
+        }
+
+        // Uma mensagem de length bytes (UTF-8) cabe no limite de envio do grupo
+        boolean admit(int length) {
+            return limits == null || limits.tryAcquire(length);
+        }
+
+        private synchronized JoinResult add(ClientHandler member) {
+            if (removed) {
+                return JoinResult.NOT_FOUND;
+            }
+            if (!index.add(member)) {
+                return JoinResult.ALREADY_MEMBER;
+            }
+            ClientHandler[] current = members;
+            ClientHandler[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = member;
+            members = updated;
+            return JoinResult.JOINED;
+        }
+
+        // Remove o membro; retorna true se o grupo ficou vazio (e foi desativado)
+        private synchronized boolean remove(ClientHandler member) {
+            if (!index.remove(member)) {
+                return false;
+            }
+            ClientHandler[] current = members;
+            ClientHandler[] updated = new ClientHandler[current.length - 1];
+            int next = 0;
+            for (ClientHandler existing : current) {
+                if (existing != member) {
+                    updated[next++] = existing;
+                }
+            }
+            members = updated.length == 0 ? NO_MEMBERS : updated;
+            removed = updated.length == 0;
+            return removed;
+        }
+    }
+
+    private final Map<String, Group> groups = new ConcurrentHashMap<>();
+    // Índice reverso: grupos de cada usuário
+    private final Map<ClientHandler, Set<Group>> memberships = new ConcurrentHashMap<>();
+
+    Group get(String name) {
+        return groups.get(name);
+    }
+
+    // Busca por um nome que aponta para os bytes recebidos (NameKey)
+    Group get(NameKey name) {
+        return groups.get(name);
+    }
+
+    // Cria o grupo com o criador como primeiro membro; false se o nome já existe
+    boolean create(String name, ClientHandler creator) {
+        Group group = new Group(name);
+        if (groups.putIfAbsent(name, group) != null) {
+            return false;
+        }
+        group.add(creator);
+        memberships.computeIfAbsent(creator, k -> ConcurrentHashMap.newKeySet()).add(group);
+        return true;
+    }
+
+    JoinResult join(String name, ClientHandler member) {
+        Group group = groups.get(name);
+        if (group == null) {
+            return JoinResult.NOT_FOUND;
+        }
+        JoinResult result = group.add(member);
+        if (result == JoinResult.JOINED) {
+            memberships.computeIfAbsent(member, k -> ConcurrentHashMap.newKeySet()).add(group);
+        }
+        return result;
+    }
+
+    /**
+     * Retira o usuário de todos os seus grupos. Retorna os nomes dos grupos
+     * que ficaram vazios e foram removidos.
+     */
+    List<String> leaveAll(ClientHandler member) {
+        Set<Group> mine = memberships.remove(member);
+        if (mine == null) {
+            return Collections.emptyList();
+        }
+        List<String> emptied = new ArrayList<>(0);
+        for (Group group : mine) {
+            if (group.remove(member)) {
+                groups.remove(group.getName(), group);
+                emptied.add(group.getName());
+            }
+        }
+        return emptied;
+    }
+}
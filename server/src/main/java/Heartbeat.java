@@ -0,0 +1,202 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Prazos de todas as conexões do chat em um único timer (roda de tempo com
+ * hash): o prazo do login (Admission.HANDSHAKE_TIMEOUT_MILLIS) e, depois
+ * dele, o heartbeat. Um cliente sem enviar nada por INTERVAL recebe um ping
+ * (PING no protocolo binário, a linha "/ping" no de texto); se continuar
+ * calado até TIMEOUT, é desconectado e sai do servidor por removeClient.
+ *
+ * A leitura só marca a conexão como ativa (um volatile boolean, escrito uma
+ * vez por intervalo); quem lê o relógio e reagenda é a thread do timer, que
+ * visita cada conexão uma vez por intervalo. Não há uma tarefa agendada por
+ * cliente nem trabalho por mensagem. Uma conexão sem atividade recebe o ping
+ * depois de INTERVAL a 2 * INTERVAL e é desconectada depois de TIMEOUT a
+ * TIMEOUT + INTERVAL.
+ *
+ * Clientes binários anteriores à versão 4 não respondem ao ping e ficam
+ * fora do heartbeat (só o prazo do login vale para eles). Clientes de texto
+ * também, a não ser que peçam com a linha "/heartbeat" (em geral logo depois
+ * do nome): os antigos mostrariam o "/ping" e seriam desconectados.
+ *
+ * Propriedades:
+ * - chat.heartbeatIntervalMs: silêncio do cliente até o ping (padrão 30000; 0 = sem heartbeat)
+ * - chat.heartbeatTimeoutMs: silêncio até a desconexão (padrão 90000; no mínimo o dobro do intervalo)
+ */
+final class Heartbeat {
+
+    static final long INTERVAL_MILLIS = Long.getLong("chat.heartbeatIntervalMs", 30_000);
+    static final long TIMEOUT_MILLIS =
+            Math.max(Long.getLong("chat.heartbeatTimeoutMs", 90_000), 2 * INTERVAL_MILLIS);
+
+    // Resolução da roda e número de posições (potência de 2; 51,2 s por volta)
+    private static final long TICK_MILLIS = 100;
+    private static final int WHEEL_SIZE = 512;
+
+    private static final int HANDSHAKE = 0;
+    private static final int ACTIVE = 1;
+    private static final int PINGED = 2;
+    // Fora da roda: o cliente não responde ao ping (só volta por enable)
+    private static final int OFF = 3;
+
+    // Conexões novas, agendadas pela thread do timer no próximo tick
+    private static final ConcurrentLinkedQueue<Entry> added = new ConcurrentLinkedQueue<>();
+    // Conexões que passaram a responder ao ping depois do login
+    private static final ConcurrentLinkedQueue<Entry> enabled = new ConcurrentLinkedQueue<>();
+    // Listas encadeadas pelas próprias entradas; só a thread do timer as altera
+    private static final Entry[] wheel = new Entry[WHEEL_SIZE];
+    private static long tick;
+
+    static {
+        if (Admission.HANDSHAKE_TIMEOUT_MILLIS > 0 || INTERVAL_MILLIS > 0) {
+            Thread thread = new Thread(Heartbeat::run, "chat-heartbeat");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private Heartbeat() {
+    }
+
+    /** Estado de uma conexão no timer (uma por ClientHandler). */
+    static final class Entry {
+        private final ClientHandler client;
+        private volatile boolean active;
+        private volatile boolean closed;
+        // Usados só pela thread do timer
+        private int state = HANDSHAKE;
+        private long deadline;
+        private Entry next;
+
+        Entry(ClientHandler client) {
+            this.client = client;
+        }
+
+        // Chamado a cada leitura: só escreve quando o timer já consumiu a marca anterior
+        void markActive() {
+            if (!active) {
+                active = true;
+            }
+        }
+
+        // Conexão encerrada: sai da roda na próxima visita
+        void close() {
+            closed = true;
+        }
+    }
+
+    // Começa a acompanhar uma conexão recém-aceita (prazo do login contado a partir de agora)
+    static void register(Entry entry) {
+        if (Admission.HANDSHAKE_TIMEOUT_MILLIS > 0 || INTERVAL_MILLIS > 0) {
+            added.add(entry);
+        }
+    }
+
+    /**
+     * O cliente passou a responder ao ping (/heartbeat no protocolo de
+     * texto). Se o prazo do login ainda não venceu, nada muda: a decisão é
+     * tomada nele.
+     */
+    static void enable(Entry entry) {
+        if (INTERVAL_MILLIS > 0) {
+            enabled.add(entry);
+        }
+    }
+
+    private static void run() {
+        long tickNanos = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+        long start = System.nanoTime();
+        while (true) {
+            long wait = start + (tick + 1) * tickNanos - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            tick++;
+            Entry entry;
+            while ((entry = added.poll()) != null) {
+                schedule(entry, Admission.HANDSHAKE_TIMEOUT_MILLIS > 0
+                        ? Admission.HANDSHAKE_TIMEOUT_MILLIS : INTERVAL_MILLIS);
+            }
+            while ((entry = enabled.poll()) != null) {
+                if (entry.state == OFF && !entry.closed) {
+                    entry.state = ACTIVE;
+                    entry.active = false;
+                    schedule(entry, INTERVAL_MILLIS);
+                }
+            }
+            int slot = (int) (tick & (WHEEL_SIZE - 1));
+            Entry due = wheel[slot];
+            wheel[slot] = null;
+            while (due != null) {
+                Entry following = due.next;
+                due.next = null;
+                if (due.deadline > tick) {
+                    // Prazo numa volta seguinte da roda
+                    link(due);
+                } else {
+                    try {
+                        expire(due);
+                    } catch (RuntimeException e) {
+                        ServerLog.error("[ERRO] Falha no heartbeat: " + e.getMessage());
+                    }
+                }
+                due = following;
+            }
+        }
+    }
+
+    private static void schedule(Entry entry, long delayMillis) {
+        entry.deadline = tick + Math.max(1, (delayMillis + TICK_MILLIS - 1) / TICK_MILLIS);
+        link(entry);
+    }
+
+    private static void link(Entry entry) {
+        int slot = (int) (entry.deadline & (WHEEL_SIZE - 1));
+        entry.next = wheel[slot];
+        wheel[slot] = entry;
+    }
+
+    // Prazo de uma conexão esgotado: decide pelo estado e pela atividade desde a última visita
+    private static void expire(Entry entry) {
+        if (entry.closed) {
+            return;
+        }
+        ClientHandler client = entry.client;
+        if (entry.state == HANDSHAKE) {
+            if (client.getUsername() == null) {
+                if (Admission.HANDSHAKE_TIMEOUT_MILLIS > 0) {
+                    Metrics.handshakeTimeouts.increment();
+                    client.disconnect();
+                } else {
+                    schedule(entry, INTERVAL_MILLIS);
+                }
+                return;
+            }
+            if (INTERVAL_MILLIS <= 0 || !client.answersPing()) {
+                entry.state = OFF;
+                return;
+            }
+            entry.state = ACTIVE;
+            entry.active = false;
+            schedule(entry, INTERVAL_MILLIS);
+        } else if (entry.active) {
+            entry.active = false;
+            entry.state = ACTIVE;
+            schedule(entry, INTERVAL_MILLIS);
+        } else if (entry.state == ACTIVE) {
+            entry.state = PINGED;
+            if (client.sendPing()) {
+                Metrics.heartbeatPings.increment();
+            }
+            schedule(entry, TIMEOUT_MILLIS - INTERVAL_MILLIS);
+        } else {
+            Metrics.heartbeatTimeouts.increment();
+            ServerLog.info("[HEARTBEAT] " + client.getUsername() + " sem resposta há mais de "
+                    + TIMEOUT_MILLIS / 1000 + " s; conexão encerrada.");
+            client.disconnect();
+        }
+    }
+}
@@ -0,0 +1,393 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Gerador de carga sem interface, derivado do ChatClient (protocolo binário):
+ * abre N conexões contra um servidor já em execução e cada uma envia, em
+ * ritmo fixo, uma mistura configurável de mensagens privadas, mensagens para
+ * um grupo comum e arquivos (/sendfile para outro usuário). Cada envio leva o
+ * instante em que deveria ter saído (System.nanoTime); quem recebe calcula a
+ * latência a partir dele, então um envio atrasado conta como latência e não
+ * some da medição. Ao final mostra a vazão e os percentis p50/p99/p999 de
+ * cada tipo, medidos depois de um aquecimento.
+ *
+ * Uso: java LoadGenerator [conexoes] [segundos] [envios_por_segundo_por_conexao] [mistura] [tamanho_arquivo] [host] [porta]
+ * Exemplo: java LoadGenerator 100 10 50 private=80,group=18,file=2 64k
+ * Cada conexão usa duas threads (envio e recebimento).
+ */
+public class LoadGenerator {
+
+    private static final String GROUP = "carga";
+    private static final String MARK = "t=";
+    private static final String FILE_PREFIX = "carga-";
+    private static final long WARMUP_NANOS = 2_000_000_000L;
+
+    private static final int PRIVATE = 0;
+    private static final int GROUP_MESSAGE = 1;
+    private static final int FILE = 2;
+    private static final String[] KINDS = {"private", "group", "file"};
+
+    /** Latências (ns) registradas por uma thread, sem sincronização. */
+    private static final class Latencies {
+        long[] values = new long[1024];
+        int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    /** Uma conexão de teste: envia pela thread de envio e lê na thread de recebimento. */
+    private static final class Connection {
+        final String name;
+        final Socket socket;
+        final OutputStream out;
+        final DataInputStream in;
+        // Latências medidas por esta conexão ao receber, por tipo
+        final Latencies[] latencies = {new Latencies(), new Latencies(), new Latencies()};
+        // Início da conexão e duração até a mensagem de boas-vindas (login concluído)
+        final long connectStart = System.nanoTime();
+        volatile long handshake = -1;
+        volatile boolean joined;
+
+        Connection(String name, String host, int port) throws IOException {
+            this.name = name;
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            out.write(Protocol.handshake());
+            out.flush();
+            socket.setSoTimeout(5000);
+            try {
+                byte[] type = new byte[1];
+                ByteBuffer hello = Protocol.readFrame(in, type, ChatClient.MAX_SERVER_PAYLOAD);
+                if (hello == null || type[0] != Protocol.HELLO) {
+                    throw new IOException("O servidor não respondeu ao protocolo binário");
+                }
+            } catch (SocketTimeoutException e) {
+                throw new IOException("O servidor não respondeu ao protocolo binário");
+            } finally {
+                socket.setSoTimeout(0);
+            }
+            out.write(Protocol.frame(Protocol.LOGIN, name));
+            out.flush();
+        }
+    }
+
+    private static volatile boolean running = true;
+    private static volatile long measureFrom;
+    private static final AtomicLong sent = new AtomicLong();
+    private static final AtomicLong[] delivered = {new AtomicLong(), new AtomicLong(), new AtomicLong()};
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        double rate = args.length > 2 ? Double.parseDouble(args[2]) : 50;
+        int[] mix = parseMix(args.length > 3 ? args[3] : "private=80,group=18,file=2");
+        long fileSize = parseSize(args.length > 4 ? args[4] : "64k");
+        String host = args.length > 5 ? args[5] : "127.0.0.1";
+        int port = args.length > 6 ? Integer.parseInt(args[6]) : 55555;
+        String prefix = "lg" + System.nanoTime() % 100000 + "_";
+
+        System.out.printf("[CARGA] %d conexões, %d s, %.0f envios/s por conexão, mistura %s, arquivos de %s%n",
+                connections, seconds, rate, formatMix(mix), formatSize(fileSize));
+
+        // 1. Conecta todos e coloca todos no grupo comum
+        List<Connection> all = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            Connection connection = new Connection(prefix + i, host, port);
+            all.add(connection);
+            Thread reader = new Thread(() -> readLoop(connection), "leitor-" + i);
+            reader.setDaemon(true);
+            reader.start();
+        }
+        String group = GROUP + prefix;
+        if (mix[GROUP_MESSAGE] > 0) {
+            joinGroup(all, group);
+        }
+        reportHandshakes(all);
+
+        // 2. Envia durante o aquecimento mais o tempo medido
+        long start = System.nanoTime();
+        measureFrom = start + WARMUP_NANOS;
+        List<Thread> senders = new ArrayList<>(connections);
+        long interval = (long) (1e9 / rate);
+        byte[] content = new byte[(int) Math.min(fileSize, FileRelay.CHUNK_SIZE)];
+        for (int i = 0; i < connections; i++) {
+            Connection connection = all.get(i);
+            // Espalha o início das conexões ao longo de um intervalo
+            long first = start + interval * i / connections;
+            Thread sender = new Thread(
+                    () -> sendLoop(connection, all, group, mix, fileSize, content, first, interval), "envio-" + i);
+            sender.setDaemon(true);
+            senders.add(sender);
+            sender.start();
+        }
+        Thread.sleep(WARMUP_NANOS / 1_000_000);
+        long sentBefore = sent.get();
+        long[] deliveredBefore = deliveredCounts();
+        Thread.sleep(seconds * 1000L);
+        long sentDuring = sent.get() - sentBefore;
+        long[] deliveredAfter = deliveredCounts();
+        running = false;
+        for (Thread sender : senders) {
+            sender.join(10_000);
+        }
+        // Mensagens ainda a caminho chegam antes da coleta das latências
+        Thread.sleep(1000);
+
+        // 3. Relatório
+        System.out.printf("[CARGA] Enviados: %,d (%,.0f/s)%n", sentDuring, sentDuring / (double) seconds);
+        for (int kind = 0; kind < KINDS.length; kind++) {
+            if (mix[kind] == 0) {
+                continue;
+            }
+            long count = deliveredAfter[kind] - deliveredBefore[kind];
+            long[] values = merge(all, kind);
+            if (values.length == 0) {
+                System.out.printf("[CARGA] %-7s nenhuma entrega medida%n", KINDS[kind]);
+                continue;
+            }
+            System.out.printf("[CARGA] %-7s entregues %,d (%,.0f/s)  p50 %s  p99 %s  p999 %s  máx %s%n", KINDS[kind],
+                    count, count / (double) seconds, millis(percentile(values, 0.5)),
+                    millis(percentile(values, 0.99)), millis(percentile(values, 0.999)),
+                    millis(values[values.length - 1]));
+        }
+        for (Connection connection : all) {
+            connection.socket.close();
+        }
+        System.exit(0);
+    }
+
+    // O primeiro cria o grupo; os demais entram, repetindo até o servidor confirmar
+    private static void joinGroup(List<Connection> all, String group) throws Exception {
+        Connection creator = all.get(0);
+        creator.out.write(Protocol.frame(Protocol.CREATE_GROUP, group));
+        creator.out.flush();
+        creator.joined = true;
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (true) {
+            boolean complete = true;
+            for (Connection connection : all) {
+                if (!connection.joined) {
+                    complete = false;
+                    connection.out.write(Protocol.frame(Protocol.JOIN_GROUP, group));
+                    connection.out.flush();
+                }
+            }
+            if (complete) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Nem todas as conexões entraram no grupo '" + group + "'");
+            }
+            Thread.sleep(200);
+        }
+    }
+
+    private static void sendLoop(Connection connection, List<Connection> all, String group, int[] mix,
+            long fileSize, byte[] content, long first, long interval) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int total = mix[PRIVATE] + mix[GROUP_MESSAGE] + mix[FILE];
+        long next = first;
+        try {
+            while (running) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+                // O instante programado (não o atual) é o que vai na mensagem
+                long scheduled = next;
+                next += interval;
+                int pick = random.nextInt(total);
+                if (pick < mix[PRIVATE]) {
+                    Connection target = other(all, connection, random);
+                    connection.out.write(Protocol.frame(Protocol.PRIVATE, target.name, MARK + scheduled));
+                } else if (pick < mix[PRIVATE] + mix[GROUP_MESSAGE]) {
+                    connection.out.write(Protocol.frame(Protocol.GROUP, group, MARK + scheduled));
+                } else {
+                    Connection target = other(all, connection, random);
+                    connection.out.write(Protocol.fileFrame(Protocol.SEND_FILE, "@" + target.name,
+                            FILE_PREFIX + scheduled + ".bin", fileSize));
+                    for (long remaining = fileSize; remaining > 0; remaining -= content.length) {
+                        connection.out.write(content, 0, (int) Math.min(content.length, remaining));
+                    }
+                }
+                connection.out.flush();
+                sent.incrementAndGet();
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("[CARGA] Conexão " + connection.name + " encerrada: " + e.getMessage());
+            }
+        }
+    }
+
+    private static Connection other(List<Connection> all, Connection self, ThreadLocalRandom random) {
+        if (all.size() == 1) {
+            return self;
+        }
+        Connection target;
+        do {
+            target = all.get(random.nextInt(all.size()));
+        } while (target == self);
+        return target;
+    }
+
+    // Lê quadros do servidor como o ReceiverThread, mas só mede em vez de mostrar ou gravar
+    private static void readLoop(Connection connection) {
+        byte[] type = new byte[1];
+        byte[] skip = new byte[64 * 1024];
+        try {
+            ByteBuffer payload;
+            while ((payload = Protocol.readFrame(connection.in, type, ChatClient.MAX_SERVER_PAYLOAD)) != null) {
+                if (type[0] == Protocol.MESSAGE) {
+                    String text = Protocol.readRest(payload);
+                    int mark = text.lastIndexOf("]: " + MARK);
+                    if (mark >= 0) {
+                        int kind = text.startsWith("[GRUPO") ? GROUP_MESSAGE : PRIVATE;
+                        record(connection, kind, Long.parseLong(text.substring(mark + 3 + MARK.length())));
+                    } else if (text.startsWith("[INFO] Você entrou no grupo")) {
+                        connection.joined = true;
+                    } else if (connection.handshake < 0 && text.startsWith("Bem-vindo")) {
+                        connection.handshake = System.nanoTime() - connection.connectStart;
+                    }
+                } else if (type[0] == Protocol.RECV_FILE) {
+                    Protocol.readField(payload);
+                    String filename = Protocol.readField(payload);
+                    long remaining = Protocol.readLong(payload);
+                    while (remaining > 0) {
+                        int read = connection.in.read(skip, 0, (int) Math.min(skip.length, remaining));
+                        if (read < 0) {
+                            return;
+                        }
+                        remaining -= read;
+                    }
+                    if (filename.startsWith(FILE_PREFIX)) {
+                        record(connection, FILE, Long.parseLong(
+                                filename.substring(FILE_PREFIX.length(), filename.length() - ".bin".length())));
+                    }
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            if (running) {
+                System.err.println("[CARGA] Recebimento de " + connection.name + " encerrado: " + e.getMessage());
+            }
+        }
+    }
+
+    // Conexão, handshake e login de cada conexão (abertas uma após a outra)
+    private static void reportHandshakes(List<Connection> all) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        Latencies handshakes = new Latencies();
+        for (Connection connection : all) {
+            while (connection.handshake < 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            if (connection.handshake >= 0) {
+                handshakes.add(connection.handshake);
+            }
+        }
+        long[] values = Arrays.copyOf(handshakes.values, handshakes.size);
+        Arrays.sort(values);
+        if (values.length > 0) {
+            System.out.printf("[CARGA] handshake até o login: p50 %s  p99 %s  máx %s (%d conexões)%n",
+                    millis(percentile(values, 0.5)), millis(percentile(values, 0.99)),
+                    millis(values[values.length - 1]), values.length);
+        }
+    }
+
+    private static void record(Connection connection, int kind, long scheduled) {
+        delivered[kind].incrementAndGet();
+        if (scheduled >= measureFrom) {
+            connection.latencies[kind].add(System.nanoTime() - scheduled);
+        }
+    }
+
+    private static long[] deliveredCounts() {
+        long[] counts = new long[delivered.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = delivered[i].get();
+        }
+        return counts;
+    }
+
+    // Junta as latências de todas as conexões, ordenadas
+    private static long[] merge(List<Connection> all, int kind) {
+        int total = 0;
+        for (Connection connection : all) {
+            total += connection.latencies[kind].size;
+        }
+        long[] values = new long[total];
+        int position = 0;
+        for (Connection connection : all) {
+            Latencies latencies = connection.latencies[kind];
+            System.arraycopy(latencies.values, 0, values, position, latencies.size);
+            position += latencies.size;
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    private static long percentile(long[] sorted, double q) {
+        int index = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f ms", nanos / 1e6);
+    }
+
+    // "private=80,group=18,file=2" -> pesos por tipo
+    private static int[] parseMix(String mix) {
+        int[] weights = new int[KINDS.length];
+        for (String part : mix.split(",")) {
+            String[] entry = part.trim().split("=");
+            int kind = Arrays.asList(KINDS).indexOf(entry[0]);
+            if (kind < 0 || entry.length != 2) {
+                throw new IllegalArgumentException("Mistura inválida: " + mix + " (use private=..,group=..,file=..)");
+            }
+            weights[kind] = Integer.parseInt(entry[1]);
+        }
+        if (weights[PRIVATE] + weights[GROUP_MESSAGE] + weights[FILE] <= 0) {
+            throw new IllegalArgumentException("Mistura sem nenhum tipo de envio: " + mix);
+        }
+        return weights;
+    }
+
+    private static String formatMix(int[] mix) {
+        StringBuilder text = new StringBuilder();
+        for (int kind = 0; kind < KINDS.length; kind++) {
+            text.append(kind > 0 ? "," : "").append(KINDS[kind]).append('=').append(mix[kind]);
+        }
+        return text.toString();
+    }
+
+    private static long parseSize(String size) {
+        char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+        long multiplier = unit == 'g' ? 1L << 30 : unit == 'm' ? 1L << 20 : unit == 'k' ? 1L << 10 : 1;
+        String number = multiplier == 1 ? size : size.substring(0, size.length() - 1);
+        return Long.parseLong(number) * multiplier;
+    }
+
+    private static String formatSize(long size) {
+        return size >= 1L << 20 ? (size >> 20) + " MB" : size >= 1L << 10 ? (size >> 10) + " KB" : size + " B";
+    }
+}
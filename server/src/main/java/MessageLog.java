@@ -0,0 +1,707 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Log de mensagens em disco, só de acréscimo, dividido em segmentos.
+ *
+ * Cada registro é [tamanho:4][crc32:4][corpo], com o corpo
+ * [tipo:1][instante:8][tamanho da chave:2][chave][conteúdo]. O deslocamento
+ * (offset) de um registro é a sua posição em bytes no log inteiro; cada
+ * segmento se chama pelo offset do seu primeiro byte.
+ *
+ * Quem grava só copia o registro para um buffer em memória. Uma única thread
+ * grava o buffer acumulado e faz um fsync para todos os registros juntos
+ * (group commit); os callbacks de durabilidade rodam depois do fsync, então
+ * quem grava não espera o fsync. Com mais de MAX_STAGED bytes acumulados
+ * (disco lento) quem grava espera o lote atual sair, exceto nas threads
+ * reatoras: nelas mensagens (privadas e de grupo) são descartadas do log e
+ * append retorna -1.
+ *
+ * Leituras (mensagens offline, histórico de grupo) esperam o disco e devem
+ * rodar em execute(), na thread de leitura do log, e não na de um cliente.
+ *
+ * Índices em memória, reconstruídos na abertura: mensagens privadas ainda
+ * não entregues por usuário, as últimas mensagens de cada grupo (só as que o
+ * histórico usa) e usuários conhecidos.
+ *
+ * Retenção: segmentos antigos (por idade ou pelo tamanho total do log) são
+ * apagados, junto com as mensagens offline ainda não entregues que guardam
+ * (expiram). Os registros de usuários conhecidos de um segmento a apagar são
+ * regravados no fim do log antes. Assim memória, disco e o tempo da abertura
+ * ficam limitados.
+ *
+ * Configuração (propriedades do sistema):
+ * - chat.logDir: diretório do log (padrão chat-log)
+ * - chat.fsync: true (padrão) ou false
+ * - chat.segmentBytes: tamanho a partir do qual um novo segmento é criado
+ * - chat.logRetentionBytes: tamanho total acima do qual os segmentos mais antigos saem (padrão 1 GB; 0 = sem limite)
+ * - chat.logRetentionHours: idade a partir da qual um segmento sai (padrão 168; 0 = sem limite)
+ */
+final class MessageLog {
+
+    static final String DIR = System.getProperty("chat.logDir", "chat-log");
+    static final boolean FSYNC = Boolean.parseBoolean(System.getProperty("chat.fsync", "true"));
+    static final long SEGMENT_BYTES = Long.getLong("chat.segmentBytes", 64L * 1024 * 1024);
+    static final long RETENTION_BYTES = Long.getLong("chat.logRetentionBytes", 1L << 30);
+    static final long RETENTION_MILLIS = Long.getLong("chat.logRetentionHours", 168) * 3_600_000;
+
+    // Tipos de registro
+    static final byte PRIVATE = 1;     // chave: destinatário; conteúdo: mensagem formatada
+    static final byte GROUP = 2;       // chave: grupo; conteúdo: mensagem formatada
+    static final byte DELIVERED = 3;   // chave: usuário; conteúdo: último offset entregue (8 bytes)
+    static final byte USER = 4;        // chave: usuário que se conectou pela primeira vez
+
+    private static final int RECORD_HEADER = 8;
+    // Acima disto quem grava espera o lote atual ir para o disco (memória limitada)
+    private static final int MAX_STAGED = 8 * 1024 * 1024;
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path dir;
+    private final boolean fsync;
+    private final long segmentBytes;
+    private final long retentionBytes;
+    private final long retentionMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hasData = lock.newCondition();
+    private final Condition written = lock.newCondition();
+    private final Condition swapped = lock.newCondition();
+    // Registros aguardando a thread de gravação e seus callbacks de durabilidade
+    private ByteBuffer staging = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer spare = ByteBuffer.allocate(64 * 1024);
+    private List<Runnable> stagedCallbacks = new ArrayList<>();
+    private List<Runnable> spareCallbacks = new ArrayList<>();
+    private final CRC32 crc = new CRC32();
+    // Offset do próximo registro e fim do que já foi gravado nos segmentos
+    private long nextOffset;
+    private long writtenEnd;
+    private boolean closed;
+    // Falha de gravação: leituras de registros não gravados passam a falhar
+    private IOException failure;
+
+    // Índices (protegidos por lock)
+    private final Map<String, Offsets> pending = new HashMap<>();
+    // Por grupo, só as últimas GroupHistory.SIZE (entre uma e duas vezes isso)
+    private final Map<String, Offsets> groups = new HashMap<>();
+    // Usuário e o offset do seu registro USER mais recente
+    private final Map<String, Long> users = new HashMap<>();
+
+    // Segmentos por offset inicial; o último recebe as gravações
+    private final ConcurrentSkipListMap<Long, FileChannel> segments = new ConcurrentSkipListMap<>();
+    private FileChannel active;
+    private final Thread flusher;
+    private final AtomicLong commits = new AtomicLong();
+    // Mensagens não gravadas porque o buffer estava cheio em uma thread reatora
+    private final AtomicLong dropped = new AtomicLong();
+    // Mensagens offline apagadas pela retenção sem terem sido entregues
+    private final AtomicLong expiredOffline = new AtomicLong();
+    // Leituras do disco fora das threads que atendem clientes
+    private final ExecutorService reader = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "chat-log-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Offsets de registros de uma chave, em ordem crescente. */
+    private static final class Offsets {
+        private long[] values = new long[8];
+        private int size;
+
+        void add(long offset) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = offset;
+        }
+
+        // Acrescenta guardando só os últimos max (copia os últimos ao chegar a 2 * max)
+        void addKeepingLast(long offset, int max) {
+            if (size >= 2 * max) {
+                System.arraycopy(values, size - max, values, 0, max);
+                size = max;
+            }
+            add(offset);
+        }
+
+        // Remove os offsets até upTo (inclusive)
+        void removeUpTo(long upTo) {
+            int first = 0;
+            while (first < size && values[first] <= upTo) {
+                first++;
+            }
+            System.arraycopy(values, first, values, 0, size - first);
+            size -= first;
+        }
+    }
+
+    private MessageLog(Path dir, boolean fsync, long segmentBytes, long retentionBytes, long retentionMillis) {
+        this.dir = dir;
+        this.fsync = fsync;
+        this.segmentBytes = segmentBytes;
+        this.retentionBytes = retentionBytes;
+        this.retentionMillis = retentionMillis;
+        this.flusher = new Thread(this::flushLoop, "chat-log-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    // Abre o log com a configuração das propriedades do sistema
+    static MessageLog open() throws IOException {
+        return open(Paths.get(DIR), FSYNC, SEGMENT_BYTES);
+    }
+
+    /**
+     * Abre (ou cria) o log no diretório, reconstruindo os índices a partir
+     * dos segmentos. Um registro incompleto ou corrompido no fim (queda no
+     * meio de uma gravação) é descartado.
+     */
+    static MessageLog open(Path dir, boolean fsync, long segmentBytes) throws IOException {
+        return open(dir, fsync, segmentBytes, RETENTION_BYTES, RETENTION_MILLIS);
+    }
+
+    // Como open(dir, fsync, segmentBytes), com a retenção dada (0 = sem limite)
+    static MessageLog open(Path dir, boolean fsync, long segmentBytes, long retentionBytes, long retentionMillis)
+            throws IOException {
+        Files.createDirectories(dir);
+        MessageLog log = new MessageLog(dir, fsync, segmentBytes, retentionBytes, retentionMillis);
+        log.recover();
+        log.flusher.start();
+        return log;
+    }
+
+    private void recover() throws IOException {
+        List<Long> bases = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> {
+                        try {
+                            bases.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                        } catch (NumberFormatException e) {
+                            // Não é um segmento (ex.: cópia feita à mão): fica onde está
+                            ServerLog.error("[LOG] Ignorando o arquivo " + name + " no diretório do log");
+                        }
+                    });
+        }
+        Collections.sort(bases);
+        // O primeiro segmento pode não começar em 0 (os anteriores saíram pela retenção)
+        long end = bases.isEmpty() ? 0 : bases.get(0);
+        for (int i = 0; i < bases.size(); i++) {
+            long base = bases.get(i);
+            if (base != end) {
+                // Segmentos posteriores a um fim corrompido não são confiáveis
+                Files.delete(segmentPath(base));
+                continue;
+            }
+            FileChannel channel = FileChannel.open(segmentPath(base), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long valid = scan(channel, base);
+            if (valid < channel.size()) {
+                ServerLog.error("[LOG] Descartando " + (channel.size() - valid) + " bytes incompletos no fim do segmento " + base);
+                channel.truncate(valid);
+            }
+            segments.put(base, channel);
+            end = base + valid;
+        }
+        if (segments.isEmpty()) {
+            segments.put(0L, openSegment(0));
+        }
+        active = segments.lastEntry().getValue();
+        active.position(active.size());
+        nextOffset = end;
+        writtenEnd = end;
+    }
+
+    // Lê os registros de um segmento atualizando os índices; retorna o tamanho válido
+    private long scan(FileChannel channel, long base) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0)), 64 * 1024));
+        long position = 0;
+        CRC32 check = new CRC32();
+        while (true) {
+            byte[] body;
+            int expected;
+            try {
+                int length = in.readInt();
+                expected = in.readInt();
+                if (length < 11 || length > channel.size() - position) {
+                    return position;
+                }
+                body = new byte[length];
+                in.readFully(body);
+            } catch (EOFException e) {
+                return position;
+            }
+            check.reset();
+            check.update(body);
+            if ((int) check.getValue() != expected) {
+                return position;
+            }
+            index(base + position, ByteBuffer.wrap(body));
+            position += RECORD_HEADER + body.length;
+        }
+    }
+
+    // Atualiza os índices com um registro (corpo posicionado no início)
+    private void index(long offset, ByteBuffer body) {
+        byte kind = body.get();
+        body.getLong(); // instante
+        String key = readKey(body);
+        switch (kind) {
+            case PRIVATE:
+                pending.computeIfAbsent(key, k -> new Offsets()).add(offset);
+                break;
+            case GROUP:
+                if (GroupHistory.SIZE > 0) {
+                    groups.computeIfAbsent(key, k -> new Offsets()).addKeepingLast(offset, GroupHistory.SIZE);
+                }
+                break;
+            case DELIVERED: {
+                Offsets offsets = pending.get(key);
+                if (offsets != null) {
+                    offsets.removeUpTo(body.getLong());
+                    if (offsets.size == 0) {
+                        pending.remove(key);
+                    }
+                }
+                break;
+            }
+            case USER:
+                users.put(key, offset);
+                break;
+            default:
+                // Tipos desconhecidos (versões futuras) são ignorados
+        }
+    }
+
+    private static String readKey(ByteBuffer body) {
+        int length = body.getShort() & 0xFFFF;
+        String key = new String(body.array(), body.arrayOffset() + body.position(), length, StandardCharsets.UTF_8);
+        body.position(body.position() + length);
+        return key;
+    }
+
+    // --- Gravação ---
+
+    /**
+     * Grava uma mensagem para um usuário offline. onDurable (pode ser null)
+     * roda na thread de gravação quando o registro estiver em disco.
+     */
+    long appendPrivate(String recipient, String text, Runnable onDurable) {
+        return append(PRIVATE, recipient, text.getBytes(StandardCharsets.UTF_8), onDurable);
+    }
+
+    // Grava uma mensagem de grupo (histórico); não espera o disco
+    long appendGroup(String group, String text) {
+        return append(GROUP, group, text.getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    /**
+     * Registra um usuário que se conectou. Só usuários conhecidos recebem
+     * mensagens offline. Retorna false se ele já era conhecido.
+     */
+    boolean registerUser(String username) {
+        lock.lock();
+        try {
+            if (users.containsKey(username)) {
+                return false;
+            }
+            append(USER, username, new byte[0], null);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isKnownUser(String username) {
+        lock.lock();
+        try {
+            return users.containsKey(username);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long append(byte kind, String key, byte[] content, Runnable onDurable) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = 1 + 8 + 2 + keyBytes.length + content.length;
+        // Reatores e a própria thread de gravação nunca esperam o disco
+        boolean mayWait = !NioServer.Reactor.isReactorThread() && Thread.currentThread() != flusher;
+        lock.lock();
+        try {
+            if (!mayWait) {
+                if (staging.position() > MAX_STAGED && (kind == PRIVATE || kind == GROUP)) {
+                    dropped.incrementAndGet();
+                    return -1;
+                }
+                // Registros de controle (poucos bytes) passam do limite
+            } else {
+                while (staging.position() > MAX_STAGED && !closed && failure == null) {
+                    swapped.awaitUninterruptibly();
+                }
+            }
+            if (closed) {
+                throw new IllegalStateException("Log de mensagens fechado");
+            }
+            if (staging.remaining() < RECORD_HEADER + bodyLength) {
+                // Cresce o buffer: o gravador está ocupado com o lote anterior
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(staging.capacity() * 2, staging.position() + RECORD_HEADER + bodyLength));
+                staging.flip();
+                larger.put(staging);
+                staging = larger;
+            }
+            long offset = nextOffset;
+            int start = staging.position();
+            staging.putInt(bodyLength).putInt(0);
+            staging.put(kind).putLong(System.currentTimeMillis());
+            staging.putShort((short) keyBytes.length).put(keyBytes).put(content);
+            crc.reset();
+            crc.update(staging.array(), start + RECORD_HEADER, bodyLength);
+            staging.putInt(start + 4, (int) crc.getValue());
+            nextOffset += RECORD_HEADER + bodyLength;
+
+            index(offset, ByteBuffer.wrap(staging.array(), start + RECORD_HEADER, bodyLength).slice());
+            if (onDurable != null) {
+                stagedCallbacks.add(onDurable);
+            }
+            hasData.signal();
+            return offset;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Thread de gravação: um write e um fsync para tudo o que se acumulou
+    private void flushLoop() {
+        while (true) {
+            ByteBuffer batch;
+            List<Runnable> callbacks;
+            lock.lock();
+            try {
+                while (staging.position() == 0 && !closed) {
+                    hasData.awaitUninterruptibly();
+                }
+                if (staging.position() == 0) {
+                    return;
+                }
+                batch = staging;
+                staging = spare;
+                spare = batch;
+                callbacks = stagedCallbacks;
+                stagedCallbacks = spareCallbacks;
+                spareCallbacks = callbacks;
+                swapped.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            batch.flip();
+            int length = batch.remaining();
+            try {
+                while (batch.hasRemaining()) {
+                    active.write(batch);
+                }
+                lock.lock();
+                try {
+                    writtenEnd += length;
+                    written.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                if (fsync) {
+                    active.force(false);
+                }
+                commits.incrementAndGet();
+                if (active.size() >= segmentBytes) {
+                    roll();
+                }
+                retain();
+            } catch (IOException e) {
+                ServerLog.error("[LOG] Falha ao gravar o log de mensagens: " + e.getMessage());
+                lock.lock();
+                try {
+                    failure = e;
+                    written.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+            for (Runnable callback : callbacks) {
+                callback.run();
+            }
+            callbacks.clear();
+            batch.clear();
+        }
+    }
+
+    // Começa um novo segmento no offset atual do fim do log
+    private void roll() throws IOException {
+        long base;
+        lock.lock();
+        try {
+            base = writtenEnd;
+        } finally {
+            lock.unlock();
+        }
+        FileChannel next = openSegment(base);
+        segments.put(base, next);
+        active = next;
+    }
+
+    /**
+     * Apaga o segmento mais antigo enquanto ele passar da idade ou o log
+     * passar do tamanho de retenção. Mensagens offline pendentes no segmento
+     * expiram com ele. Os registros USER de um segmento são regravados no fim
+     * do log, e ele só é apagado numa próxima chamada, depois de o lote com
+     * eles ir para o disco. Roda na thread de gravação.
+     */
+    private void retain() {
+        if (retentionBytes <= 0 && retentionMillis <= 0) {
+            return;
+        }
+        try {
+            while (segments.size() > 1) {
+                long base = segments.firstKey();
+                long end = segments.higherKey(base);
+                boolean expired = retentionBytes > 0 && writtenEnd - base > retentionBytes
+                        || retentionMillis > 0 && Files.getLastModifiedTime(segmentPath(base)).toMillis()
+                                < System.currentTimeMillis() - retentionMillis;
+                if (!expired) {
+                    return;
+                }
+                lock.lock();
+                try {
+                    if (closed) {
+                        return;
+                    }
+                    List<String> moved = new ArrayList<>();
+                    for (Map.Entry<String, Long> user : users.entrySet()) {
+                        if (user.getValue() < end) {
+                            moved.add(user.getKey());
+                        }
+                    }
+                    if (!moved.isEmpty()) {
+                        for (String user : moved) {
+                            append(USER, user, new byte[0], null);
+                        }
+                        return;
+                    }
+                    // Históricos de grupo perdem as mensagens do segmento
+                    groups.values().removeIf(offsets -> {
+                        offsets.removeUpTo(end - 1);
+                        return offsets.size == 0;
+                    });
+                    // Mensagens offline não entregues a tempo expiram
+                    int before = 0;
+                    int after = 0;
+                    for (Offsets offsets : pending.values()) {
+                        before += offsets.size;
+                        offsets.removeUpTo(end - 1);
+                        after += offsets.size;
+                    }
+                    pending.values().removeIf(offsets -> offsets.size == 0);
+                    expiredOffline.addAndGet(before - after);
+                    if (before > after) {
+                        ServerLog.info("[LOG] " + (before - after) + " mensagens offline expiradas com o segmento " + base);
+                    }
+                    segments.remove(base).close();
+                } finally {
+                    lock.unlock();
+                }
+                Files.delete(segmentPath(base));
+                ServerLog.info("[LOG] Segmento " + base + " removido pela retenção");
+            }
+        } catch (IOException e) {
+            ServerLog.error("[LOG] Falha ao aplicar a retenção do log de mensagens: " + e.getMessage());
+        }
+    }
+
+    private FileChannel openSegment(long base) throws IOException {
+        return FileChannel.open(segmentPath(base), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private Path segmentPath(long base) {
+        return dir.resolve(String.format("%020d", base) + SEGMENT_SUFFIX);
+    }
+
+    // --- Leitura ---
+
+    // Executa uma tarefa que lê o log na thread de leitura (em ordem de chegada)
+    void execute(Runnable task) {
+        reader.execute(task);
+    }
+
+    /**
+     * Retira até limit mensagens pendentes do usuário, as mais antigas, e
+     * registra a entrega. Cada mensagem é devolvida uma única vez, mesmo com
+     * chamadas concorrentes; uma lista vazia indica que não há mais nenhuma.
+     */
+    List<String> takePending(String username, int limit) throws IOException {
+        long[] offsets;
+        lock.lock();
+        try {
+            Offsets all = pending.get(username);
+            if (all == null || limit <= 0) {
+                return Collections.emptyList();
+            }
+            offsets = Arrays.copyOf(all.values, Math.min(limit, all.size));
+            all.removeUpTo(offsets[offsets.length - 1]);
+            if (all.size == 0) {
+                pending.remove(username);
+            }
+            awaitWritten(offsets[offsets.length - 1]);
+        } finally {
+            lock.unlock();
+        }
+        List<String> messages = new ArrayList<>(offsets.length);
+        for (long offset : offsets) {
+            String text = readRetained(offset);
+            if (text != null) {
+                messages.add(text);
+            }
+        }
+        // A marca de entrega vem depois da leitura: uma queda antes dela
+        // reentrega as mensagens em vez de perdê-las
+        append(DELIVERED, username, ByteBuffer.allocate(8).putLong(offsets[offsets.length - 1]).array(), null);
+        return messages;
+    }
+
+    /** Uma mensagem lida do log e a sua posição. */
+    static final class Entry {
+        final long offset;
+        final String text;
+
+        Entry(long offset, String text) {
+            this.offset = offset;
+            this.text = text;
+        }
+    }
+
+    // Últimas (até limit) mensagens do grupo, da mais antiga para a mais nova
+    List<Entry> readGroup(String group, int limit) throws IOException {
+        long[] offsets;
+        lock.lock();
+        try {
+            Offsets all = groups.get(group);
+            if (all == null || all.size == 0 || limit <= 0) {
+                return Collections.emptyList();
+            }
+            int count = Math.min(limit, all.size);
+            offsets = Arrays.copyOfRange(all.values, all.size - count, all.size);
+            awaitWritten(offsets[count - 1]);
+        } finally {
+            lock.unlock();
+        }
+        List<Entry> entries = new ArrayList<>(offsets.length);
+        for (long offset : offsets) {
+            String text = readRetained(offset);
+            if (text != null) {
+                entries.add(new Entry(offset, text));
+            }
+        }
+        return entries;
+    }
+
+    // Espera a thread de gravação escrever o registro (chamado com o lock)
+    private void awaitWritten(long offset) throws IOException {
+        while (writtenEnd <= offset) {
+            if (failure != null) {
+                throw failure;
+            }
+            written.awaitUninterruptibly();
+        }
+    }
+
+    // Lê o conteúdo do registro, ou null se o segmento saiu pela retenção durante a leitura
+    private String readRetained(long offset) throws IOException {
+        try {
+            return readContent(offset);
+        } catch (IOException e) {
+            if (offset < segments.firstKey()) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    // Lê o conteúdo (texto) do registro no offset
+    private String readContent(long offset) throws IOException {
+        Map.Entry<Long, FileChannel> segment = segments.floorEntry(offset);
+        if (segment == null) {
+            throw new IOException("Registro removido pela retenção do log");
+        }
+        long position = offset - segment.getKey();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        readFully(segment.getValue(), header, position);
+        ByteBuffer body = ByteBuffer.allocate(header.getInt(0));
+        readFully(segment.getValue(), body, position + RECORD_HEADER);
+        body.flip();
+        body.get();
+        body.getLong();
+        readKey(body);
+        return new String(body.array(), body.position(), body.remaining(), StandardCharsets.UTF_8);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Registro incompleto no log de mensagens");
+            }
+        }
+    }
+
+    // Número de gravações em disco (cada uma com um fsync, se ativado)
+    long commits() {
+        return commits.get();
+    }
+
+    // Mensagens descartadas do log por sobrecarga do disco (só em threads reatoras)
+    long dropped() {
+        return dropped.get();
+    }
+
+    // Mensagens offline apagadas pela retenção antes de serem entregues
+    long expired() {
+        return expiredOffline.get();
+    }
+
+    // Grava o que estiver pendente e fecha os segmentos
+    void close() throws IOException {
+        reader.shutdown();
+        lock.lock();
+        try {
+            closed = true;
+            hasData.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (FileChannel channel : segments.values()) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Métricas do servidor com custo baixo no caminho quente: contadores
+ * listrados (LongAdder, sem disputa entre threads) e histogramas com faixas
+ * em potências de 2. Os valores que dependem do estado atual (conexões
+ * ativas, filas de saída) só são calculados na leitura.
+ *
+ * Expostas em texto (formato do Prometheus) em
+ * http://127.0.0.1:<chat.metricsPort>/metrics; com a porta 0 (padrão) o
+ * endpoint não é aberto.
+ */
+final class Metrics {
+
+    static final int PORT = Integer.getInteger("chat.metricsPort", 0);
+    // Clientes com as maiores filas de saída listados individualmente
+    private static final int TOP_QUEUES = 10;
+
+    /** Histograma com faixas [2^(i-1), 2^i): registrar é um incremento listrado. */
+    static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[65];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long value) {
+            value = Math.max(value, 0);
+            buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+            count.increment();
+            sum.add(value);
+        }
+
+        // Limite superior da faixa que contém o quantil q
+        long quantile(double q) {
+            long[] counts = new long[buckets.length];
+            long total = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            long rank = (long) Math.ceil(q * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return i == 0 ? 0 : i >= 63 ? Long.MAX_VALUE : 1L << i;
+                }
+            }
+            return 0;
+        }
+    }
+
+    // Conexões aceitas (antes do login) e usuários que entraram/saíram
+    static final LongAdder accepted = new LongAdder();
+    static final LongAdder logins = new LongAdder();
+    static final LongAdder logouts = new LongAdder();
+    // Mensagens recebidas de clientes, por tipo
+    static final LongAdder privateMessages = new LongAdder();
+    static final LongAdder groupMessages = new LongAdder();
+    static final LongAdder commands = new LongAdder();
+    static final LongAdder files = new LongAdder();
+    // Bytes lidos de e escritos para clientes (inclui arquivos)
+    static final LongAdder bytesIn = new LongAdder();
+    static final LongAdder bytesOut = new LongAdder();
+    static final Histogram fileSizes = new Histogram();
+    // Bytes enviados comprimidos e o que eles ocupariam sem compressão
+    static final LongAdder compressedBytes = new LongAdder();
+    static final LongAdder uncompressedBytes = new LongAdder();
+    // Recusas do controle de admissão (Admission)
+    static final LongAdder rejectedConnections = new LongAdder();
+    static final LongAdder handshakeTimeouts = new LongAdder();
+    static final LongAdder rejectedFiles = new LongAdder();
+    static final LongAdder throttledMessages = new LongAdder();
+    static final LongAdder throttledGroupMessages = new LongAdder();
+    // Heartbeat: pings enviados a clientes calados e conexões encerradas sem resposta
+    static final LongAdder heartbeatPings = new LongAdder();
+    static final LongAdder heartbeatTimeouts = new LongAdder();
+    // Tempo (ns) para entregar uma mensagem de grupo a todas as filas de saída
+    static final Histogram groupFanout = new Histogram();
+    // Tempo (ns) para entregar um arquivo completo a vários destinatários
+    static final Histogram fileFanout = new Histogram();
+    // Tempo (ns) entre aceitar a conexão e concluir o login
+    static final Histogram handshakes = new Histogram();
+    // Tempo (ns) de ChatServer.start até o socket de escuta abrir
+    static volatile long startupNanos;
+
+    // Totais da leitura anterior, para as taxas por segundo
+    private static long lastRead = System.nanoTime();
+    private static final long[] lastTotals = new long[3];
+
+    private Metrics() {
+    }
+
+    // Streams de um socket do modo bloqueante, contando os bytes que passam
+    static InputStream countIn(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytesIn.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    bytesIn.add(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    static OutputStream countOut(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesOut.increment();
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                out.write(buffer, offset, length);
+                bytesOut.add(length);
+            }
+        };
+    }
+
+    // Abre o endpoint HTTP local, se configurado
+    static void start() throws IOException {
+        if (PORT <= 0) {
+            return;
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", PORT), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        ServerLog.info("[INFO] Métricas em http://127.0.0.1:" + PORT + "/metrics");
+    }
+
+    // Todas as métricas em texto, uma por linha
+    static synchronized String render() {
+        StringBuilder out = new StringBuilder(4096);
+        line(out, "chat_connections_accepted_total", accepted.sum());
+        line(out, "chat_logins_total", logins.sum());
+        line(out, "chat_logouts_total", logouts.sum());
+
+        long[] totals = {privateMessages.sum(), groupMessages.sum(), commands.sum()};
+        String[] types = {"private", "group", "command"};
+        long now = System.nanoTime();
+        double seconds = Math.max((now - lastRead) / 1e9, 1e-9);
+        for (int i = 0; i < types.length; i++) {
+            line(out, "chat_messages_total{type=\"" + types[i] + "\"}", totals[i]);
+        }
+        for (int i = 0; i < types.length; i++) {
+            out.append("chat_messages_per_second{type=\"").append(types[i]).append("\"} ")
+                    .append(String.format(Locale.ROOT, "%.1f", (totals[i] - lastTotals[i]) / seconds)).append('\n');
+            lastTotals[i] = totals[i];
+        }
+        lastRead = now;
+        line(out, "chat_files_total", files.sum());
+        line(out, "chat_bytes_in_total", bytesIn.sum());
+        line(out, "chat_bytes_out_total", bytesOut.sum());
+        line(out, "chat_compressed_bytes_total", compressedBytes.sum());
+        line(out, "chat_compressed_original_bytes_total", uncompressedBytes.sum());
+        line(out, "chat_connections_open", Admission.openConnections());
+        line(out, "chat_admission_rejected_total{reason=\"connections\"}", rejectedConnections.sum());
+        line(out, "chat_admission_rejected_total{reason=\"handshake_timeout\"}", handshakeTimeouts.sum());
+        line(out, "chat_admission_rejected_total{reason=\"file_size\"}", rejectedFiles.sum());
+        line(out, "chat_admission_rejected_total{reason=\"user_rate\"}", throttledMessages.sum());
+        line(out, "chat_admission_rejected_total{reason=\"group_rate\"}", throttledGroupMessages.sum());
+        line(out, "chat_heartbeat_pings_total", heartbeatPings.sum());
+        line(out, "chat_heartbeat_timeouts_total", heartbeatTimeouts.sum());
+        histogram(out, "chat_file_size_bytes", fileSizes, 1);
+        histogram(out, "chat_group_fanout_seconds", groupFanout, 1e9);
+        histogram(out, "chat_file_fanout_seconds", fileFanout, 1e9);
+        histogram(out, "chat_handshake_seconds", handshakes, 1e9);
+        out.append("chat_startup_seconds ").append(format(startupNanos / 1e9)).append('\n');
+
+        // Filas de saída dos clientes conectados a este servidor
+        // (profundidades copiadas antes de ordenar: mudam enquanto são lidas)
+        List<Map.Entry<String, Integer>> depths = new ArrayList<>();
+        long queued = 0;
+        long dropped = 0;
+        for (ClientHandler client : ChatServer.localClients()) {
+            int depth = client.getQueueDepth();
+            queued += depth;
+            dropped += client.getDroppedMessages();
+            depths.add(new AbstractMap.SimpleEntry<>(client.getUsername(), depth));
+        }
+        line(out, "chat_clients_connected", depths.size());
+        line(out, "chat_queue_depth_total", queued);
+        line(out, "chat_queue_dropped_connected_total", dropped);
+        depths.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        for (Map.Entry<String, Integer> depth : depths.subList(0, Math.min(TOP_QUEUES, depths.size()))) {
+            if (depth.getValue() == 0) {
+                break;
+            }
+            line(out, "chat_queue_depth{user=\"" + depth.getKey().replace("\"", "\\\"") + "\"}", depth.getValue());
+        }
+
+        GroupHistory history = ChatServer.history();
+        if (history != null) {
+            line(out, "chat_history_hits_total", history.hits());
+            line(out, "chat_history_misses_total", history.misses());
+            line(out, "chat_history_bytes", history.bytes());
+        }
+        MessageLog log = ChatServer.messageLog();
+        if (log != null) {
+            line(out, "chat_log_commits_total", log.commits());
+            line(out, "chat_log_dropped_total", log.dropped());
+        }
+        TransferServer transfers = ChatServer.transfers();
+        if (transfers != null) {
+            line(out, "chat_transfers_pending", transfers.pending());
+        }
+        line(out, "chat_log_lines_suppressed_total", ServerLog.suppressed());
+        line(out, "chat_events_dropped_total", ServerEvents.dropped());
+        return out.toString();
+    }
+
+    private static void line(StringBuilder out, String name, long value) {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    // Quantis aproximados (limite superior da faixa), contagem e soma; scale converte a unidade
+    private static void histogram(StringBuilder out, String name, Histogram histogram, double scale) {
+        for (double q : new double[] {0.5, 0.9, 0.99, 1.0}) {
+            out.append(name).append("{quantile=\"").append(q).append("\"} ")
+                    .append(format(histogram.quantile(q) / scale)).append('\n');
+        }
+        line(out, name + "_count", histogram.count.sum());
+        out.append(name).append("_sum ").append(format(histogram.sum.sum() / scale)).append('\n');
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15
+                ? String.valueOf((long) value)
+                : String.format(Locale.ROOT, "%.9f", value);
+    }
+}
@@ -0,0 +1,83 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Nome de usuário ou de grupo que aponta para um trecho de uma linha ou
+ * quadro recebido, para procurar nos mapas do servidor (chaves String) sem
+ * criar uma String por mensagem. O hash é o mesmo de String e equals
+ * compara com Strings caractere a caractere; Map.get chama key.equals(k)
+ * com a chave procurada, então basta para buscas (nunca como chave guardada).
+ *
+ * Só nomes ASCII: set() retorna false para outros, e quem chama usa uma
+ * String. Cada instância é de uma única thread (a leitora do cliente).
+ */
+final class NameKey implements CharSequence {
+
+    private byte[] bytes;
+    private int offset;
+    private int length;
+    private int hash;
+
+    /** Aponta para bytes[start, end); false se o trecho não for ASCII. */
+    boolean set(byte[] bytes, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            byte b = bytes[i];
+            if (b < 0) {
+                return false;
+            }
+            h = 31 * h + b;
+        }
+        this.bytes = bytes;
+        this.offset = start;
+        this.length = end - start;
+        this.hash = h;
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof String)) {
+            return false;
+        }
+        String name = (String) other;
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) bytes[offset + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, offset, length, StandardCharsets.US_ASCII);
+    }
+
+    // Trecho de bytes UTF-8 como String (nomes fora do ASCII e mensagens de erro)
+    static String decode(byte[] bytes, int start, int end) {
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,639 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Conexão de um cliente no modo NIO. Reaproveita o tratamento de comandos do
+ * ClientHandler, mas faz o próprio enquadramento (linhas de texto ou quadros
+ * do protocolo binário, e o conteúdo de arquivos) a partir de buffers não
+ * bloqueantes.
+ */
+class NioConnection extends ClientHandler {
+
+    // Limites de bytes pendentes por arquivo em repasse: acima de HIGH_WATER o
+    // remetente para de ler; volta a ler quando o destinatário desce de LOW_WATER
+    private static final int HIGH_WATER = 4 * FileRelay.CHUNK_SIZE;
+    private static final int LOW_WATER = FileRelay.CHUNK_SIZE;
+
+    private final SocketChannel channel;
+    private final NioServer.Reactor reactor;
+    private SelectionKey key;
+
+    // Buffers de leitura: bytes do socket e linha em montagem
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(FileRelay.CHUNK_SIZE);
+    private final Protocol.LineBuffer lineBuffer = new Protocol.LineBuffer(256);
+    // Protocolo já identificado pelo primeiro byte recebido
+    private boolean handshakeDone;
+
+    // Mensagens consecutivas juntadas em uma única escrita
+    private static final int WRITE_BATCH = 64;
+
+    // A fila de saída (outbox) guarda mensagens prontas (byte[], com limite,
+    // possivelmente compartilhadas com outros destinatários) e, fora do
+    // limite, cabeçalhos de arquivo (ByteBuffer) e arquivos em repasse ou em
+    // disco (PendingWrite). A escrita no socket é sempre feita pela thread do reator.
+    private final byte[][] writeBatch = new byte[WRITE_BATCH][];
+    // Bytes já enviados da mensagem na cabeça da fila
+    private int headOffset;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean closeAfterFlush;
+
+    // Arquivo sendo recebido deste cliente (/sendfile em andamento)
+    private FileRelay incomingFile;
+    private long incomingRemaining;
+    // Leitura suspensa porque algum destinatário do arquivo está congestionado
+    private boolean readPaused;
+
+    NioConnection(SocketChannel channel, NioServer.Reactor reactor) {
+        super(channel.socket());
+        this.channel = channel;
+        this.reactor = reactor;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    // Chamado pelo reator quando há bytes para ler
+    void onReadable() throws IOException {
+        int read = channel.read(readBuffer);
+        if (read == -1) {
+            close();
+            return;
+        }
+        Metrics.bytesIn.add(read);
+        markActive();
+        readBuffer.flip();
+        processInput();
+        readBuffer.compact();
+    }
+
+    // Consome o buffer de leitura até esvaziá-lo, até faltar parte de um quadro
+    // ou até a leitura ser suspensa
+    private void processInput() throws IOException {
+        while (readBuffer.hasRemaining() && !closed.get() && !closeAfterFlush && !readPaused) {
+            if (!handshakeDone) {
+                if (!processHandshake()) {
+                    break;
+                }
+            } else if (incomingFile != null) {
+                // Repassa o conteúdo do arquivo direto do buffer de leitura
+                int length = (int) Math.min(readBuffer.remaining(), incomingRemaining);
+                incomingFile.write(readBuffer.array(), readBuffer.position(), length);
+                readBuffer.position(readBuffer.position() + length);
+                incomingRemaining -= length;
+                if (incomingRemaining == 0) {
+                    completeFile();
+                } else if (incomingFile.isCongested()) {
+                    pauseReading();
+                }
+            } else if (isBinary()) {
+                if (!processFrame()) {
+                    break;
+                }
+            } else {
+                processLine();
+            }
+        }
+    }
+
+    /**
+     * Identifica o protocolo pelo primeiro byte: Protocol.MAGIC inicia o
+     * handshake binário; qualquer outro byte é o início do nome em texto.
+     * Retorna false se ainda faltam bytes do handshake.
+     */
+    private boolean processHandshake() throws IOException {
+        int start = readBuffer.position();
+        if (readBuffer.get(start) == Protocol.MAGIC[0]) {
+            if (readBuffer.remaining() < Protocol.MAGIC.length + 1) {
+                return false;
+            }
+            for (int i = 1; i < Protocol.MAGIC.length; i++) {
+                if (readBuffer.get(start + i) != Protocol.MAGIC[i]) {
+                    throw new IOException("Handshake binário inválido");
+                }
+            }
+            int version = readBuffer.get(start + Protocol.MAGIC.length);
+            if (version < 1) {
+                throw new IOException("Versão de protocolo não suportada: " + version);
+            }
+            readBuffer.position(start + Protocol.MAGIC.length + 1);
+            enqueueMessage(acceptHandshake(version));
+        }
+        handshakeDone = true;
+        return true;
+    }
+
+    // Trata um quadro binário completo; retorna false se ele ainda não chegou inteiro
+    private boolean processFrame() throws IOException {
+        if (readBuffer.remaining() < Protocol.HEADER_SIZE) {
+            return false;
+        }
+        int start = readBuffer.position();
+        byte type = readBuffer.get(start);
+        int length = readBuffer.getInt(start + 1);
+        if (length < 0 || length > Protocol.MAX_PAYLOAD) {
+            throw new IOException("Tamanho de quadro inválido: " + length);
+        }
+        if (readBuffer.remaining() < Protocol.HEADER_SIZE + length) {
+            return false;
+        }
+        // O conteúdo é decodificado antes do buffer ser reaproveitado
+        ByteBuffer payload = readBuffer.slice(start + Protocol.HEADER_SIZE, length);
+        readBuffer.position(start + Protocol.HEADER_SIZE + length);
+        if (getUsername() == null) {
+            if (type != Protocol.LOGIN) {
+                throw new IOException("Quadro LOGIN esperado no handshake");
+            }
+            onLogin(Protocol.readRest(payload));
+        } else {
+            handleFrame(type, payload);
+        }
+        return true;
+    }
+
+    /**
+     * Trata a próxima linha de texto. Uma linha inteira no buffer de leitura
+     * é interpretada ali mesmo, sem cópia; só a parte de uma linha que chegou
+     * dividida entre leituras é acumulada em lineBuffer. A posição avança
+     * antes de tratar a linha: após /sendfile, o que segue é o arquivo.
+     */
+    private void processLine() throws IOException {
+        byte[] bytes = readBuffer.array();
+        int start = readBuffer.position();
+        int end = Commands.indexOf(bytes, start, readBuffer.limit(), '\n');
+        if (end < 0) {
+            if (lineBuffer.size() + readBuffer.remaining() > Protocol.MAX_PAYLOAD) {
+                throw new IOException("Linha excede o tamanho máximo");
+            }
+            lineBuffer.write(bytes, start, readBuffer.remaining());
+            readBuffer.position(readBuffer.limit());
+            return;
+        }
+        if (lineBuffer.size() + end - start > Protocol.MAX_PAYLOAD) {
+            throw new IOException("Linha excede o tamanho máximo");
+        }
+        readBuffer.position(end + 1);
+        if (lineBuffer.size() == 0) {
+            onLine(bytes, start, end);
+        } else {
+            lineBuffer.write(bytes, start, end - start);
+            onLine(lineBuffer.array(), 0, lineBuffer.size());
+            lineBuffer.reset();
+        }
+    }
+
+    private void onLine(byte[] line, int start, int end) throws IOException {
+        if (getUsername() == null) {
+            // A primeira linha é o nome de usuário (sem um '\r' final)
+            if (end > start && line[end - 1] == '\r') {
+                end--;
+            }
+            onLogin(NameKey.decode(line, start, end));
+        } else {
+            handleLine(line, start, end);
+        }
+    }
+
+    private void onLogin(String name) {
+        if (register(name)) {
+            sendWelcome();
+        } else {
+            disconnectAfterNotice();
+        }
+    }
+
+    @Override
+    void disconnectAfterNotice() {
+        // Para de ler; flush fecha a conexão quando a fila esvaziar
+        closeAfterFlush = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        reactor.execute(this::flush);
+    }
+
+    @Override
+    void receiveFile(String dest, String filename, long filesize) {
+        // Os bytes chegam aos poucos em onReadable; apenas prepara o repasse
+        incomingFile = openRelay(dest, filename, filesize);
+        incomingRemaining = filesize;
+        if (filesize == 0) {
+            completeFile();
+        }
+    }
+
+    private void completeFile() {
+        FileRelay relay = incomingFile;
+        incomingFile = null;
+        relay.finish();
+    }
+
+    // Contrapressão: para de ler do remetente até os destinatários drenarem
+    private void pauseReading() {
+        readPaused = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        incomingFile.whenDrained(() -> reactor.execute(this::resumeReading));
+    }
+
+    private void resumeReading() {
+        if (!readPaused || closed.get()) {
+            return;
+        }
+        readPaused = false;
+        try {
+            // Primeiro consome o que ficou no buffer quando a leitura foi suspensa
+            readBuffer.flip();
+            processInput();
+            readBuffer.compact();
+            if (!readPaused && !closed.get() && key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    @Override
+    public void sendFile(String sender, String filename, byte[] fileData) {
+        // O mesmo array é compartilhado por todos os destinatários, sem cópia
+        ByteBuffer header = ByteBuffer.wrap(encodeFileHeader(sender, filename, fileData.length));
+        enqueueUnbounded(header, ByteBuffer.wrap(fileData).asReadOnlyBuffer());
+    }
+
+    @Override
+    void sendSpooledFile(String sender, String filename, FileSpool spool) {
+        ByteBuffer header = ByteBuffer.wrap(encodeFileHeader(sender, filename, spool.size()));
+        if (!enqueueUnbounded(header, new SpooledFile(filename, spool))) {
+            spool.release();
+        }
+    }
+
+    // Os blocos vão para a fila de saída: nenhum lock fica preso ao remetente
+    @Override
+    boolean relaysWhileReceiving() {
+        return true;
+    }
+
+    @Override
+    FileRelay.Target openFile(String sender, String filename, long filesize) {
+        ByteBuffer header = ByteBuffer.wrap(encodeFileHeader(sender, filename, filesize));
+        OutgoingFile file = new OutgoingFile(filename);
+        // Cabeçalho e arquivo entram juntos, sem mensagens entre eles
+        enqueueUnbounded(header, file);
+        return file;
+    }
+
+    // Enfileira uma mensagem (sujeita ao limite da fila) e agenda a escrita
+    @Override
+    void enqueueMessage(byte[] message) {
+        // Quem envia é sempre uma thread reatora, que não pode esperar:
+        // a política block descarta a mensagem mais antiga
+        if (outbox().offer(message, false)) {
+            scheduleFlush();
+        } else {
+            disconnectSlowConsumer();
+        }
+    }
+
+    @Override
+    boolean tryEnqueue(byte[] message) {
+        if (!outbox().offerIfRoom(message)) {
+            return false;
+        }
+        scheduleFlush();
+        return true;
+    }
+
+    // Enfileira itens de um arquivo (fora do limite) e agenda a escrita.
+    // Retorna false (sem enfileirar nada) se a conexão já foi fechada.
+    private boolean enqueueUnbounded(Object... items) {
+        if (!outbox().addUnbounded(items)) {
+            return false;
+        }
+        scheduleFlush();
+        return true;
+    }
+
+    @Override
+    void disconnect() {
+        reactor.execute(this::close);
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            reactor.execute(this::flush);
+        }
+    }
+
+    private void flush() {
+        try {
+            onWritable();
+        } catch (IOException e) {
+            close();
+        } catch (RuntimeException e) {
+            ServerLog.error("[ERRO] Falha ao escrever para " + getUsername() + ": " + e);
+            close();
+        }
+    }
+
+    // Chamado pelo reator quando o socket aceita escrita
+    void onWritable() throws IOException {
+        if (!key.isValid()) {
+            discardOutbound();
+            return;
+        }
+        OutboundQueue outbox = outbox();
+        while (true) {
+            Object item;
+            while (true) {
+                // Mensagens consecutivas saem juntas em uma única escrita
+                int count = outbox.peekMessages(writeBatch);
+                if (count > 0) {
+                    if (!writeMessages(count)) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    continue;
+                }
+                if ((item = outbox.peek()) == null) {
+                    break;
+                }
+                boolean done;
+                if (item instanceof ByteBuffer) {
+                    ByteBuffer buffer = (ByteBuffer) item;
+                    Metrics.bytesOut.add(channel.write(buffer));
+                    if (buffer.hasRemaining()) {
+                        // Janela TCP cheia: espera o próximo OP_WRITE
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    done = true;
+                } else {
+                    PendingWrite pending = (PendingWrite) item;
+                    if (!pending.writeTo(channel)) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    // Sem dados disponíveis: o remetente ainda não enviou o resto
+                    done = pending.isComplete();
+                    if (!done) {
+                        break;
+                    }
+                }
+                outbox.remove(1);
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            flushScheduled.set(false);
+            // Outra thread pode ter enfileirado (ou enviado blocos) depois da última verificação
+            if (!hasWritableWork() || !flushScheduled.compareAndSet(false, true)) {
+                break;
+            }
+        }
+        if (closeAfterFlush && outbox.isEmpty()) {
+            close();
+        }
+    }
+
+    /**
+     * Copia as mensagens da cabeça da fila para o buffer do reator (quantas
+     * couberem) e escreve de uma vez; as mensagens em si não são alteradas,
+     * pois podem estar na fila de outros clientes. Retorna false se o socket
+     * encheu.
+     */
+    private boolean writeMessages(int count) throws IOException {
+        ByteBuffer buffer = reactor.writeBuffer();
+        buffer.clear();
+        int offset = headOffset;
+        for (int i = 0; i < count && buffer.hasRemaining(); i++) {
+            int length = Math.min(writeBatch[i].length - offset, buffer.remaining());
+            buffer.put(writeBatch[i], offset, length);
+            offset = 0;
+        }
+        buffer.flip();
+        int written = channel.write(buffer);
+        Metrics.bytesOut.add(written);
+        // Avança pelas mensagens enviadas por completo; a última pode ter ido em parte
+        int done = 0;
+        while (done < count) {
+            int rest = writeBatch[done].length - headOffset;
+            if (written < rest) {
+                headOffset += written;
+                break;
+            }
+            written -= rest;
+            headOffset = 0;
+            done++;
+        }
+        outbox().remove(done);
+        return !buffer.hasRemaining();
+    }
+
+    private boolean hasWritableWork() {
+        Object head = outbox().peek();
+        return head instanceof byte[] || head instanceof ByteBuffer || (head != null && ((PendingWrite) head).hasData());
+    }
+
+    // Fecha a conexão e remove o cliente do servidor (idempotente)
+    void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (incomingFile != null) {
+            incomingFile.abort(incomingRemaining);
+            incomingFile = null;
+        }
+        connectionClosed();
+        ChatServer.removeClient(this);
+        if (key != null) {
+            key.cancel();
+        }
+        discardOutbound();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            ServerLog.error("[ERRO] Falha ao fechar a conexão de " + getUsername() + ": " + e.getMessage());
+        }
+    }
+
+    // Fecha a fila de saída, liberando remetentes à espera e arquivos em disco
+    private void discardOutbound() {
+        List<Object> leftovers = new ArrayList<>();
+        outbox().close(leftovers);
+        for (Object item : leftovers) {
+            if (item instanceof PendingWrite) {
+                ((PendingWrite) item).release();
+            }
+        }
+    }
+
+    /** Item da fila de saída escrito aos poucos, à medida que o socket aceita. */
+    private interface PendingWrite {
+        // Escreve o que estiver disponível; retorna false se o socket encheu
+        boolean writeTo(SocketChannel out) throws IOException;
+
+        // Há algo a escrever agora (ou o item pode ser concluído)
+        boolean hasData();
+
+        boolean isComplete();
+
+        // Libera recursos quando a conexão é fechada antes do fim
+        void release();
+    }
+
+    /** Arquivo em disco enviado com transferTo (cópia zero). */
+    private final class SpooledFile implements PendingWrite {
+        private final String filename;
+        private final FileSpool spool;
+        private long position;
+
+        SpooledFile(String filename, FileSpool spool) {
+            this.filename = filename;
+            this.spool = spool;
+        }
+
+        @Override
+        public boolean writeTo(SocketChannel out) throws IOException {
+            while (position < spool.size()) {
+                long written = spool.transferTo(position, out);
+                Metrics.bytesOut.add(written);
+                if (written == 0) {
+                    return false;
+                }
+                position += written;
+            }
+            ServerLog.info("[ARQUIVO] '" + filename + "' enviado para " + getUsername());
+            spool.release();
+            return true;
+        }
+
+        @Override
+        public boolean hasData() {
+            return true;
+        }
+
+        @Override
+        public boolean isComplete() {
+            return position == spool.size();
+        }
+
+        @Override
+        public void release() {
+            if (position < spool.size()) {
+                spool.release();
+            }
+        }
+    }
+
+    /**
+     * Arquivo em repasse para este cliente. O remetente adiciona blocos (de
+     * qualquer thread) e o reator desta conexão os escreve na ordem da fila.
+     */
+    private final class OutgoingFile implements FileRelay.Target, PendingWrite {
+        private final String filename;
+        private final Queue<ByteBuffer> chunks = new ConcurrentLinkedQueue<>();
+        private final AtomicLong pendingBytes = new AtomicLong();
+        private final AtomicReference<Runnable> drainCallback = new AtomicReference<>();
+        private volatile long padding;
+        private volatile boolean finished;
+
+        OutgoingFile(String filename) {
+            this.filename = filename;
+        }
+
+        @Override
+        public boolean write(byte[] data, int offset, int length) {
+            if (closed.get()) {
+                return false;
+            }
+            // Copia o bloco: o buffer do remetente é reutilizado
+            ByteBuffer chunk = ByteBuffer.allocate(length);
+            chunk.put(data, offset, length).flip();
+            pendingBytes.addAndGet(length);
+            chunks.add(chunk);
+            scheduleFlush();
+            return true;
+        }
+
+        @Override
+        public void finish() {
+            finished = true;
+            scheduleFlush();
+        }
+
+        @Override
+        public void abort(long remaining, String notice) {
+            // Os zeros são gerados pelo reator, sem alocar o tamanho restante
+            padding = remaining;
+            finish();
+            sendMessage(notice);
+        }
+
+        @Override
+        public boolean isCongested() {
+            return pendingBytes.get() > HIGH_WATER;
+        }
+
+        @Override
+        public void whenDrained(Runnable callback) {
+            drainCallback.set(callback);
+            if (!isCongested()) {
+                release();
+            }
+        }
+
+        @Override
+        public void release() {
+            Runnable callback = drainCallback.getAndSet(null);
+            if (callback != null) {
+                callback.run();
+            }
+        }
+
+        @Override
+        public boolean hasData() {
+            return !chunks.isEmpty() || padding > 0 || finished;
+        }
+
+        @Override
+        public boolean isComplete() {
+            return finished && chunks.isEmpty() && padding == 0;
+        }
+
+        @Override
+        public boolean writeTo(SocketChannel out) throws IOException {
+            ByteBuffer chunk;
+            while ((chunk = chunks.peek()) != null) {
+                int written = out.write(chunk);
+                Metrics.bytesOut.add(written);
+                if (written > 0 && pendingBytes.addAndGet(-written) < LOW_WATER) {
+                    release();
+                }
+                if (chunk.hasRemaining()) {
+                    return false;
+                }
+                chunks.poll();
+            }
+            while (padding > 0 && chunks.isEmpty()) {
+                ByteBuffer zeros = ByteBuffer.wrap(FileRelay.ZEROS, 0, (int) Math.min(FileRelay.ZEROS.length, padding));
+                int written = out.write(zeros);
+                Metrics.bytesOut.add(written);
+                padding -= written;
+                if (zeros.hasRemaining()) {
+                    return false;
+                }
+            }
+            if (isComplete()) {
+                ServerLog.info("[ARQUIVO] '" + filename + "' enviado para " + getUsername());
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Servidor não bloqueante baseado em ServerSocketChannel/Selector (modo "nio").
+ * Um conjunto pequeno e fixo de threads reatoras atende todas as conexões,
+ * em vez de uma thread por cliente como no modo bloqueante.
+ */
+public class NioServer {
+
+    private final InetSocketAddress address;
+    private final int backlog;
+    private final Reactor[] reactors;
+
+    public NioServer(String host, int port, int backlog, int reactorCount) throws IOException {
+        this.address = new InetSocketAddress(host, port);
+        this.backlog = backlog;
+        this.reactors = new Reactor[reactorCount];
+        for (int i = 0; i < reactorCount; i++) {
+            reactors[i] = new Reactor();
+        }
+    }
+
+    /**
+     * Inicia as threads reatoras e executa o loop de aceitação na thread atual.
+     * Cada nova conexão é distribuída entre os reatores em round-robin.
+     * onListening é chamado quando o socket de escuta está aberto.
+     */
+    public void start(Runnable onListening) throws IOException {
+        for (int i = 0; i < reactors.length; i++) {
+            Thread thread = new Thread(reactors[i], "nio-reactor-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(address, backlog);
+            onListening.run();
+            int next = 0;
+            while (true) {
+                // O accept continua bloqueante: só esta thread aceita conexões
+                SocketChannel channel = serverChannel.accept();
+                Metrics.accepted.increment();
+                // Acima do limite de conexões: recusada aqui, antes de chegar a um reator
+                if (!Admission.admit(channel)) {
+                    continue;
+                }
+                reactors[next].register(channel);
+                next = (next + 1) % reactors.length;
+            }
+        }
+    }
+
+    /**
+     * Thread reatora: possui seu próprio Selector e atende as conexões
+     * registradas nele. Tarefas de outras threads (registro de canais,
+     * pedidos de escrita) entram pela fila e são executadas no próprio loop.
+     */
+    static final class Reactor implements Runnable {
+        // Reator da thread atual (null fora das threads reatoras)
+        private static final ThreadLocal<Reactor> CURRENT = new ThreadLocal<>();
+
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // Buffer direto onde as mensagens pendentes de uma conexão são juntadas
+        // antes de cada escrita; compartilhado porque o reator escreve em uma
+        // conexão por vez
+        private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(FileRelay.CHUNK_SIZE);
+
+        Reactor() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        // Só pode ser usado na thread do reator
+        ByteBuffer writeBuffer() {
+            return writeBuffer;
+        }
+
+        // Agenda uma tarefa para ser executada na thread do reator
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        // Registra um canal recém-aceito neste reator
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    NioConnection connection = new NioConnection(channel, this);
+                    connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+                    connection.startHeartbeat();
+                } catch (IOException e) {
+                    Admission.release();
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                        // Ignorar erro no fechamento
+                    }
+                }
+            });
+        }
+
+        /**
+         * Se a thread atual é uma thread reatora: nela nada pode esperar (disco,
+         * fila cheia, outro nó), ou todas as conexões do reator param juntas.
+         */
+        static boolean isReactorThread() {
+            return CURRENT.get() != null;
+        }
+
+        @Override
+        public void run() {
+            CURRENT.set(this);
+            while (true) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            // Uma tarefa com defeito não pode parar o reator e as demais conexões
+                            ServerLog.error("[ERRO] Falha em tarefa do reator: " + e);
+                        }
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (IOException | CancelledKeyException e) {
+                            // Cliente desconectou abruptamente
+                            connection.close();
+                        } catch (RuntimeException e) {
+                            // Erro ao tratar o que um cliente enviou: só essa conexão é encerrada
+                            ServerLog.error("[ERRO] Falha ao atender " + connection.getUsername() + ": " + e);
+                            connection.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    ServerLog.error("[ERRO] Falha no reator: " + e);
+                }
+            }
+        }
+    }
+}
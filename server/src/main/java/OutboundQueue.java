@@ -0,0 +1,304 @@
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fila de saída limitada de um cliente. Quem envia (a thread de outro cliente)
+ * apenas enfileira; a escrita no socket é feita por quem drena a fila (a
+ * thread escritora do cliente ou o seu reator), então um destinatário lento
+ * não segura o remetente nem os demais membros de um grupo.
+ *
+ * Só mensagens contam para o limite. Cabeçalhos e conteúdos de arquivos
+ * entram com addUnbounded: têm contrapressão própria (FileRelay) e não podem
+ * ser descartados sem corromper o fluxo.
+ *
+ * Configuração (propriedades do sistema):
+ * - chat.outboundCapacity: mensagens pendentes por cliente (padrão 1024)
+ * - chat.overflowPolicy: drop-oldest (padrão), disconnect ou block
+ * - chat.overflowTimeoutMs: espera máxima da política block (padrão 1000)
+ */
+final class OutboundQueue {
+
+    /** O que fazer quando uma mensagem chega com a fila cheia. */
+    enum OverflowPolicy {
+        // Descarta a mensagem mais antiga ainda não iniciada
+        DROP_OLDEST,
+        // Desconecta o cliente lento
+        DISCONNECT,
+        // Espera espaço até o tempo limite; depois desconecta o cliente
+        BLOCK;
+
+        static OverflowPolicy parse(String name) {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    static final int CAPACITY = Integer.getInteger("chat.outboundCapacity", 1024);
+    static final OverflowPolicy POLICY = OverflowPolicy.parse(System.getProperty("chat.overflowPolicy", "drop-oldest"));
+    static final long BLOCK_TIMEOUT_MS = Long.getLong("chat.overflowTimeoutMs", 1000);
+
+    // Item fora do limite (arquivo); é devolvido desembrulhado por peek/drainTo
+    private static final class Unbounded {
+        final Object item;
+
+        Unbounded(Object item) {
+            this.item = item;
+        }
+    }
+
+    // ReentrantLock em vez de synchronized: quem espera (política block) pode
+    // ser uma thread virtual
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<Object> items = new ArrayDeque<>();
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private int messages;
+    // Itens da cabeça da fila já entregues ao consumidor para escrita (talvez
+    // parcial): não podem ser descartados
+    private int inProgress;
+    private boolean closed;
+    private final AtomicLong dropped = new AtomicLong();
+
+    OutboundQueue() {
+        this(CAPACITY, POLICY);
+    }
+
+    OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Enfileira uma mensagem aplicando a política de estouro. Retorna false se
+     * o cliente deve ser desconectado (fila cheia com disconnect, ou tempo
+     * esgotado com block). Com mayBlock falso (threads que não podem esperar,
+     * como os reatores) a política block descarta a mais antiga.
+     */
+    boolean offer(Object message, boolean mayBlock) {
+        lock.lock();
+        try {
+            if (closed) {
+                return true;
+            }
+            if (messages >= capacity) {
+                OverflowPolicy effective = policy == OverflowPolicy.BLOCK && !mayBlock ? OverflowPolicy.DROP_OLDEST : policy;
+                switch (effective) {
+                    case DROP_OLDEST:
+                        if (!dropOldest()) {
+                            // Tudo o que há na fila já começou a ser escrito
+                            dropped.incrementAndGet();
+                            return true;
+                        }
+                        break;
+                    case BLOCK:
+                        if (!awaitSpace()) {
+                            return refuse();
+                        }
+                        if (closed) {
+                            return true;
+                        }
+                        break;
+                    default:
+                        return refuse();
+                }
+            }
+            items.add(message);
+            messages++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Enfileira só se houver espaço, sem aplicar a política (ex.: o ping do heartbeat)
+    boolean offerIfRoom(Object message) {
+        lock.lock();
+        try {
+            if (closed || messages >= capacity) {
+                return false;
+            }
+            items.add(message);
+            messages++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Recusa a mensagem e fecha a fila: só quem chamou primeiro desconecta o cliente
+    private boolean refuse() {
+        dropped.incrementAndGet();
+        closed = true;
+        notFull.signalAll();
+        return false;
+    }
+
+    // Enfileira itens fora do limite, contíguos (ex.: cabeçalho e arquivo).
+    // Retorna false (sem enfileirar nada) se a fila já foi fechada.
+    boolean addUnbounded(Object... unbounded) {
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            for (Object item : unbounded) {
+                items.add(new Unbounded(item));
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean dropOldest() {
+        Iterator<Object> it = items.iterator();
+        for (int i = 0; i < inProgress && it.hasNext(); i++) {
+            it.next();
+        }
+        while (it.hasNext()) {
+            Object item = it.next();
+            if (!(item instanceof Unbounded)) {
+                it.remove();
+                messages--;
+                dropped.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean awaitSpace() {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(BLOCK_TIMEOUT_MS);
+        try {
+            while (messages >= capacity && !closed) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // --- Consumo (um único consumidor por fila) ---
+
+    /**
+     * Item da cabeça, sem removê-lo, para escrita parcial (modo nio): ele fica
+     * protegido contra descarte até remove().
+     */
+    Object peek() {
+        lock.lock();
+        try {
+            Object head = items.peek();
+            inProgress = head == null ? 0 : 1;
+            return head instanceof Unbounded ? ((Unbounded) head).item : head;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copia para into as mensagens consecutivas do início da fila (até o
+     * primeiro item fora do limite), para serem escritas juntas. Elas ficam
+     * protegidas contra descarte até remove(). into pode ser um array do tipo
+     * das mensagens (ex.: ByteBuffer[]).
+     */
+    int peekMessages(Object[] into) {
+        lock.lock();
+        try {
+            int count = 0;
+            for (Object item : items) {
+                if (count == into.length || item instanceof Unbounded) {
+                    break;
+                }
+                into[count++] = item;
+            }
+            inProgress = count;
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Remove os count itens da cabeça depois de escritos por completo
+    void remove(int count) {
+        lock.lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                removed(items.poll());
+            }
+            // Uma mensagem escrita em parte continua protegida
+            inProgress = Math.max(0, inProgress - count);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Move todos os itens pendentes para batch, para serem escritos de uma vez
+    void drainTo(List<Object> batch) {
+        lock.lock();
+        try {
+            Object item;
+            while ((item = items.poll()) != null) {
+                batch.add(item instanceof Unbounded ? ((Unbounded) item).item : item);
+                removed(item);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void removed(Object item) {
+        if (item != null && !(item instanceof Unbounded)) {
+            messages--;
+            notFull.signal();
+        }
+    }
+
+    /**
+     * Fecha a fila: novas mensagens são ignoradas, quem espera é liberado e os
+     * itens pendentes são devolvidos em leftovers (para liberar arquivos).
+     */
+    void close(List<Object> leftovers) {
+        lock.lock();
+        try {
+            closed = true;
+            drainTo(leftovers);
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        lock.lock();
+        try {
+            return items.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Mensagens aguardando envio
+    int depth() {
+        lock.lock();
+        try {
+            return messages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Mensagens descartadas (ou recusadas) por estouro da fila
+    long dropped() {
+        return dropped.get();
+    }
+}
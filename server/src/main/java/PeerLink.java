@@ -0,0 +1,393 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Conexão persistente deste nó para outro nó do cluster (só envia; o outro
+ * sentido é a conexão aberta pelo outro nó). Quem envia só enfileira quadros,
+ * e a thread da conexão escreve todos os pendentes com um único flush.
+ *
+ * Se a conexão cai, o que estava na fila é descartado e a thread tenta
+ * reconectar; ao reconectar, o nó reenvia o seu estado completo (ClusterNode).
+ */
+final class PeerLink implements Runnable {
+
+    // Acima disto um arquivo em repasse para o nó fica congestionado
+    static final long HIGH_WATER = 4 * 1024 * 1024;
+    static final long LOW_WATER = 1024 * 1024;
+    // Acima disto quem envia um arquivo espera (remetentes do modo bloqueante)
+    static final long BLOCK_LIMIT = 2 * HIGH_WATER;
+    // Acima disto mensagens para o nó são descartadas
+    static final long MAX_PENDING = 64L * 1024 * 1024;
+
+    private static final long RECONNECT_DELAY_MS = 1000;
+
+    /** Arquivo inteiro (em memória ou em disco) escrito pela própria thread da conexão. */
+    private static final class FileSend {
+        final long id;
+        final byte[] header;
+        final byte[] data;
+        final FileSpool spool;
+
+        FileSend(long id, byte[] header, byte[] data, FileSpool spool) {
+            this.id = id;
+            this.header = header;
+            this.data = data;
+            this.spool = spool;
+        }
+    }
+
+    private final ClusterNode node;
+    private final String peerId;
+    private final InetSocketAddress address;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition belowLimit = lock.newCondition();
+    // Quadros (byte[]) e arquivos (FileSend) na ordem de envio
+    private final ArrayDeque<Object> queue = new ArrayDeque<>();
+    private final List<Runnable> drainCallbacks = new ArrayList<>();
+    private long pendingBytes;
+    private boolean connected;
+    private final AtomicLong nextFileId = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    // Destinos neste nó (@usuario ou #grupo), reaproveitados entre envios
+    private final Map<String, RemoteClient> destinations = new ConcurrentHashMap<>();
+
+    PeerLink(ClusterNode node, String peerId, InetSocketAddress address) {
+        this.node = node;
+        this.peerId = peerId;
+        this.address = address;
+    }
+
+    String peerId() {
+        return peerId;
+    }
+
+    // Representante de um usuário (@nome) ou dos membros de um grupo (#nome) neste nó
+    RemoteClient destination(String destination) {
+        return destinations.computeIfAbsent(destination, d -> new RemoteClient(this, d));
+    }
+
+    void forget(String destination) {
+        destinations.remove(destination);
+    }
+
+    // --- Envio (qualquer thread; nunca bloqueia, exceto em awaitCapacity fora dos reatores) ---
+
+    // Entrega uma mensagem já formatada a um destino no outro nó
+    void deliver(String destination, String text) {
+        enqueue(Protocol.frame(ClusterNode.DELIVER, destination, text), true);
+    }
+
+    // Enfileira um quadro; descartado se a conexão estiver fora
+    void send(byte[] frame) {
+        enqueue(frame, false);
+    }
+
+    private void enqueue(byte[] frame, boolean droppable) {
+        lock.lock();
+        try {
+            if (!connected) {
+                return;
+            }
+            if (droppable && pendingBytes > MAX_PENDING) {
+                // O nó não está dando conta: descarta em vez de acumular sem limite
+                dropped.incrementAndGet();
+                return;
+            }
+            queue.add(frame);
+            pendingBytes += frame.length;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Arquivo já recebido por completo: a thread da conexão lê direto do buffer ou do disco
+    void sendFile(String destination, String sender, String filename, byte[] data, FileSpool spool) {
+        long id = nextFileId.incrementAndGet();
+        long size = data != null ? data.length : spool.size();
+        FileSend file = new FileSend(id, fileBegin(id, destination, sender, filename, size), data, spool);
+        lock.lock();
+        try {
+            if (connected) {
+                queue.add(file);
+                notEmpty.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (spool != null) {
+            spool.release();
+        }
+    }
+
+    // Repasse de um arquivo bloco a bloco, à medida que chega do remetente
+    FileRelay.Target openFile(String destination, String sender, String filename, long size) {
+        long id = nextFileId.incrementAndGet();
+        send(fileBegin(id, destination, sender, filename, size));
+        return new FileRelay.Target() {
+            @Override
+            public boolean write(byte[] data, int offset, int length) {
+                // Reatores do modo nio não esperam: param de ler o remetente por isCongested/whenDrained
+                if (!NioServer.Reactor.isReactorThread()) {
+                    awaitCapacity();
+                }
+                ByteBuffer frame = header(ClusterNode.FILE_DATA, 8 + length);
+                frame.putLong(id).put(data, offset, length);
+                send(frame.array());
+                return true;
+            }
+
+            @Override
+            public void finish() {
+                ByteBuffer frame = header(ClusterNode.FILE_END, 8);
+                send(frame.putLong(id).array());
+            }
+
+            @Override
+            public void abort(long remaining, String notice) {
+                // O outro nó completa com zeros e avisa os destinatários
+                ByteBuffer frame = header(ClusterNode.FILE_ABORT, 8);
+                send(frame.putLong(id).array());
+            }
+
+            @Override
+            public boolean isCongested() {
+                return pendingBytes() > HIGH_WATER;
+            }
+
+            @Override
+            public void whenDrained(Runnable callback) {
+                lock.lock();
+                try {
+                    if (pendingBytes > LOW_WATER) {
+                        drainCallbacks.add(callback);
+                        return;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                callback.run();
+            }
+        };
+    }
+
+    private long pendingBytes() {
+        lock.lock();
+        try {
+            return pendingBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Remetentes que não observam isCongested (modo bloqueante) esperam aqui
+    private void awaitCapacity() {
+        lock.lock();
+        try {
+            while (connected && pendingBytes > BLOCK_LIMIT) {
+                belowLimit.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Mensagens descartadas porque o outro nó não dava conta
+    long dropped() {
+        return dropped.get();
+    }
+
+    // --- Thread da conexão ---
+
+    @Override
+    public void run() {
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(address);
+                socket.setTcpNoDelay(true);
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(socket.getOutputStream(), FileRelay.CHUNK_SIZE));
+                // Identificação e estado completo deste nó vão antes de qualquer outro quadro
+                node.announceTo(this);
+                ServerLog.info("[CLUSTER] Conectado ao nó " + peerId + " (" + address + ")");
+                writeLoop(out);
+            } catch (IOException e) {
+                // Nó fora do ar ou conexão perdida: tenta de novo
+            }
+            if (disconnect()) {
+                ServerLog.info("[CLUSTER] Conexão com o nó " + peerId + " perdida; tentando reconectar ("
+                        + dropped.get() + " mensagens descartadas até agora)");
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // Chamado por ClusterNode.announceTo, com o lock do nó: a fila começa com o estado completo
+    void open(List<byte[]> initialFrames) {
+        lock.lock();
+        try {
+            connected = true;
+            for (byte[] frame : initialFrames) {
+                queue.add(frame);
+                pendingBytes += frame.length;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Escreve tudo o que estiver pendente com um único flush, até a conexão falhar
+    private void writeLoop(DataOutputStream out) throws IOException {
+        List<Object> batch = new ArrayList<>();
+        ByteBuffer chunk = ByteBuffer.allocate(FileRelay.CHUNK_SIZE);
+        while (true) {
+            lock.lock();
+            try {
+                while (queue.isEmpty()) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                batch.addAll(queue);
+                queue.clear();
+            } finally {
+                lock.unlock();
+            }
+            long written = 0;
+            try {
+                for (Object item : batch) {
+                    if (item instanceof byte[]) {
+                        out.write((byte[]) item);
+                        written += ((byte[]) item).length;
+                    } else {
+                        writeFile(out, (FileSend) item, chunk);
+                    }
+                }
+                out.flush();
+            } finally {
+                releaseFiles(batch);
+                batch.clear();
+                wrote(written);
+            }
+        }
+    }
+
+    private void writeFile(DataOutputStream out, FileSend file, ByteBuffer chunk) throws IOException {
+        out.write(file.header);
+        if (file.data != null) {
+            for (int offset = 0; offset < file.data.length; offset += FileRelay.CHUNK_SIZE) {
+                int length = Math.min(FileRelay.CHUNK_SIZE, file.data.length - offset);
+                writeDataHeader(out, file.id, length);
+                out.write(file.data, offset, length);
+            }
+        } else {
+            long position = 0;
+            while (position < file.spool.size()) {
+                chunk.clear();
+                int length = file.spool.read(chunk, position);
+                writeDataHeader(out, file.id, length);
+                out.write(chunk.array(), 0, length);
+                position += length;
+            }
+        }
+        out.writeByte(ClusterNode.FILE_END);
+        out.writeInt(8);
+        out.writeLong(file.id);
+    }
+
+    private static void writeDataHeader(DataOutputStream out, long id, int length) throws IOException {
+        out.writeByte(ClusterNode.FILE_DATA);
+        out.writeInt(8 + length);
+        out.writeLong(id);
+    }
+
+    private static void releaseFiles(List<Object> items) {
+        for (Object item : items) {
+            if (item instanceof FileSend && ((FileSend) item).spool != null) {
+                ((FileSend) item).spool.release();
+            }
+        }
+    }
+
+    // Desconta os bytes escritos e acorda quem esperava a fila esvaziar
+    private void wrote(long bytes) {
+        List<Runnable> callbacks = null;
+        lock.lock();
+        try {
+            pendingBytes -= bytes;
+            if (pendingBytes <= BLOCK_LIMIT) {
+                belowLimit.signalAll();
+            }
+            if (pendingBytes <= LOW_WATER && !drainCallbacks.isEmpty()) {
+                callbacks = new ArrayList<>(drainCallbacks);
+                drainCallbacks.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (callbacks != null) {
+            callbacks.forEach(Runnable::run);
+        }
+    }
+
+    // Descarta a fila e libera quem esperava; retorna true se estava conectado
+    private boolean disconnect() {
+        List<Object> leftovers;
+        List<Runnable> callbacks;
+        boolean wasConnected;
+        lock.lock();
+        try {
+            wasConnected = connected;
+            connected = false;
+            leftovers = new ArrayList<>(queue);
+            queue.clear();
+            pendingBytes = 0;
+            callbacks = new ArrayList<>(drainCallbacks);
+            drainCallbacks.clear();
+            belowLimit.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        releaseFiles(leftovers);
+        callbacks.forEach(Runnable::run);
+        return wasConnected;
+    }
+
+    // --- Codificação dos quadros entre nós ---
+
+    private static byte[] fileBegin(long id, String destination, String sender, String filename, long size) {
+        byte[] dest = destination.getBytes(StandardCharsets.UTF_8);
+        byte[] from = sender.getBytes(StandardCharsets.UTF_8);
+        byte[] name = filename.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = header(ClusterNode.FILE_BEGIN, 8 + 2 + dest.length + 2 + from.length + 2 + name.length + 8);
+        frame.putLong(id);
+        frame.putShort(Protocol.fieldLength(dest)).put(dest);
+        frame.putShort(Protocol.fieldLength(from)).put(from);
+        frame.putShort(Protocol.fieldLength(name)).put(name);
+        frame.putLong(size);
+        return frame.array();
+    }
+
+    private static ByteBuffer header(byte type, int payloadLength) {
+        ByteBuffer frame = ByteBuffer.allocate(Protocol.HEADER_SIZE + payloadLength);
+        frame.put(type).putInt(payloadLength);
+        return frame;
+    }
+}
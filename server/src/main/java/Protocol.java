@@ -0,0 +1,380 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Protocolo binário do chat, alternativa ao protocolo de texto por linhas.
+ *
+ * Cada quadro tem o tipo (1 byte), o tamanho do conteúdo (4 bytes, big endian)
+ * e o conteúdo. Textos são UTF-8; um campo de texto que não é o último do
+ * quadro é precedido pelo seu tamanho em 2 bytes.
+ *
+ * Um cliente binário se identifica enviando MAGIC seguido da versão desejada
+ * (1 byte) antes de qualquer outra coisa, e o servidor responde com HELLO e a
+ * versão aceita. Clientes antigos começam enviando o nome de usuário em texto
+ * e continuam no protocolo de linhas. O conteúdo de um arquivo (SEND_FILE e
+ * RECV_FILE) vem logo após o quadro de cabeçalho como bytes brutos, fora do
+ * tamanho do quadro, para poder ser repassado em blocos ou com cópia zero.
+ *
+ * Versão 2: o HELLO também traz a porta de transferências e um token da
+ * sessão. Arquivos passam a ir por conexões de dados próprias (TransferServer),
+ * em blocos com CRC32C, sem ocupar a conexão do chat; o destinatário recebe
+ * um TRANSFER_OFFER e busca os blocos. Os quadros DATA_* só aparecem nessas
+ * conexões de dados.
+ *
+ * Versão 3: compressão Deflate negociada por conexão. O cliente que envia
+ * COMPRESS passa a poder receber quadros COMPRESSED, cada um com um ou mais
+ * quadros completos comprimidos juntos (lotes de mensagens); o cliente
+ * também pode enviá-los. Nas conexões de dados, blocos que comprimem bem vão
+ * como DATA_CHUNK_DEFLATE.
+ *
+ * Versão 4: heartbeat. O servidor envia PING a um cliente calado há algum
+ * tempo e o cliente responde com PONG (qualquer outro quadro também serve);
+ * sem resposta, a conexão é encerrada (Heartbeat). No protocolo de texto o
+ * ping é a linha "/ping", respondida com "/pong", e só é enviado a clientes
+ * que pediram com a linha "/heartbeat" (os antigos não sabem responder).
+ */
+final class Protocol {
+
+    // Primeiro byte 0 nunca aparece no início de um nome de usuário em texto
+    static final byte[] MAGIC = {0, 'C', 'H', 'T'};
+    static final int VERSION = 4;
+    static final int HEADER_SIZE = 5;
+    // Maior campo de texto com tamanho (prefixo de 2 bytes sem sinal)
+    static final int MAX_FIELD = 0xFFFF;
+    // Maior conteúdo aceito pelo servidor em um quadro ou linha vindos do
+    // cliente (arquivos não contam: vêm fora do quadro). Cabe no buffer de
+    // leitura do modo nio junto com o cabeçalho.
+    static final int MAX_PAYLOAD = 60 * 1024;
+
+    // Cliente -> servidor
+    static final byte LOGIN = 1;         // nome
+    static final byte PRIVATE = 2;       // destinatário, mensagem
+    static final byte GROUP = 3;         // grupo, mensagem
+    static final byte CREATE_GROUP = 4;  // grupo
+    static final byte JOIN_GROUP = 5;    // grupo
+    static final byte SEND_FILE = 6;     // destino (@usuario ou #grupo), nome do arquivo, tamanho (8 bytes)
+    static final byte COMPRESS = 7;      // algoritmo aceito ("deflate"): o servidor pode enviar COMPRESSED
+    static final byte PONG = 8;          // resposta a PING (sem conteúdo)
+
+    // Servidor -> cliente
+    static final byte HELLO = 16;        // versão aceita (1 byte); v2: token, porta de transferências (4 bytes)
+    static final byte MESSAGE = 17;      // texto já formatado
+    static final byte RECV_FILE = 18;    // remetente, nome do arquivo, tamanho (8 bytes)
+    static final byte TRANSFER_OFFER = 19; // id, remetente, nome do arquivo, tamanho (8 bytes), bloco (4 bytes)
+    static final byte PING = 21;         // v4: o cliente deve responder com PONG (sem conteúdo)
+
+    // Nos dois sentidos
+    static final byte COMPRESSED = 20;   // tamanho original (4 bytes), quadros completos comprimidos (sem SEND_FILE/RECV_FILE)
+
+    // Conexões de dados: cliente -> servidor
+    static final byte DATA_ATTACH = 32;   // usuário, token
+    static final byte DATA_UPLOAD = 33;   // chave, destino, nome do arquivo, tamanho (8 bytes), bloco (4 bytes)
+    static final byte DATA_CHUNK = 34;    // índice, tamanho, CRC32C (4 bytes cada); os bytes vêm em seguida (nos dois sentidos)
+    static final byte DATA_DOWNLOAD = 35; // id, opções (1 byte: 1 = aceita DATA_CHUNK_DEFLATE)
+    static final byte DATA_GET = 36;      // primeiro bloco, quantidade (4 bytes cada)
+    static final byte DATA_DONE = 37;     // download concluído (sem conteúdo)
+    static final byte DATA_CHUNK_DEFLATE = 38; // índice, tamanho, CRC32C do original, tamanho comprimido; bytes comprimidos em seguida
+
+    // Conexões de dados: servidor -> cliente
+    static final byte DATA_STATUS = 48;   // id, tamanho (8 bytes), bloco (4 bytes), blocos presentes (bitmap)
+    static final byte DATA_ACK = 49;      // índice (4 bytes), 1 se gravado ou 0 se o CRC não confere
+    static final byte DATA_ERROR = 50;    // texto
+
+    private Protocol() {
+    }
+
+    // --- Codificação ---
+
+    static byte[] handshake() {
+        byte[] hello = new byte[MAGIC.length + 1];
+        System.arraycopy(MAGIC, 0, hello, 0, MAGIC.length);
+        hello[MAGIC.length] = VERSION;
+        return hello;
+    }
+
+    static byte[] hello(int version) {
+        ByteBuffer frame = header(HELLO, 1);
+        frame.put((byte) version);
+        return frame.array();
+    }
+
+    // HELLO da versão 2: token para as conexões de dados e a porta delas (0 sem transferências)
+    static byte[] hello(int version, String token, int transferPort) {
+        byte[] tokenBytes = token.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = header(HELLO, 1 + 2 + tokenBytes.length + 4);
+        frame.put((byte) version).putShort(fieldLength(tokenBytes)).put(tokenBytes).putInt(transferPort);
+        return frame.array();
+    }
+
+    // Quadro com campos de texto prefixados pelo tamanho seguidos de um complemento binário
+    static ByteBuffer fields(byte type, int extra, String... fields) {
+        byte[][] encoded = new byte[fields.length][];
+        int length = extra;
+        for (int i = 0; i < fields.length; i++) {
+            encoded[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+            length += 2 + encoded[i].length;
+        }
+        ByteBuffer frame = header(type, length);
+        for (byte[] field : encoded) {
+            frame.putShort(fieldLength(field)).put(field);
+        }
+        return frame;
+    }
+
+    // Cabeçalho de um bloco de transferência; os bytes do bloco vêm em seguida
+    static byte[] chunkHeader(int index, int length, int crc) {
+        ByteBuffer frame = header(DATA_CHUNK, 12);
+        frame.putInt(index).putInt(length).putInt(crc);
+        return frame.array();
+    }
+
+    // Cabeçalho de um bloco comprimido; os bytes comprimidos vêm em seguida
+    static byte[] deflatedChunkHeader(int index, int length, int crc, int compressedLength) {
+        ByteBuffer frame = header(DATA_CHUNK_DEFLATE, 16);
+        frame.putInt(index).putInt(length).putInt(crc).putInt(compressedLength);
+        return frame.array();
+    }
+
+    /**
+     * Um quadro COMPRESSED com os quadros dados, ou os próprios quadros se
+     * a compressão não compensar.
+     */
+    static byte[] compressed(byte[] frames) {
+        byte[] output = new byte[frames.length];
+        int length = Compression.deflate(frames, 0, frames.length, output);
+        if (length < 0) {
+            return frames;
+        }
+        ByteBuffer frame = header(COMPRESSED, 4 + length);
+        frame.putInt(frames.length).put(output, 0, length);
+        return frame.array();
+    }
+
+    // Quadro com um único campo de texto
+    static byte[] frame(byte type, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = header(type, bytes.length);
+        frame.put(bytes);
+        return frame.array();
+    }
+
+    // Quadro com um único campo de texto: prefixo seguido de text[offset, offset + length), já em UTF-8
+    static byte[] frame(byte type, byte[] prefix, byte[] text, int offset, int length) {
+        ByteBuffer frame = header(type, prefix.length + length);
+        frame.put(prefix).put(text, offset, length);
+        return frame.array();
+    }
+
+    // Quadro com um campo de texto prefixado pelo tamanho e o texto restante
+    static byte[] frame(byte type, String first, String rest) {
+        byte[] firstBytes = first.getBytes(StandardCharsets.UTF_8);
+        byte[] restBytes = rest.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = header(type, 2 + firstBytes.length + restBytes.length);
+        frame.putShort(fieldLength(firstBytes)).put(firstBytes).put(restBytes);
+        return frame.array();
+    }
+
+    // Cabeçalho de arquivo (SEND_FILE ou RECV_FILE); o conteúdo vem em seguida
+    static byte[] fileFrame(byte type, String first, String filename, long size) {
+        byte[] firstBytes = first.getBytes(StandardCharsets.UTF_8);
+        byte[] nameBytes = filename.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = header(type, 2 + firstBytes.length + 2 + nameBytes.length + 8);
+        frame.putShort(fieldLength(firstBytes)).put(firstBytes);
+        frame.putShort(fieldLength(nameBytes)).put(nameBytes);
+        frame.putLong(size);
+        return frame.array();
+    }
+
+    // Linha do protocolo de texto
+    static byte[] textLine(String line) {
+        return (line + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Linha do protocolo de texto: prefixo seguido de text[offset, offset + length), já em UTF-8
+    static byte[] textLine(byte[] prefix, byte[] text, int offset, int length) {
+        byte[] line = new byte[prefix.length + length + 1];
+        System.arraycopy(prefix, 0, line, 0, prefix.length);
+        System.arraycopy(text, offset, line, prefix.length, length);
+        line[line.length - 1] = '\n';
+        return line;
+    }
+
+    /**
+     * Prefixo de tamanho de um campo (2 bytes, lido sem sinal). Um campo
+     * maior não cabe: é recusado em vez de ter o tamanho truncado.
+     */
+    static short fieldLength(byte[] field) {
+        if (field.length > MAX_FIELD) {
+            throw new IllegalArgumentException("Campo de " + field.length + " bytes; o máximo é " + MAX_FIELD);
+        }
+        return (short) field.length;
+    }
+
+    static ByteBuffer header(byte type, int payloadLength) {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + payloadLength);
+        frame.put(type).putInt(payloadLength);
+        return frame;
+    }
+
+    // --- Decodificação (o buffer deve estar posicionado no conteúdo do quadro) ---
+    // Os tamanhos vêm do outro lado: quadros curtos demais são malformados (IOException)
+
+    static void require(ByteBuffer payload, int bytes) throws IOException {
+        if (payload.remaining() < bytes) {
+            throw new IOException("Quadro malformado");
+        }
+    }
+
+    static int readInt(ByteBuffer payload) throws IOException {
+        require(payload, 4);
+        return payload.getInt();
+    }
+
+    static long readLong(ByteBuffer payload) throws IOException {
+        require(payload, 8);
+        return payload.getLong();
+    }
+
+    // Campo de texto prefixado pelo tamanho
+    static String readField(ByteBuffer payload) throws IOException {
+        require(payload, 2);
+        int length = payload.getShort() & 0xFFFF;
+        require(payload, length);
+        String text = new String(payload.array(), payload.arrayOffset() + payload.position(), length, StandardCharsets.UTF_8);
+        payload.position(payload.position() + length);
+        return text;
+    }
+
+    // Todo o restante do conteúdo como texto
+    static String readRest(ByteBuffer payload) {
+        String text = new String(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining(),
+                StandardCharsets.UTF_8);
+        payload.position(payload.limit());
+        return text;
+    }
+
+    /**
+     * Lê um quadro completo de um stream bloqueante. Retorna o conteúdo
+     * posicionado no início; o tipo fica em type[0]. Retorna null no fim do
+     * stream.
+     */
+    static ByteBuffer readFrame(DataInputStream in, byte[] type, int maxPayload) throws IOException {
+        int first = in.read();
+        if (first == -1) {
+            return null;
+        }
+        type[0] = (byte) first;
+        int length = in.readInt();
+        if (length < 0 || length > maxPayload) {
+            throw new IOException("Tamanho de quadro inválido: " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return ByteBuffer.wrap(payload);
+    }
+
+    // Quadros originais de um COMPRESSED (no máximo maxLength bytes), para ler com nextFrame
+    static ByteBuffer inflateFrames(ByteBuffer payload, int maxLength) throws IOException {
+        int length = readInt(payload);
+        if (length < 0 || length > maxLength) {
+            throw new IOException("Tamanho de conteúdo comprimido inválido: " + length);
+        }
+        byte[] frames = new byte[length];
+        Compression.inflate(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining(), frames,
+                length);
+        return ByteBuffer.wrap(frames);
+    }
+
+    // Próximo quadro dentro do conteúdo de um COMPRESSED; o tipo fica em type[0]
+    static ByteBuffer nextFrame(ByteBuffer frames, byte[] type) throws IOException {
+        if (frames.remaining() < HEADER_SIZE) {
+            throw new IOException("Quadro incompleto no conteúdo comprimido");
+        }
+        type[0] = frames.get();
+        int length = frames.getInt();
+        if (length < 0 || length > frames.remaining() || type[0] == COMPRESSED || type[0] == SEND_FILE
+                || type[0] == RECV_FILE) {
+            throw new IOException("Quadro inválido no conteúdo comprimido: " + type[0]);
+        }
+        ByteBuffer payload = ByteBuffer.wrap(frames.array(), frames.arrayOffset() + frames.position(), length).slice();
+        frames.position(frames.position() + length);
+        return payload;
+    }
+
+    /** Buffer de uma linha recebida, interpretada direto do array interno (sem cópia). */
+    static final class LineBuffer extends ByteArrayOutputStream {
+        LineBuffer(int size) {
+            super(size);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    /**
+     * Como readLine, mas deixa a linha (sem o '\n') em line, sem criar uma
+     * String. Retorna false no fim do stream.
+     */
+    static boolean readLineInto(InputStream in, LineBuffer line, int maxLength) throws IOException {
+        line.reset();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                return line.size() > 0;
+            }
+            if (line.size() >= maxLength) {
+                throw new IOException("Linha excede o tamanho máximo");
+            }
+            line.write(b);
+        }
+        return true;
+    }
+
+    /**
+     * Lê uma linha do protocolo de texto (UTF-8, terminada em '\n') direto do
+     * stream, sem ler além do fim da linha: os bytes seguintes podem ser o
+     * conteúdo de um arquivo. Retorna null no fim do stream.
+     */
+    static String readLine(InputStream in, ByteArrayOutputStream line, int maxLength) throws IOException {
+        line.reset();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                if (line.size() == 0) {
+                    return null;
+                }
+                break;
+            }
+            if (line.size() >= maxLength) {
+                throw new IOException("Linha excede o tamanho máximo");
+            }
+            line.write(b);
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // Confirma o restante de MAGIC depois do primeiro byte 0 e devolve a versão pedida
+    static int readHandshake(InputStream in) throws IOException {
+        for (int i = 1; i < MAGIC.length; i++) {
+            if (in.read() != MAGIC[i]) {
+                throw new IOException("Handshake binário inválido");
+            }
+        }
+        int version = in.read();
+        if (version == -1) {
+            throw new EOFException();
+        }
+        return version;
+    }
+}
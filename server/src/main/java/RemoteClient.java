@@ -0,0 +1,70 @@
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Representa, neste nó, um destino que está em outro nó do cluster: um
+ * usuário (@nome) ou os membros de um grupo (#nome) conectados lá. Pode ser
+ * usado onde o servidor espera um ClientHandler (mensagens privadas, grupos,
+ * repasse de arquivos); tudo o que é enviado a ele segue pela conexão com
+ * aquele nó, que entrega aos seus clientes locais.
+ */
+final class RemoteClient extends ClientHandler {
+
+    private final PeerLink link;
+    private final String destination;
+
+    RemoteClient(PeerLink link, String destination) {
+        super(null);
+        this.link = link;
+        this.destination = destination;
+    }
+
+    // Nome do usuário ou do grupo, sem o prefixo
+    @Override
+    public String getUsername() {
+        return destination.substring(1);
+    }
+
+    @Override
+    public void sendMessage(String message) {
+        link.deliver(destination, message);
+    }
+
+    @Override
+    void sendMessage(byte[] prefix, byte[] text, int offset, int length) {
+        link.deliver(destination, new String(prefix, StandardCharsets.UTF_8)
+                + new String(text, offset, length, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    void sendBatch(List<String> messages) {
+        for (String message : messages) {
+            link.deliver(destination, message);
+        }
+    }
+
+    @Override
+    void sendShared(SharedMessage message) {
+        link.deliver(destination, message.text());
+    }
+
+    @Override
+    public void sendFile(String sender, String filename, byte[] fileData) {
+        link.sendFile(destination, sender, filename, fileData, null);
+    }
+
+    @Override
+    void sendSpooledFile(String sender, String filename, FileSpool spool) {
+        link.sendFile(destination, sender, filename, null, spool);
+    }
+
+    @Override
+    boolean relaysWhileReceiving() {
+        return true;
+    }
+
+    @Override
+    FileRelay.Target openFile(String sender, String filename, long filesize) {
+        return link.openFile(destination, sender, filename, filesize);
+    }
+}
@@ -0,0 +1,75 @@
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Entrega assíncrona de eventos do servidor aos observadores registrados.
+ * Quem gera o evento só o coloca em uma fila limitada (nada é feito sem
+ * observadores); a thread "chat-events", criada no primeiro registro, chama
+ * os observadores. Com a fila cheia o evento é descartado e contado.
+ */
+final class ServerEvents {
+
+    private static final int CAPACITY = 1024;
+
+    private static final List<ServerObserver> observers = new CopyOnWriteArrayList<>();
+    private static final BlockingQueue<Consumer<ServerObserver>> queue = new ArrayBlockingQueue<>(CAPACITY);
+    private static final LongAdder dropped = new LongAdder();
+    private static Thread dispatcher;
+
+    private ServerEvents() {
+    }
+
+    static synchronized void register(ServerObserver observer) {
+        observers.add(observer);
+        if (dispatcher == null) {
+            dispatcher = new Thread(ServerEvents::dispatchLoop, "chat-events");
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+        }
+    }
+
+    static void started(String address, int port, String mode) {
+        publish(observer -> observer.serverStarted(address, port, mode));
+    }
+
+    static void connected(String username) {
+        publish(observer -> observer.userConnected(username));
+    }
+
+    static void disconnected(String username) {
+        publish(observer -> observer.userDisconnected(username));
+    }
+
+    // Eventos descartados com a fila cheia
+    static long dropped() {
+        return dropped.sum();
+    }
+
+    private static void publish(Consumer<ServerObserver> event) {
+        if (!observers.isEmpty() && !queue.offer(event)) {
+            dropped.increment();
+        }
+    }
+
+    private static void dispatchLoop() {
+        while (true) {
+            Consumer<ServerObserver> event;
+            try {
+                event = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (ServerObserver observer : observers) {
+                try {
+                    event.accept(observer);
+                } catch (RuntimeException e) {
+                    ServerLog.error("[ERRO] Falha em um observador de eventos: " + e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log do servidor (mensagens como "[CONEXÃO]" e "[ARQUIVO]"), assíncrono e
+ * com limite de taxa. Quem registra só coloca a linha em uma fila; uma thread
+ * própria escreve no console, sem que as threads de clientes disputem o lock
+ * do System.out. Acima de chat.logRate linhas por segundo, ou com a fila
+ * cheia, as linhas são descartadas e contadas, e um resumo é escrito depois.
+ */
+final class ServerLog {
+
+    static final int RATE = Integer.getInteger("chat.logRate", 1000);
+    private static final int CAPACITY = 8192;
+
+    /** Linha aguardando escrita. */
+    private static final class Line {
+        final String text;
+        final boolean error;
+
+        Line(String text, boolean error) {
+            this.text = text;
+            this.error = error;
+        }
+    }
+
+    private static final BlockingQueue<Line> queue = new ArrayBlockingQueue<>(CAPACITY);
+    // Janela de um segundo do limite de taxa
+    private static final AtomicLong window = new AtomicLong();
+    private static final AtomicInteger inWindow = new AtomicInteger();
+    private static final LongAdder suppressed = new LongAdder();
+
+    static {
+        Thread writer = new Thread(ServerLog::writeLoop, "chat-logger");
+        writer.setDaemon(true);
+        writer.start();
+        // Escreve o que ainda estiver na fila quando o servidor encerra
+        Runtime.getRuntime().addShutdownHook(new Thread(ServerLog::flush));
+    }
+
+    private ServerLog() {
+    }
+
+    static void info(String text) {
+        log(text, false);
+    }
+
+    static void error(String text) {
+        log(text, true);
+    }
+
+    private static void log(String text, boolean error) {
+        long second = System.nanoTime() / 1_000_000_000L;
+        long current = window.get();
+        if (second != current && window.compareAndSet(current, second)) {
+            inWindow.set(0);
+        }
+        if (inWindow.incrementAndGet() > RATE || !queue.offer(new Line(text, error))) {
+            suppressed.increment();
+        }
+    }
+
+    // Linhas descartadas pelo limite de taxa ou com a fila cheia
+    static long suppressed() {
+        return suppressed.sum();
+    }
+
+    private static void writeLoop() {
+        List<Line> batch = new ArrayList<>();
+        long reported = 0;
+        while (true) {
+            try {
+                Line first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    write(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            long total = suppressed.sum();
+            if (total > reported) {
+                System.err.println("[LOG] " + (total - reported) + " linhas de log suprimidas (limite de " + RATE
+                        + " por segundo)");
+                reported = total;
+            }
+        }
+    }
+
+    private static synchronized void write(List<Line> lines) {
+        for (Line line : lines) {
+            PrintStream out = line.error ? System.err : System.out;
+            out.println(line.text);
+        }
+    }
+
+    private static void flush() {
+        List<Line> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        write(rest);
+    }
+}
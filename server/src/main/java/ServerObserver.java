@@ -0,0 +1,16 @@
+/**
+ * Interessado em eventos do servidor (início, entrada e saída de usuários).
+ * Os métodos são chamados pela thread de eventos (ServerEvents), nunca pela
+ * thread que atende uma conexão: um observador lento só atrasa outros avisos.
+ */
+interface ServerObserver {
+
+    default void serverStarted(String address, int port, String mode) {
+    }
+
+    default void userConnected(String username) {
+    }
+
+    default void userDisconnected(String username) {
+    }
+}
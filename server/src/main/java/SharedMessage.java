@@ -0,0 +1,47 @@
+/**
+ * Mensagem enviada a muitos destinatários (ex.: mensagem de grupo). É
+ * codificada no máximo uma vez por protocolo (e comprimida no máximo uma
+ * vez), e o mesmo array imutável é entregue à fila de saída de cada membro,
+ * sem cópia nem nova codificação.
+ *
+ * A codificação é preguiçosa e não sincronizada: o objeto é preenchido pela
+ * thread que faz o envio; a fila de saída publica os bytes para quem escreve.
+ */
+final class SharedMessage {
+
+    private final String text;
+    private byte[] textLine;
+    private byte[] frame;
+    private byte[] compressed;
+
+    SharedMessage(String text) {
+        this.text = text;
+    }
+
+    String text() {
+        return text;
+    }
+
+    // Bytes prontos para um cliente do protocolo indicado; não devem ser alterados
+    byte[] encoded(boolean binary) {
+        if (binary) {
+            if (frame == null) {
+                frame = Protocol.frame(Protocol.MESSAGE, text);
+            }
+            return frame;
+        }
+        if (textLine == null) {
+            textLine = Protocol.textLine(text);
+        }
+        return textLine;
+    }
+
+    // Quadro para clientes que aceitam compressão (o próprio quadro se for pequeno ou não comprimir)
+    byte[] compressed() {
+        if (compressed == null) {
+            byte[] plain = encoded(true);
+            compressed = plain.length >= Compression.MIN_SIZE ? Protocol.compressed(plain) : plain;
+        }
+        return compressed;
+    }
+}
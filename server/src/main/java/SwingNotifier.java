@@ -0,0 +1,43 @@
+import java.awt.GraphicsEnvironment;
+
+import javax.swing.JDialog;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+
+/**
+ * Avisos gráficos do servidor (-Dchat.gui=true): mostra uma janela quando o
+ * servidor inicia e quando um usuário se conecta. As janelas não são modais
+ * e são abertas na thread do Swing, então nada espera alguém clicar em OK.
+ * Esta classe só é carregada com a opção ligada: sem ela o servidor não
+ * inicializa o AWT.
+ */
+final class SwingNotifier implements ServerObserver {
+
+    // Registra o notificador se houver ambiente gráfico
+    static void install() {
+        if (GraphicsEnvironment.isHeadless()) {
+            ServerLog.error("[AVISO] chat.gui ignorado: ambiente sem interface gráfica.");
+            return;
+        }
+        ServerEvents.register(new SwingNotifier());
+    }
+
+    @Override
+    public void serverStarted(String address, int port, String mode) {
+        show("Servidor Iniciado !!! (" + address + ":" + port + ", modo " + mode + ")");
+    }
+
+    @Override
+    public void userConnected(String username) {
+        show(username + " conectou-se ao servidor");
+    }
+
+    private static void show(String message) {
+        SwingUtilities.invokeLater(() -> {
+            JDialog dialog = new JOptionPane(message, JOptionPane.INFORMATION_MESSAGE).createDialog("Chat");
+            dialog.setModal(false);
+            dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+            dialog.setVisible(true);
+        });
+    }
+}
@@ -0,0 +1,643 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
+
+/**
+ * Transferências de arquivos em blocos, por conexões de dados próprias
+ * (porta chat.transferPort) separadas das conexões do chat: um arquivo de
+ * vários GB não atrasa as mensagens de ninguém.
+ *
+ * O remetente envia os blocos, cada um com seu CRC32C, por uma ou mais
+ * conexões em paralelo. O servidor confere o CRC, grava o bloco na sua
+ * posição do arquivo e só então o anota no diário e confirma (DATA_ACK).
+ * Uma transferência interrompida continua a partir dos blocos confirmados,
+ * inclusive depois de o servidor reiniciar.
+ *
+ * Com o arquivo completo, destinatários com o protocolo 2 recebem um
+ * TRANSFER_OFFER e buscam os blocos da mesma forma (em paralelo e
+ * retomável). Os demais (protocolo de texto, versão 1 ou usuários de outro
+ * nó do cluster) recebem o arquivo pela conexão do chat, lido do disco.
+ *
+ * Blocos enviados comprimidos (DATA_CHUNK_DEFLATE) são guardados também
+ * comprimidos, em um arquivo à parte: cada destinatário que aceita
+ * compressão recebe esses mesmos bytes, sem o servidor comprimir de novo.
+ */
+final class TransferServer {
+
+    // Porta das conexões de dados (padrão: porta do chat + 1000)
+    static final int PORT = Integer.getInteger("chat.transferPort", Integer.getInteger("chat.port", 55555) + 1000);
+    // Transferências sem atividade por mais tempo que isto são descartadas
+    static final long TTL_MILLIS = Long.getLong("chat.transferTtlMinutes", 60) * 60_000;
+    // Limites do tamanho e da quantidade de blocos (o bitmap cabe em um quadro)
+    static final int MIN_CHUNK_SIZE = 64 * 1024;
+    static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+    static final int MAX_CHUNKS = 256 * 1024;
+
+    private static final String DATA_SUFFIX = ".part";
+    private static final String DEFLATED_SUFFIX = ".deflate";
+    private static final String JOURNAL_SUFFIX = ".journal";
+    // Entrada do diário: índice, CRC32C, posição (8 bytes) e tamanho da cópia comprimida (0 se não há)
+    private static final int JOURNAL_ENTRY = 20;
+
+    /** Arquivo em transferência: recebido do remetente e depois buscado pelos destinatários. */
+    private final class Upload {
+        final String id;
+        final String sender;
+        final String dest;
+        final String filename;
+        final long size;
+        final int chunkSize;
+        final int chunkCount;
+        final Path dataPath;
+        final Path journalPath;
+        final Path deflatedPath;
+        final FileChannel data;
+        final FileChannel journal;
+        final FileChannel deflated;
+        final BitSet received;
+        final int[] crcs;
+        // Cópia comprimida de cada bloco em deflated (tamanho 0: só o original)
+        final long[] deflatedOffsets;
+        final int[] deflatedLengths;
+        long deflatedSize;
+        int missing;
+        boolean delivered;
+        // Destinatários que ainda vão buscar o arquivo
+        final Set<String> pendingDownloads = ConcurrentHashMap.newKeySet();
+        // Conexões de dados usando esta transferência (não é descartada enquanto houver)
+        final AtomicInteger connections = new AtomicInteger();
+        volatile long lastUse = System.currentTimeMillis();
+
+        Upload(String id, String sender, String dest, String filename, long size, int chunkSize) throws IOException {
+            this.id = id;
+            this.sender = sender;
+            this.dest = dest;
+            this.filename = filename;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+            this.dataPath = dir.resolve(id + DATA_SUFFIX);
+            this.journalPath = dir.resolve(id + JOURNAL_SUFFIX);
+            this.deflatedPath = dir.resolve(id + DEFLATED_SUFFIX);
+            this.received = new BitSet(chunkCount);
+            this.crcs = new int[chunkCount];
+            this.deflatedOffsets = new long[chunkCount];
+            this.deflatedLengths = new int[chunkCount];
+            this.data = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.deflated = FileChannel.open(deflatedPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            replayJournal();
+        }
+
+        // Blocos confirmados antes de uma queda (do cliente ou do servidor)
+        private void replayJournal() throws IOException {
+            long length = journal.size() - journal.size() % JOURNAL_ENTRY;
+            ByteBuffer entries = ByteBuffer.allocate((int) Math.min(length, (long) MAX_CHUNKS * JOURNAL_ENTRY));
+            while (entries.hasRemaining() && journal.read(entries, entries.position()) > 0) {
+                // lê até encher
+            }
+            entries.flip();
+            while (entries.remaining() >= JOURNAL_ENTRY) {
+                int index = entries.getInt();
+                int crc = entries.getInt();
+                long offset = entries.getLong();
+                int compressedLength = entries.getInt();
+                if (index >= 0 && index < chunkCount) {
+                    received.set(index);
+                    crcs[index] = crc;
+                    deflatedOffsets[index] = offset;
+                    deflatedLengths[index] = compressedLength;
+                    deflatedSize = Math.max(deflatedSize, offset + compressedLength);
+                }
+            }
+            // Entrada incompleta no fim (queda durante a escrita) é descartada
+            journal.truncate(length);
+            journal.position(length);
+            missing = chunkCount - received.cardinality();
+        }
+
+        int chunkLength(int index) {
+            return (int) Math.min(chunkSize, size - (long) index * chunkSize);
+        }
+
+        synchronized boolean isComplete() {
+            return missing == 0;
+        }
+
+        synchronized byte[] status() {
+            byte[] bitmap = Arrays.copyOf(received.toByteArray(), (chunkCount + 7) / 8);
+            ByteBuffer frame = Protocol.fields(Protocol.DATA_STATUS, 12 + bitmap.length, id);
+            frame.putLong(size).putInt(chunkSize).put(bitmap);
+            return frame.array();
+        }
+
+        // Espaço para a cópia comprimida de um bloco no fim de deflated
+        synchronized long reserveDeflated(int length) {
+            long offset = deflatedSize;
+            deflatedSize += length;
+            return offset;
+        }
+
+        /**
+         * Registra um bloco já gravado no arquivo (e a cópia comprimida, se
+         * deflatedLength > 0). Retorna true se foi o último que faltava (só
+         * uma conexão recebe true).
+         */
+        synchronized boolean confirm(int index, int crc, long deflatedOffset, int deflatedLength) throws IOException {
+            if (received.get(index)) {
+                return false;
+            }
+            // Com chat.fsync o bloco chega ao disco antes de entrar no diário
+            if (MessageLog.FSYNC) {
+                data.force(false);
+                if (deflatedLength > 0) {
+                    deflated.force(false);
+                }
+            }
+            ByteBuffer entry = ByteBuffer.allocate(JOURNAL_ENTRY).putInt(index).putInt(crc).putLong(deflatedOffset)
+                    .putInt(deflatedLength);
+            entry.flip();
+            while (entry.hasRemaining()) {
+                journal.write(entry);
+            }
+            if (MessageLog.FSYNC) {
+                journal.force(false);
+            }
+            received.set(index);
+            crcs[index] = crc;
+            deflatedOffsets[index] = deflatedOffset;
+            deflatedLengths[index] = deflatedLength;
+            return --missing == 0;
+        }
+
+        // Oferta enviada aos destinatários pela conexão do chat
+        byte[] offer() {
+            ByteBuffer frame = Protocol.fields(Protocol.TRANSFER_OFFER, 12, id, sender, filename);
+            frame.putLong(size).putInt(chunkSize);
+            return frame.array();
+        }
+
+        void close() {
+            try {
+                data.close();
+                journal.close();
+                deflated.close();
+            } catch (IOException e) {
+                ServerLog.error("[ERRO] Falha ao fechar a transferência '" + filename + "': " + e.getMessage());
+            }
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final Path dir;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final AtomicInteger nextThread = new AtomicInteger();
+
+    TransferServer(String host, int port, Path dir) {
+        this.host = host;
+        this.port = port;
+        this.dir = dir;
+    }
+
+    int port() {
+        return port;
+    }
+
+    // Transferências em andamento ou aguardando downloads
+    int pending() {
+        return uploads.size();
+    }
+
+    // Token de uma sessão do chat, apresentado pelas conexões de dados dela
+    String newToken() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(32);
+        for (byte b : bytes) {
+            token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return token.toString();
+    }
+
+    static boolean tokenMatches(String expected, String token) {
+        return expected != null && !expected.isEmpty() && MessageDigest.isEqual(
+                expected.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Abre a porta de dados e inicia as threads de aceitação e de limpeza.
+     * Arquivos de transferências antigas (mais que o TTL) são apagados.
+     */
+    void start() throws IOException {
+        Files.createDirectories(dir);
+        removeExpiredFiles();
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(host, port), ChatServer.BACKLOG);
+        Thread acceptor = new Thread(() -> acceptLoop(serverChannel), "transfer-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        Thread cleaner = new Thread(this::cleanupLoop, "transfer-cleanup");
+        cleaner.setDaemon(true);
+        cleaner.start();
+        ServerLog.info("[ARQUIVO] Transferências em blocos na porta " + port + " (arquivos em " + dir + ")");
+    }
+
+    private void acceptLoop(ServerSocketChannel serverChannel) {
+        try (ServerSocketChannel server = serverChannel) {
+            while (true) {
+                SocketChannel channel = server.accept();
+                // O limite de conexões do servidor vale também para as de dados
+                if (!Admission.admit(channel)) {
+                    continue;
+                }
+                Thread worker = new Thread(() -> serve(channel), "transfer-" + nextThread.incrementAndGet());
+                worker.setDaemon(true);
+                worker.start();
+            }
+        } catch (IOException e) {
+            ServerLog.error("[ERRO] Porta de transferências encerrada: " + e.getMessage());
+        }
+    }
+
+    // Uma conexão de dados: ATTACH e depois um UPLOAD ou DOWNLOAD
+    private void serve(SocketChannel channel) {
+        Upload upload = null;
+        try (SocketChannel connection = channel) {
+            connection.socket().setTcpNoDelay(true);
+            // ATTACH e o pedido chegam dentro do prazo do login, ou a thread é liberada
+            connection.socket().setSoTimeout((int) Math.min(Admission.HANDSHAKE_TIMEOUT_MILLIS, Integer.MAX_VALUE));
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(connection.socket().getInputStream(), FileRelay.CHUNK_SIZE));
+            byte[] type = new byte[1];
+            ByteBuffer payload = Protocol.readFrame(in, type, Protocol.MAX_PAYLOAD);
+            if (payload == null) {
+                return;
+            }
+            if (type[0] != Protocol.DATA_ATTACH) {
+                throw new IOException("Quadro DATA_ATTACH esperado");
+            }
+            String user = Protocol.readField(payload);
+            ClientHandler client = ChatServer.getLocalClient(user);
+            if (client == null || !client.checkTransferToken(Protocol.readRest(payload))) {
+                send(connection, Protocol.frame(Protocol.DATA_ERROR, "Sessão do chat inválida ou encerrada."));
+                return;
+            }
+            payload = Protocol.readFrame(in, type, Protocol.MAX_PAYLOAD);
+            if (payload == null) {
+                return;
+            }
+            connection.socket().setSoTimeout(0);
+            if (type[0] == Protocol.DATA_UPLOAD) {
+                upload = openUpload(connection, client, payload);
+                if (upload != null) {
+                    receiveChunks(connection, in, upload);
+                }
+            } else if (type[0] == Protocol.DATA_DOWNLOAD) {
+                String id = Protocol.readField(payload);
+                boolean deflate = payload.hasRemaining() && (payload.get() & 1) != 0;
+                upload = openDownload(connection, user, id);
+                if (upload != null) {
+                    sendChunks(connection, in, upload, user, deflate);
+                }
+            } else {
+                throw new IOException("Quadro inesperado na conexão de dados: " + type[0]);
+            }
+        } catch (SocketTimeoutException e) {
+            Metrics.handshakeTimeouts.increment();
+        } catch (IOException e) {
+            // Conexão de dados encerrada (ou quadro malformado): a transferência pode ser retomada
+        } catch (RuntimeException e) {
+            ServerLog.error("[ERRO] Falha na conexão de dados: " + e);
+        } finally {
+            Admission.release();
+            if (upload != null) {
+                upload.connections.decrementAndGet();
+                upload.lastUse = System.currentTimeMillis();
+            }
+        }
+    }
+
+    // --- Envio do remetente para o servidor ---
+
+    private Upload openUpload(SocketChannel connection, ClientHandler sender, ByteBuffer request) throws IOException {
+        String key = Protocol.readField(request);
+        String dest = Protocol.readField(request);
+        String filename = Protocol.readField(request);
+        long size = Protocol.readLong(request);
+        int chunkSize = Protocol.readInt(request);
+        if (size < 0 || chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE
+                || (size + chunkSize - 1) / chunkSize > MAX_CHUNKS) {
+            send(connection, Protocol.frame(Protocol.DATA_ERROR, "Tamanho de arquivo ou de bloco inválido."));
+            return null;
+        }
+        if (!Admission.acceptsFileSize(size)) {
+            Metrics.rejectedFiles.increment();
+            String error = "[ERRO] Arquivo recusado: o tamanho máximo é " + Admission.MAX_FILE_SIZE + " bytes.";
+            sender.sendMessage(error);
+            send(connection, Protocol.frame(Protocol.DATA_ERROR, error));
+            return null;
+        }
+        String error = ChatServer.checkFileDestination(dest, sender);
+        if (error != null) {
+            sender.sendMessage(error);
+            send(connection, Protocol.frame(Protocol.DATA_ERROR, error));
+            return null;
+        }
+        // O mesmo arquivo do mesmo remetente sempre cai na mesma transferência
+        String id = UUID.nameUUIDFromBytes((sender.getUsername() + '\0' + key).getBytes(StandardCharsets.UTF_8))
+                .toString();
+        Upload upload;
+        synchronized (uploads) {
+            upload = uploads.get(id);
+            if (upload == null) {
+                upload = new Upload(id, sender.getUsername(), dest, filename, size, chunkSize);
+                uploads.put(id, upload);
+                ServerLog.info("[ARQUIVO] Recebendo '" + filename + "' (" + size + " bytes, "
+                        + upload.chunkCount + " blocos, " + (upload.chunkCount - upload.missing)
+                        + " já recebidos) de " + sender.getUsername());
+            } else if (upload.size != size || upload.chunkSize != chunkSize || !upload.dest.equals(dest)) {
+                // Retomada só do mesmo arquivo para o mesmo destino
+                send(connection, Protocol.frame(Protocol.DATA_ERROR,
+                        "Transferência existente com outro tamanho ou destino."));
+                return null;
+            }
+            upload.connections.incrementAndGet();
+        }
+        send(connection, upload.status());
+        // Todos os blocos já estavam no servidor (retomada após uma queda na entrega)
+        if (upload.isComplete()) {
+            deliver(upload);
+        }
+        return upload;
+    }
+
+    private void receiveChunks(SocketChannel connection, DataInputStream in, Upload upload) throws IOException {
+        byte[] buffer = new byte[upload.chunkSize];
+        byte[] compressed = null;
+        CRC32C checksum = new CRC32C();
+        byte[] type = new byte[1];
+        ByteBuffer header;
+        while ((header = Protocol.readFrame(in, type, Protocol.MAX_PAYLOAD)) != null) {
+            if (type[0] != Protocol.DATA_CHUNK && type[0] != Protocol.DATA_CHUNK_DEFLATE) {
+                throw new IOException("Quadro DATA_CHUNK esperado");
+            }
+            int index = Protocol.readInt(header);
+            int length = Protocol.readInt(header);
+            int crc = Protocol.readInt(header);
+            int compressedLength = type[0] == Protocol.DATA_CHUNK_DEFLATE ? Protocol.readInt(header) : 0;
+            if (index < 0 || index >= upload.chunkCount || length != upload.chunkLength(index)
+                    || compressedLength < 0 || compressedLength > length) {
+                throw new IOException("Bloco inválido: " + index);
+            }
+            boolean valid = true;
+            if (compressedLength > 0) {
+                if (compressed == null) {
+                    compressed = new byte[upload.chunkSize];
+                }
+                in.readFully(compressed, 0, compressedLength);
+                Metrics.bytesIn.add(compressedLength);
+                try {
+                    Compression.inflate(compressed, 0, compressedLength, buffer, length);
+                } catch (IOException e) {
+                    valid = false;
+                }
+            } else {
+                in.readFully(buffer, 0, length);
+                Metrics.bytesIn.add(length);
+            }
+            upload.lastUse = System.currentTimeMillis();
+            if (valid) {
+                checksum.reset();
+                checksum.update(buffer, 0, length);
+                valid = (int) checksum.getValue() == crc;
+            }
+            boolean last = false;
+            if (valid) {
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, length);
+                long position = (long) index * upload.chunkSize;
+                while (chunk.hasRemaining()) {
+                    position += upload.data.write(chunk, position);
+                }
+                // A cópia comprimida é servida como veio a quem aceita compressão
+                long deflatedOffset = 0;
+                if (compressedLength > 0) {
+                    deflatedOffset = upload.reserveDeflated(compressedLength);
+                    ByteBuffer copy = ByteBuffer.wrap(compressed, 0, compressedLength);
+                    for (long at = deflatedOffset; copy.hasRemaining(); ) {
+                        at += upload.deflated.write(copy, at);
+                    }
+                }
+                last = upload.confirm(index, crc, deflatedOffset, compressedLength);
+            }
+            ByteBuffer ack = Protocol.header(Protocol.DATA_ACK, 5);
+            ack.putInt(index).put((byte) (valid ? 1 : 0));
+            send(connection, ack.array());
+            if (last) {
+                deliver(upload);
+            }
+        }
+    }
+
+    /**
+     * Arquivo completo: oferece aos destinatários com protocolo 2 e envia
+     * pela conexão do chat aos demais.
+     */
+    private void deliver(Upload upload) {
+        synchronized (upload) {
+            if (upload.delivered) {
+                return;
+            }
+            upload.delivered = true;
+        }
+        Metrics.files.increment();
+        Metrics.fileSizes.record(upload.size);
+        List<ClientHandler> legacy = new ArrayList<>();
+        int offered = 0;
+        byte[] offer = upload.offer();
+        for (ClientHandler recipient : ChatServer.fileRecipients(upload.dest, upload.sender)) {
+            if (recipient.protocolVersion() >= 2) {
+                upload.pendingDownloads.add(recipient.getUsername());
+                recipient.sendOffer(offer);
+                offered++;
+            } else {
+                legacy.add(recipient);
+            }
+        }
+        if (!legacy.isEmpty()) {
+            try {
+                FileSpool spool = new FileSpool(upload.dataPath);
+                for (ClientHandler recipient : legacy) {
+                    spool.retain();
+                    recipient.sendSpooledFile(upload.sender, upload.filename, spool);
+                }
+                spool.release();
+            } catch (IOException e) {
+                ServerLog.error("[ERRO] Falha ao abrir '" + upload.filename + "' para envio: " + e.getMessage());
+            }
+        }
+        ServerLog.info("[ARQUIVO] '" + upload.filename + "' de " + upload.sender + " recebido; oferecido a " + offered
+                + " e enviado pelo chat a " + legacy.size() + " destinatário(s)");
+        if (upload.pendingDownloads.isEmpty()) {
+            discard(upload);
+        }
+    }
+
+    // Reenvia as ofertas ainda não buscadas a um destinatário que voltou
+    void offerPending(ClientHandler client) {
+        if (client.protocolVersion() < 2) {
+            return;
+        }
+        for (Upload upload : uploads.values()) {
+            if (upload.pendingDownloads.contains(client.getUsername())) {
+                client.sendOffer(upload.offer());
+            }
+        }
+    }
+
+    // --- Busca pelos destinatários ---
+
+    private Upload openDownload(SocketChannel connection, String user, String id) throws IOException {
+        Upload upload = uploads.get(id);
+        if (upload == null || !upload.isComplete() || !upload.pendingDownloads.contains(user)) {
+            send(connection, Protocol.frame(Protocol.DATA_ERROR, "Transferência não encontrada ou expirada."));
+            return null;
+        }
+        upload.connections.incrementAndGet();
+        send(connection, upload.status());
+        return upload;
+    }
+
+    /**
+     * Atende pedidos de blocos (DATA_GET) até o cliente fechar a conexão ou
+     * avisar que terminou (DATA_DONE). Os bytes vão do arquivo direto para o
+     * socket (transferTo), com o CRC guardado no recebimento; com deflate, a
+     * cópia comprimida do bloco quando houver.
+     */
+    private void sendChunks(SocketChannel connection, DataInputStream in, Upload upload, String user,
+            boolean deflate) throws IOException {
+        byte[] type = new byte[1];
+        ByteBuffer request;
+        while ((request = Protocol.readFrame(in, type, Protocol.MAX_PAYLOAD)) != null) {
+            if (type[0] == Protocol.DATA_DONE) {
+                upload.pendingDownloads.remove(user);
+                ServerLog.info("[ARQUIVO] '" + upload.filename + "' entregue a " + user);
+                if (upload.pendingDownloads.isEmpty()) {
+                    discard(upload);
+                }
+                return;
+            }
+            if (type[0] != Protocol.DATA_GET) {
+                throw new IOException("Quadro DATA_GET esperado");
+            }
+            int first = Protocol.readInt(request);
+            int count = Protocol.readInt(request);
+            if (first < 0 || count < 0 || first > upload.chunkCount - count) {
+                throw new IOException("Intervalo de blocos inválido");
+            }
+            for (int index = first; index < first + count; index++) {
+                int length = upload.chunkLength(index);
+                int compressedLength = deflate ? upload.deflatedLengths[index] : 0;
+                FileChannel source;
+                long position;
+                long end;
+                if (compressedLength > 0) {
+                    send(connection, Protocol.deflatedChunkHeader(index, length, upload.crcs[index], compressedLength));
+                    source = upload.deflated;
+                    position = upload.deflatedOffsets[index];
+                    end = position + compressedLength;
+                    Metrics.compressedBytes.add(compressedLength);
+                    Metrics.uncompressedBytes.add(length);
+                } else {
+                    send(connection, Protocol.chunkHeader(index, length, upload.crcs[index]));
+                    source = upload.data;
+                    position = (long) index * upload.chunkSize;
+                    end = position + length;
+                }
+                Metrics.bytesOut.add(end - position);
+                while (position < end) {
+                    position += source.transferTo(position, end - position, connection);
+                }
+                upload.lastUse = System.currentTimeMillis();
+            }
+        }
+    }
+
+    // --- Limpeza ---
+
+    private void discard(Upload upload) {
+        uploads.remove(upload.id, upload);
+        upload.close();
+        try {
+            Files.deleteIfExists(upload.dataPath);
+            Files.deleteIfExists(upload.journalPath);
+            Files.deleteIfExists(upload.deflatedPath);
+        } catch (IOException e) {
+            ServerLog.error("[ERRO] Falha ao apagar a transferência '" + upload.filename + "': " + e.getMessage());
+        }
+    }
+
+    private void cleanupLoop() {
+        while (true) {
+            try {
+                Thread.sleep(Math.min(TTL_MILLIS, 60_000));
+            } catch (InterruptedException e) {
+                return;
+            }
+            long limit = System.currentTimeMillis() - TTL_MILLIS;
+            for (Upload upload : uploads.values()) {
+                if (upload.connections.get() == 0 && upload.lastUse < limit) {
+                    ServerLog.info("[ARQUIVO] Transferência de '" + upload.filename + "' de " + upload.sender
+                            + " expirou.");
+                    discard(upload);
+                }
+            }
+        }
+    }
+
+    // Arquivos deixados por execuções anteriores e não usados dentro do TTL
+    private void removeExpiredFiles() throws IOException {
+        long limit = System.currentTimeMillis() - TTL_MILLIS;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).toMillis() < limit) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static void send(SocketChannel connection, byte[] frame) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        while (buffer.hasRemaining()) {
+            connection.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/** Limites de envio (TokenBucket no formato GCRA) e o tamanho cobrado das mensagens. */
+class AdmissionTest {
+
+    private static final long SECOND = 1_000_000_000L;
+    // Um instante qualquer: o bucket só compara instantes entre si
+    private static final long T = 123 * SECOND;
+
+    @Test
+    void burstThenRefuse() {
+        Admission.TokenBucket bucket = new Admission.TokenBucket(10, 1.0);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(bucket.tryAcquire(1, T), "envio " + i);
+        }
+        assertFalse(bucket.tryAcquire(1, T));
+        // Cada 100 ms devolvem um envio
+        assertFalse(bucket.tryAcquire(1, T + SECOND / 10 - 1));
+        assertTrue(bucket.tryAcquire(1, T + SECOND / 10));
+        assertFalse(bucket.tryAcquire(1, T + SECOND / 10));
+    }
+
+    @Test
+    void refillsAfterIdle() {
+        Admission.TokenBucket bucket = new Admission.TokenBucket(10, 1.0);
+        for (int i = 0; i < 10; i++) {
+            bucket.tryAcquire(1, T);
+        }
+        // Parado por muito tempo, o saldo não passa da rajada
+        long later = T + 60 * SECOND;
+        for (int i = 0; i < 10; i++) {
+            assertTrue(bucket.tryAcquire(1, later));
+        }
+        assertFalse(bucket.tryAcquire(1, later));
+    }
+
+    @Test
+    void oversizedSendPassesWhenFull() {
+        Admission.TokenBucket bytes = new Admission.TokenBucket(1000, 1.0);
+        // 5 s de saldo de uma vez: passa, e o bucket fica em débito
+        assertTrue(bytes.tryAcquire(5000, T));
+        // Um byte custa 1 ms: volta a passar quando o débito cabe na rajada
+        assertFalse(bytes.tryAcquire(1, T + 4 * SECOND));
+        assertTrue(bytes.tryAcquire(1, T + 4 * SECOND + SECOND / 1000));
+    }
+
+    @Test
+    void refusedSendsCostNothing() {
+        Admission.TokenBucket bucket = new Admission.TokenBucket(10, 1.0);
+        for (int i = 0; i < 10; i++) {
+            bucket.tryAcquire(1, T);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertFalse(bucket.tryAcquire(1, T));
+        }
+        assertTrue(bucket.tryAcquire(1, T + SECOND / 10));
+    }
+
+    @Test
+    void concurrentSendsShareTheBurst() throws InterruptedException {
+        Admission.TokenBucket bucket = new Admission.TokenBucket(100, 1.0);
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 50; i++) {
+                    if (bucket.tryAcquire(1, T)) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(100, accepted.get());
+    }
+
+    @Test
+    void fileSizeLimit() {
+        assertTrue(Admission.acceptsFileSize(0));
+        assertTrue(Admission.acceptsFileSize(Admission.MAX_FILE_SIZE));
+        assertFalse(Admission.acceptsFileSize(Admission.MAX_FILE_SIZE + 1));
+        assertFalse(Admission.acceptsFileSize(-1));
+    }
+
+    @Test
+    void messagesAreChargedInUtf8Bytes() {
+        for (String text : new String[] {"", "olá", "reunião às dez", "preço: 10 €", "👍 combinado", "日本語のテキスト"}) {
+            assertEquals(text.getBytes(StandardCharsets.UTF_8).length, ChatServer.utf8Length(text), text);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** Quadros do protocolo binário recebidos por ClientHandler.handleFrame, inteiros e cortados. */
+class ClientHandlerTest {
+
+    private ClientHandler alice;
+    private ClientHandler bob;
+
+    @BeforeEach
+    void connect() throws IOException {
+        TestClients.useHistory(new GroupHistory(null));
+        alice = TestClients.connectBinary("frame-alice");
+        bob = TestClients.connectBinary("frame-bob");
+        ChatServer.createGroup("frame-sala", bob);
+        ChatServer.joinGroup("frame-sala", alice);
+        TestClients.received(alice);
+        TestClients.received(bob);
+    }
+
+    @AfterEach
+    void disconnect() {
+        TestClients.disconnect(alice, bob);
+    }
+
+    // Conteúdo de um quadro (sem o cabeçalho) cortado em length bytes
+    private static ByteBuffer payload(byte[] frame, int length) {
+        return ByteBuffer.wrap(Arrays.copyOfRange(frame, Protocol.HEADER_SIZE, Protocol.HEADER_SIZE + length));
+    }
+
+    private static ByteBuffer payload(byte[] frame) {
+        return payload(frame, frame.length - Protocol.HEADER_SIZE);
+    }
+
+    @Test
+    void privateFrameIsDelivered() throws IOException {
+        alice.handleFrame(Protocol.PRIVATE, payload(Protocol.frame(Protocol.PRIVATE, "frame-bob", "olá")));
+        assertEquals(List.of("[PRIVADO de frame-alice]: olá"), TestClients.received(bob));
+    }
+
+    @Test
+    void groupFrameIsDelivered() throws IOException {
+        alice.handleFrame(Protocol.GROUP, payload(Protocol.frame(Protocol.GROUP, "frame-sala", "olá")));
+        assertEquals(List.of("[GRUPO frame-sala de frame-alice]: olá"), TestClients.received(bob));
+    }
+
+    @Test
+    void truncatedNameIsMalformed() throws IOException {
+        for (byte type : new byte[] {Protocol.PRIVATE, Protocol.GROUP}) {
+            byte[] frame = Protocol.frame(type, type == Protocol.PRIVATE ? "frame-bob" : "frame-sala", "");
+            // Até o nome inteiro; com ele, o texto vazio é um quadro válido
+            for (int length = 0; length < frame.length - Protocol.HEADER_SIZE; length++) {
+                ByteBuffer payload = payload(frame, length);
+                assertThrows(IOException.class, () -> alice.handleFrame(type, payload), type + " cortado em " + length);
+            }
+        }
+        assertTrue(TestClients.received(bob).isEmpty());
+    }
+
+    @Test
+    void truncatedFileHeaderIsMalformed() {
+        byte[] frame = Protocol.fileFrame(Protocol.SEND_FILE, "@frame-bob", "relatório.pdf", 1024);
+        for (int length = 0; length < frame.length - Protocol.HEADER_SIZE; length++) {
+            ByteBuffer payload = payload(frame, length);
+            assertThrows(IOException.class, () -> alice.handleFrame(Protocol.SEND_FILE, payload), "cortado em " + length);
+        }
+    }
+
+    @Test
+    void truncatedFrameInsideCompressedIsMalformed() throws IOException {
+        byte[] inner = Protocol.frame(Protocol.PRIVATE, "frame-bob", "mensagem comprimida junto com outras ".repeat(8));
+        byte[] compressed = Protocol.compressed(Arrays.copyOf(inner, inner.length - 1));
+        assertEquals(Protocol.COMPRESSED, compressed[0]);
+        assertThrows(IOException.class, () -> alice.handleFrame(Protocol.COMPRESSED, payload(compressed)));
+        // Um tamanho original acima do máximo é recusado antes de descomprimir
+        ByteBuffer oversized = payload(compressed);
+        oversized.putInt(0, Protocol.MAX_PAYLOAD + 1);
+        assertThrows(IOException.class, () -> alice.handleFrame(Protocol.COMPRESSED, oversized));
+        assertTrue(TestClients.received(bob).isEmpty());
+    }
+
+    @Test
+    void unknownTypeIsIgnored() throws IOException {
+        alice.handleFrame((byte) 99, ByteBuffer.allocate(3));
+        assertTrue(TestClients.received(alice).isEmpty());
+    }
+}
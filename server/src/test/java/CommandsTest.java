@@ -0,0 +1,91 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** Linhas do protocolo de texto interpretadas por Commands.dispatch. */
+class CommandsTest {
+
+    private ClientHandler alice;
+    private ClientHandler bob;
+
+    @BeforeEach
+    void connect() {
+        TestClients.useHistory(new GroupHistory(null));
+        alice = TestClients.connect("cmd-alice");
+        bob = TestClients.connect("cmd-bob");
+    }
+
+    @AfterEach
+    void disconnect() {
+        TestClients.disconnect(alice, bob);
+    }
+
+    // A linha com um prefixo e um sufixo em volta, como no buffer de leitura
+    private static void dispatch(ClientHandler client, String line) throws IOException {
+        byte[] bytes = ("lixo" + line + "\nresto").getBytes(StandardCharsets.UTF_8);
+        int start = "lixo".length();
+        Commands.dispatch(client, bytes, start, start + line.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    void privateMessage() throws IOException {
+        dispatch(alice, "@cmd-bob:olá: tudo bem?");
+        assertEquals(List.of("[PRIVADO de cmd-alice]: olá: tudo bem?"), TestClients.received(bob));
+        assertTrue(TestClients.received(alice).isEmpty());
+    }
+
+    @Test
+    void privateMessageToUnknownUser() throws IOException {
+        dispatch(alice, "@ninguem:olá");
+        assertEquals(List.of("[ERRO] Usuário 'ninguem' não encontrado ou offline."), TestClients.received(alice));
+    }
+
+    @Test
+    void createJoinAndSendToGroup() throws IOException {
+        dispatch(alice, "/creategroup  cmd-sala \r");
+        assertEquals(List.of("[INFO] Grupo 'cmd-sala' criado com sucesso!"), TestClients.received(alice));
+        dispatch(alice, "/creategroup cmd-sala");
+        assertEquals(List.of("[ERRO] Grupo 'cmd-sala' já existe."), TestClients.received(alice));
+
+        dispatch(bob, "/joingroup cmd-sala");
+        assertTrue(TestClients.received(bob).stream().anyMatch(m -> m.contains("cmd-sala")));
+        dispatch(bob, "/joingroup cmd-sala");
+        assertEquals(List.of("[INFO] Você já é membro do grupo 'cmd-sala'."), TestClients.received(bob));
+
+        dispatch(alice, "#cmd-sala:reunião às dez");
+        assertEquals(List.of("[GRUPO cmd-sala de cmd-alice]: reunião às dez"), TestClients.received(bob));
+    }
+
+    @Test
+    void joinUnknownGroup() throws IOException {
+        dispatch(alice, "/joingroup cmd-nenhum");
+        assertEquals(List.of("[ERRO] Grupo 'cmd-nenhum' não encontrado."), TestClients.received(alice));
+    }
+
+    @Test
+    void groupMessageFromNonMember() throws IOException {
+        dispatch(bob, "/creategroup cmd-fechado");
+        TestClients.received(bob);
+        dispatch(alice, "#cmd-fechado:olá");
+        assertEquals(List.of("[ERRO] Você não pode enviar mensagem para o grupo 'cmd-fechado'."),
+                TestClients.received(alice));
+        assertTrue(TestClients.received(bob).isEmpty());
+    }
+
+    @Test
+    void malformedLinesAreIgnored() throws IOException {
+        for (String line : new String[] {"", "\r", "@cmd-bob sem dois pontos", "#sem-dois-pontos", "/creategroup",
+                "/joingroup", "/desconhecido arg", "/", "texto solto", "ção"}) {
+            dispatch(alice, line);
+        }
+        assertTrue(TestClients.received(alice).isEmpty());
+        assertTrue(TestClients.received(bob).isEmpty());
+    }
+}
@@ -0,0 +1,103 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Cache das mensagens recentes dos grupos, com e sem o log de mensagens. */
+class GroupHistoryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void keepsLastMessagesWithoutLog() {
+        GroupHistory history = new GroupHistory(null, 3, 1 << 20);
+        for (int i = 1; i <= 5; i++) {
+            history.record("sala", -1, "m" + i);
+        }
+        assertEquals(List.of("m3", "m4", "m5"), history.recent("sala"));
+        assertEquals(List.of("m3", "m4", "m5"), history.cached("sala"));
+        assertTrue(history.recent("vazia").isEmpty());
+        assertEquals(2, history.hits());
+        assertEquals(1, history.misses());
+    }
+
+    @Test
+    void forgetReleasesBytes() {
+        GroupHistory history = new GroupHistory(null, 3, 1 << 20);
+        history.record("sala", -1, "mensagem");
+        assertTrue(history.bytes() > 0);
+        history.forget("sala");
+        assertEquals(0, history.bytes());
+        assertTrue(history.recent("sala").isEmpty());
+    }
+
+    @Test
+    void budgetEvictsLeastRecentlyUsed() throws InterruptedException {
+        String text = "x".repeat(100);
+        // Cerca de 264 bytes por mensagem: duas cabem, a terceira estoura o orçamento
+        GroupHistory history = new GroupHistory(null, 10, 600);
+        history.record("antigo", -1, text);
+        Thread.sleep(1);
+        history.record("novo", -1, text);
+        Thread.sleep(1);
+        history.recent("antigo");
+        Thread.sleep(1);
+        history.record("outro", -1, text);
+        assertTrue(history.bytes() <= 600);
+        assertEquals(List.of(text), history.cached("antigo"));
+        assertTrue(history.cached("novo").isEmpty());
+    }
+
+    @Test
+    void disabledWithSizeZero() {
+        GroupHistory history = new GroupHistory(null, 0, 1 << 20);
+        history.record("sala", -1, "m1");
+        assertTrue(history.recent("sala").isEmpty());
+        assertEquals(0, history.bytes());
+    }
+
+    @Test
+    void loadsFromLogOnMiss() throws Exception {
+        MessageLog log = MessageLog.open(dir, false, 1 << 20, 0, 0);
+        try {
+            GroupHistory history = new GroupHistory(log, 3, 1 << 20);
+            for (int i = 1; i <= 4; i++) {
+                String text = "m" + i;
+                history.record("sala", log.appendGroup("sala", text), text);
+            }
+            // Fora do cache as mensagens ficam só no log
+            assertNull(history.cached("sala"));
+            assertEquals(0, history.bytes());
+
+            assertEquals(List.of("m2", "m3", "m4"), history.recent("sala"));
+            assertEquals(1, history.misses());
+            // Depois da carga, as novas entram no cache
+            history.record("sala", log.appendGroup("sala", "m5"), "m5");
+            assertEquals(List.of("m3", "m4", "m5"), history.cached("sala"));
+            assertEquals(1, history.hits());
+            // Um offset já visto não se repete
+            history.record("sala", 0, "m1");
+            assertEquals(List.of("m3", "m4", "m5"), history.recent("sala"));
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    void groupWithoutLoggedMessages() throws Exception {
+        MessageLog log = MessageLog.open(dir, false, 1 << 20, 0, 0);
+        try {
+            GroupHistory history = new GroupHistory(log, 3, 1 << 20);
+            assertTrue(history.recent("nova").isEmpty());
+            assertTrue(history.cached("nova").isEmpty());
+        } finally {
+            log.close();
+        }
+    }
+}
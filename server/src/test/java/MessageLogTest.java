@@ -0,0 +1,198 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Recuperação do log de mensagens na abertura e retenção dos segmentos. */
+class MessageLogTest {
+
+    // Registros de mensagem de 92 bytes para "ana": um segmento de 300 bytes guarda o USER e quatro deles
+    private static final int SEGMENT_BYTES = 300;
+    private static final int USER_RECORD = 8 + 1 + 8 + 2 + 3;
+    private static final int MESSAGE_RECORD = USER_RECORD + 70;
+
+    @TempDir
+    Path dir;
+
+    private static String message(int i) {
+        return String.format("mensagem %03d ", i) + "x".repeat(70 - 13);
+    }
+
+    private static Path segment(Path dir, long base) {
+        return dir.resolve(String.format("%020d", base) + ".log");
+    }
+
+    // Grava uma mensagem offline e espera ela estar em disco (um lote por mensagem)
+    private static void appendDurable(MessageLog log, String user, String text) throws InterruptedException {
+        CountDownLatch durable = new CountDownLatch(1);
+        assertTrue(log.appendPrivate(user, text, durable::countDown) >= 0);
+        assertTrue(durable.await(5, TimeUnit.SECONDS));
+    }
+
+    private static List<String> takeAll(MessageLog log, String user) throws IOException {
+        List<String> all = new ArrayList<>();
+        List<String> batch;
+        while (!(batch = log.takePending(user, Integer.MAX_VALUE)).isEmpty()) {
+            all.addAll(batch);
+        }
+        return all;
+    }
+
+    private static List<String> texts(List<MessageLog.Entry> entries) {
+        List<String> texts = new ArrayList<>();
+        for (MessageLog.Entry entry : entries) {
+            texts.add(entry.text);
+        }
+        return texts;
+    }
+
+    @Test
+    void recoversPendingGroupsAndUsers() throws Exception {
+        MessageLog log = MessageLog.open(dir, false, SEGMENT_BYTES, 0, 0);
+        assertTrue(log.registerUser("ana"));
+        for (int i = 0; i < 5; i++) {
+            log.appendPrivate("ana", message(i), null);
+            log.appendGroup("sala", "grupo " + i);
+        }
+        log.close();
+
+        log = MessageLog.open(dir, false, SEGMENT_BYTES, 0, 0);
+        assertTrue(log.isKnownUser("ana"));
+        assertFalse(log.registerUser("ana"));
+        assertFalse(log.isKnownUser("bia"));
+        assertEquals(List.of("grupo 3", "grupo 4"), texts(log.readGroup("sala", 2)));
+        // Em lotes, das mais antigas para as mais novas
+        assertEquals(List.of(message(0), message(1)), log.takePending("ana", 2));
+        assertEquals(List.of(message(2), message(3), message(4)), log.takePending("ana", 10));
+        assertTrue(log.takePending("ana", 10).isEmpty());
+        log.close();
+
+        // As entregas também foram gravadas
+        log = MessageLog.open(dir, false, SEGMENT_BYTES, 0, 0);
+        assertTrue(log.takePending("ana", 10).isEmpty());
+        assertEquals(5, log.readGroup("sala", 50).size());
+        log.close();
+    }
+
+    @Test
+    void discardsIncompleteTail() throws Exception {
+        MessageLog log = MessageLog.open(dir, false, 1 << 20, 0, 0);
+        log.registerUser("ana");
+        appendDurable(log, "ana", message(0));
+        appendDurable(log, "ana", message(1));
+        log.close();
+
+        // Queda no meio da gravação do último registro
+        try (FileChannel channel = FileChannel.open(segment(dir, 0), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        log = MessageLog.open(dir, false, 1 << 20, 0, 0);
+        assertEquals(USER_RECORD + MESSAGE_RECORD, Files.size(segment(dir, 0)));
+        // O log continua de onde o registro válido termina
+        appendDurable(log, "ana", message(2));
+        log.close();
+
+        log = MessageLog.open(dir, false, 1 << 20, 0, 0);
+        assertEquals(List.of(message(0), message(2)), takeAll(log, "ana"));
+        log.close();
+    }
+
+    @Test
+    void dropsSegmentsAfterCorruptedRecord() throws Exception {
+        MessageLog log = MessageLog.open(dir, false, SEGMENT_BYTES, 0, 0);
+        log.registerUser("ana");
+        for (int i = 0; i < 8; i++) {
+            appendDurable(log, "ana", message(i));
+        }
+        log.close();
+        long second = USER_RECORD + 4L * MESSAGE_RECORD;
+        assertTrue(Files.exists(segment(dir, second)));
+
+        // Um byte trocado no conteúdo da segunda mensagem: o CRC não confere
+        try (FileChannel channel = FileChannel.open(segment(dir, 0), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long position = USER_RECORD + 2L * MESSAGE_RECORD - 1;
+            ByteBuffer flipped = ByteBuffer.allocate(1);
+            channel.read(flipped, position);
+            flipped.put(0, (byte) (flipped.get(0) ^ 1)).rewind();
+            channel.write(flipped, position);
+        }
+        log = MessageLog.open(dir, false, SEGMENT_BYTES, 0, 0);
+        assertFalse(Files.exists(segment(dir, second)));
+        assertEquals(List.of(message(0)), takeAll(log, "ana"));
+        log.close();
+    }
+
+    @Test
+    void ignoresStrayFiles() throws Exception {
+        Files.writeString(dir.resolve("copia.log"), "não é um segmento");
+        MessageLog log = MessageLog.open(dir, false, SEGMENT_BYTES, 0, 0);
+        log.registerUser("ana");
+        appendDurable(log, "ana", message(0));
+        log.close();
+
+        log = MessageLog.open(dir, false, SEGMENT_BYTES, 0, 0);
+        assertEquals(List.of(message(0)), takeAll(log, "ana"));
+        log.close();
+        assertTrue(Files.exists(dir.resolve("copia.log")));
+    }
+
+    @Test
+    void sizeRetentionExpiresPendingMessages() throws Exception {
+        MessageLog log = MessageLog.open(dir, false, SEGMENT_BYTES, 2 * SEGMENT_BYTES, 0);
+        log.registerUser("ana");
+        int total = 40;
+        for (int i = 0; i < total; i++) {
+            appendDurable(log, "ana", message(i));
+        }
+        assertTrue(log.expired() > 0);
+        assertFalse(Files.exists(segment(dir, 0)));
+        log.close();
+
+        // Sobram as mensagens mais novas, em sequência, e o usuário continua conhecido
+        log = MessageLog.open(dir, false, SEGMENT_BYTES, 0, 0);
+        assertTrue(log.isKnownUser("ana"));
+        List<String> pending = takeAll(log, "ana");
+        assertFalse(pending.isEmpty());
+        assertTrue(pending.size() < total);
+        int first = total - pending.size();
+        for (int i = 0; i < pending.size(); i++) {
+            assertEquals(message(first + i), pending.get(i));
+        }
+        log.close();
+    }
+
+    @Test
+    void ageRetentionExpiresOldSegment() throws Exception {
+        MessageLog log = MessageLog.open(dir, false, SEGMENT_BYTES, 0, 0);
+        log.registerUser("ana");
+        for (int i = 0; i < 6; i++) {
+            appendDurable(log, "ana", message(i));
+        }
+        log.close();
+        Files.setLastModifiedTime(segment(dir, 0), FileTime.fromMillis(System.currentTimeMillis() - 48 * 3_600_000L));
+
+        log = MessageLog.open(dir, false, SEGMENT_BYTES, 0, 3_600_000L);
+        // A primeira gravação regrava o usuário no fim do log; a segunda leva o segmento
+        appendDurable(log, "ana", message(6));
+        appendDurable(log, "ana", message(7));
+        assertFalse(Files.exists(segment(dir, 0)));
+        assertEquals(4, log.expired());
+        assertTrue(log.isKnownUser("ana"));
+        assertEquals(List.of(message(4), message(5), message(6), message(7)), takeAll(log, "ana"));
+        log.close();
+    }
+}
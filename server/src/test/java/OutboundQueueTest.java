@@ -0,0 +1,143 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/** Políticas de estouro da fila de saída e itens fora do limite (arquivos). */
+class OutboundQueueTest {
+
+    private static List<Object> drain(OutboundQueue queue) {
+        List<Object> items = new ArrayList<>();
+        queue.drainTo(items);
+        return items;
+    }
+
+    @Test
+    void dropOldestKeepsNewest() {
+        OutboundQueue queue = new OutboundQueue(3, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(queue.offer("m" + i, true));
+        }
+        assertEquals(3, queue.depth());
+        assertEquals(2, queue.dropped());
+        assertEquals(List.of("m3", "m4", "m5"), drain(queue));
+        assertEquals(0, queue.depth());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void dropOldestSparesMessagesBeingWritten() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        queue.offer("m1", true);
+        queue.offer("m2", true);
+        // Já entregues à escritora: não podem ser descartadas, então a nova é que se perde
+        assertEquals(2, queue.peekMessages(new Object[4]));
+        assertTrue(queue.offer("m3", true));
+        assertEquals(1, queue.dropped());
+        queue.remove(2);
+        assertTrue(queue.offer("m4", true));
+        assertEquals(List.of("m4"), drain(queue));
+    }
+
+    @Test
+    void disconnectRefusesAndCloses() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DISCONNECT);
+        assertTrue(queue.offer("m1", true));
+        assertTrue(queue.offer("m2", true));
+        assertFalse(queue.offer("m3", true));
+        assertEquals(1, queue.dropped());
+        // Fechada: só quem recebeu false desconecta, o resto é ignorado
+        assertTrue(queue.offer("m4", true));
+        assertFalse(queue.addUnbounded("arquivo"));
+        assertEquals(List.of("m1", "m2"), drain(queue));
+    }
+
+    @Test
+    void blockWaitsForSpace() throws Exception {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.BLOCK);
+        queue.offer("m1", true);
+        CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync(() -> queue.offer("m2", true));
+        Thread.sleep(50);
+        assertFalse(blocked.isDone());
+        assertEquals(List.of("m1"), drain(queue));
+        assertTrue(blocked.get(OutboundQueue.BLOCK_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(List.of("m2"), drain(queue));
+        assertEquals(0, queue.dropped());
+    }
+
+    @Test
+    void blockTimesOut() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.BLOCK);
+        queue.offer("m1", true);
+        long start = System.nanoTime();
+        assertFalse(queue.offer("m2", true));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(OutboundQueue.BLOCK_TIMEOUT_MS) / 2);
+        assertEquals(1, queue.dropped());
+    }
+
+    @Test
+    void blockWithoutWaitingDropsOldest() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.BLOCK);
+        queue.offer("m1", false);
+        // Um reator não pode esperar
+        assertTrue(queue.offer("m2", false));
+        assertEquals(1, queue.dropped());
+        assertEquals(List.of("m2"), drain(queue));
+    }
+
+    @Test
+    void unboundedItemsDoNotCount() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        assertTrue(queue.addUnbounded("cabeçalho", "arquivo"));
+        queue.offer("m1", true);
+        queue.offer("m2", true);
+        assertEquals(2, queue.depth());
+        // O descarte pula os itens de arquivo
+        queue.offer("m3", true);
+        assertEquals(List.of("cabeçalho", "arquivo", "m2", "m3"), drain(queue));
+    }
+
+    @Test
+    void peekMessagesStopsAtUnbounded() {
+        OutboundQueue queue = new OutboundQueue(8, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        queue.offer("m1", true);
+        queue.addUnbounded("arquivo");
+        queue.offer("m2", true);
+        Object[] batch = new Object[8];
+        assertEquals(1, queue.peekMessages(batch));
+        assertEquals("m1", batch[0]);
+        queue.remove(1);
+        assertEquals("arquivo", queue.peek());
+        queue.remove(1);
+        assertEquals(1, queue.peekMessages(batch));
+        assertEquals("m2", batch[0]);
+    }
+
+    @Test
+    void offerIfRoomIgnoresPolicy() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.DISCONNECT);
+        assertTrue(queue.offerIfRoom("ping"));
+        assertFalse(queue.offerIfRoom("ping"));
+        assertEquals(0, queue.dropped());
+        assertFalse(queue.offer("m1", true));
+    }
+
+    @Test
+    void closeReturnsLeftovers() {
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        queue.offer("m1", true);
+        queue.addUnbounded("arquivo");
+        List<Object> leftovers = new ArrayList<>();
+        queue.close(leftovers);
+        assertEquals(List.of("m1", "arquivo"), leftovers);
+        assertTrue(queue.offer("m2", true));
+        assertTrue(queue.isEmpty());
+        assertFalse(queue.offerIfRoom("m3"));
+    }
+}
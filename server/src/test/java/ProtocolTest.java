@@ -0,0 +1,161 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+/** Codificação e decodificação dos quadros do protocolo binário e das linhas do de texto. */
+class ProtocolTest {
+
+    // Conteúdo de um quadro, posicionado depois do cabeçalho
+    private static ByteBuffer payload(byte[] frame) {
+        return ByteBuffer.wrap(frame, Protocol.HEADER_SIZE, frame.length - Protocol.HEADER_SIZE).slice();
+    }
+
+    @Test
+    void fieldsRoundTrip() throws IOException {
+        ByteBuffer frame = Protocol.fields(Protocol.DATA_UPLOAD, 12, "chave", "#sala", "relatório.pdf");
+        frame.putLong(1234567890123L).putInt(65536);
+        ByteBuffer payload = payload(frame.array());
+        assertEquals("chave", Protocol.readField(payload));
+        assertEquals("#sala", Protocol.readField(payload));
+        assertEquals("relatório.pdf", Protocol.readField(payload));
+        assertEquals(1234567890123L, Protocol.readLong(payload));
+        assertEquals(65536, Protocol.readInt(payload));
+        assertFalse(payload.hasRemaining());
+    }
+
+    @Test
+    void frameWithFieldAndRest() throws IOException {
+        byte[] frame = Protocol.frame(Protocol.PRIVATE, "bob", "olá, tudo bem?");
+        assertEquals(Protocol.PRIVATE, frame[0]);
+        assertEquals(frame.length - Protocol.HEADER_SIZE, ByteBuffer.wrap(frame, 1, 4).getInt());
+        ByteBuffer payload = payload(frame);
+        assertEquals("bob", Protocol.readField(payload));
+        assertEquals("olá, tudo bem?", Protocol.readRest(payload));
+    }
+
+    @Test
+    void truncatedFieldIsMalformed() {
+        byte[] frame = Protocol.frame(Protocol.PRIVATE, "destinatario", "");
+        // Sem o prefixo de tamanho inteiro
+        assertThrows(IOException.class, () -> Protocol.readField(ByteBuffer.wrap(new byte[] {0})));
+        // Prefixo maior que o restante do quadro
+        for (int cut = Protocol.HEADER_SIZE + 2; cut < frame.length; cut++) {
+            ByteBuffer payload = payload(Arrays.copyOf(frame, cut));
+            assertThrows(IOException.class, () -> Protocol.readField(payload), "cortado em " + cut);
+        }
+    }
+
+    @Test
+    void truncatedNumbersAreMalformed() {
+        assertThrows(IOException.class, () -> Protocol.readInt(ByteBuffer.allocate(3)));
+        assertThrows(IOException.class, () -> Protocol.readLong(ByteBuffer.allocate(7)));
+    }
+
+    @Test
+    void oversizedFieldIsRefused() throws IOException {
+        assertThrows(IllegalArgumentException.class, () -> Protocol.fieldLength(new byte[Protocol.MAX_FIELD + 1]));
+        // O maior campo cabe, e o prefixo é lido sem sinal
+        ByteBuffer frame = Protocol.fields(Protocol.MESSAGE, 0, "x".repeat(Protocol.MAX_FIELD));
+        assertEquals(Protocol.MAX_FIELD, Protocol.readField(payload(frame.array())).length());
+    }
+
+    @Test
+    void readFrameChecksLength() throws IOException {
+        byte[] frame = Protocol.frame(Protocol.MESSAGE, "mensagem");
+        byte[] type = new byte[1];
+        ByteBuffer payload = Protocol.readFrame(new DataInputStream(new ByteArrayInputStream(frame)), type, 1024);
+        assertEquals(Protocol.MESSAGE, type[0]);
+        assertEquals("mensagem", Protocol.readRest(payload));
+
+        assertThrows(IOException.class,
+                () -> Protocol.readFrame(new DataInputStream(new ByteArrayInputStream(frame)), type, 4));
+        ByteBuffer negative = Protocol.header(Protocol.MESSAGE, 0);
+        negative.putInt(1, -1);
+        assertThrows(IOException.class,
+                () -> Protocol.readFrame(new DataInputStream(new ByteArrayInputStream(negative.array())), type, 1024));
+        assertThrows(EOFException.class, () -> Protocol.readFrame(
+                new DataInputStream(new ByteArrayInputStream(Arrays.copyOf(frame, frame.length - 1))), type, 1024));
+        assertNull(Protocol.readFrame(new DataInputStream(new ByteArrayInputStream(new byte[0])), type, 1024));
+    }
+
+    @Test
+    void compressedFramesRoundTrip() throws IOException {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        for (int i = 0; i < 50; i++) {
+            frames.writeBytes(Protocol.frame(Protocol.MESSAGE, "[bob]: mensagem repetida número " + i));
+        }
+        byte[] compressed = Protocol.compressed(frames.toByteArray());
+        assertEquals(Protocol.COMPRESSED, compressed[0]);
+        assertTrue(compressed.length < frames.size());
+
+        ByteBuffer inner = Protocol.inflateFrames(payload(compressed), frames.size());
+        byte[] type = new byte[1];
+        for (int i = 0; i < 50; i++) {
+            ByteBuffer payload = Protocol.nextFrame(inner, type);
+            assertEquals(Protocol.MESSAGE, type[0]);
+            assertEquals("[bob]: mensagem repetida número " + i, Protocol.readRest(payload));
+        }
+        assertFalse(inner.hasRemaining());
+        assertThrows(IOException.class, () -> Protocol.inflateFrames(payload(compressed), frames.size() - 1));
+    }
+
+    @Test
+    void nextFrameRejectsNestedAndTruncatedFrames() {
+        byte[] type = new byte[1];
+        byte[] nested = Protocol.frame(Protocol.COMPRESSED, "x");
+        assertThrows(IOException.class, () -> Protocol.nextFrame(ByteBuffer.wrap(nested), type));
+        byte[] file = Protocol.fileFrame(Protocol.SEND_FILE, "@bob", "a.txt", 3);
+        assertThrows(IOException.class, () -> Protocol.nextFrame(ByteBuffer.wrap(file), type));
+        byte[] message = Protocol.frame(Protocol.MESSAGE, "mensagem");
+        assertThrows(IOException.class,
+                () -> Protocol.nextFrame(ByteBuffer.wrap(Arrays.copyOf(message, message.length - 1)), type));
+        assertThrows(IOException.class, () -> Protocol.nextFrame(ByteBuffer.wrap(new byte[3]), type));
+    }
+
+    @Test
+    void readLineStopsAtNewline() throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream("/joingroup sala\r\nCONTEÚDO".getBytes("UTF-8"));
+        assertEquals("/joingroup sala", Protocol.readLine(in, new ByteArrayOutputStream(), 64));
+        // Os bytes seguintes (conteúdo de um arquivo) continuam no stream
+        assertArrayEquals("CONTEÚDO".getBytes("UTF-8"), in.readAllBytes());
+
+        assertThrows(IOException.class,
+                () -> Protocol.readLine(new ByteArrayInputStream(new byte[65]), new ByteArrayOutputStream(), 64));
+        assertNull(Protocol.readLine(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream(), 64));
+    }
+
+    @Test
+    void readLineIntoKeepsBytes() throws IOException {
+        Protocol.LineBuffer line = new Protocol.LineBuffer(16);
+        ByteArrayInputStream in = new ByteArrayInputStream("@bob:oi\n#sala:olá".getBytes("UTF-8"));
+        assertTrue(Protocol.readLineInto(in, line, 64));
+        assertEquals("@bob:oi", line.toString("UTF-8"));
+        assertTrue(Protocol.readLineInto(in, line, 64));
+        assertEquals("#sala:olá", line.toString("UTF-8"));
+        assertFalse(Protocol.readLineInto(in, line, 64));
+    }
+
+    @Test
+    void handshake() throws IOException {
+        byte[] hello = Protocol.handshake();
+        ByteArrayInputStream in = new ByteArrayInputStream(hello, 1, hello.length - 1);
+        assertEquals(Protocol.VERSION, Protocol.readHandshake(in));
+        assertThrows(IOException.class,
+                () -> Protocol.readHandshake(new ByteArrayInputStream(new byte[] {'C', 'H', 'X', 4})));
+        assertThrows(EOFException.class,
+                () -> Protocol.readHandshake(new ByteArrayInputStream(new byte[] {'C', 'H', 'T'})));
+    }
+}
@@ -0,0 +1,92 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Clientes registrados no servidor sem conexão de rede: sem run(), nada é
+ * escrito e as mensagens ficam na fila de saída, de onde received as lê.
+ */
+final class TestClients {
+
+    private TestClients() {
+    }
+
+    static ClientHandler connect(String name) {
+        ClientHandler client = new ClientHandler(new Socket() {
+            // addClient registra de onde o cliente se conectou
+            @Override
+            public InetAddress getInetAddress() {
+                return InetAddress.getLoopbackAddress();
+            }
+        });
+        if (!client.register(name)) {
+            throw new IllegalStateException("Nome já em uso: " + name);
+        }
+        return client;
+    }
+
+    static ClientHandler connectBinary(String name) {
+        ClientHandler client = connect(name);
+        client.enableBinaryProtocol();
+        return client;
+    }
+
+    // Sai do servidor e dos grupos
+    static void disconnect(ClientHandler... clients) {
+        for (ClientHandler client : clients) {
+            ChatServer.removeClient(client);
+        }
+    }
+
+    // Mensagens de texto enfileiradas para o cliente desde a última chamada
+    static List<String> received(ClientHandler client) throws IOException {
+        List<Object> items = new ArrayList<>();
+        client.outbox().drainTo(items);
+        List<String> messages = new ArrayList<>();
+        for (Object item : items) {
+            byte[] bytes = (byte[]) item;
+            if (client.isBinary()) {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+                byte[] type = new byte[1];
+                ByteBuffer payload;
+                while ((payload = Protocol.readFrame(in, type, Integer.MAX_VALUE)) != null) {
+                    if (type[0] == Protocol.MESSAGE) {
+                        messages.add(Protocol.readRest(payload));
+                    }
+                }
+            } else {
+                for (String line : new String(bytes, StandardCharsets.UTF_8).split("\n")) {
+                    messages.add(line);
+                }
+            }
+        }
+        return messages;
+    }
+
+    // Histórico dos grupos usado pelo servidor (ChatServer.start o cria com o log)
+    static void useHistory(GroupHistory history) {
+        setServerField("history", history);
+    }
+
+    // Transferências em blocos do servidor (null desativa)
+    static void useTransfers(TransferServer transfers) {
+        setServerField("transfers", transfers);
+    }
+
+    private static void setServerField(String name, Object value) {
+        try {
+            Field field = ChatServer.class.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(null, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Envio em blocos pela porta de dados, retomada e busca pelo destinatário. */
+class TransferServerTest {
+
+    private static final int CHUNK = TransferServer.MIN_CHUNK_SIZE;
+    // Quatro blocos, o último incompleto
+    private static final byte[] FILE = new byte[3 * CHUNK + 100];
+
+    static {
+        new Random(42).nextBytes(FILE);
+    }
+
+    @TempDir
+    Path dir;
+
+    private ClientHandler alice;
+    private ClientHandler bob;
+    private String aliceToken;
+    private String bobToken;
+    private TransferServer server;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = startServer();
+        alice = TestClients.connect("xfer-alice");
+        bob = TestClients.connect("xfer-bob");
+        aliceToken = token(alice);
+        bobToken = token(bob);
+    }
+
+    @AfterEach
+    void stop() {
+        TestClients.disconnect(alice, bob);
+        TestClients.useTransfers(null);
+    }
+
+    private TransferServer startServer() throws IOException {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = probe.getLocalPort();
+        }
+        TransferServer transfers = new TransferServer("127.0.0.1", port, dir);
+        transfers.start();
+        TestClients.useTransfers(transfers);
+        return transfers;
+    }
+
+    // Handshake na versão 2: o token vem no HELLO
+    private static String token(ClientHandler client) throws IOException {
+        byte[] hello = client.acceptHandshake(2);
+        ByteBuffer payload = ByteBuffer.wrap(hello, Protocol.HEADER_SIZE, hello.length - Protocol.HEADER_SIZE);
+        assertEquals(2, payload.get());
+        return Protocol.readField(payload);
+    }
+
+    /** Uma conexão de dados, já identificada com ATTACH. */
+    private static final class DataConnection implements AutoCloseable {
+        final Socket socket;
+        final OutputStream out;
+        final DataInputStream in;
+        final byte[] type = new byte[1];
+
+        DataConnection(TransferServer server, String user, String token) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), server.port());
+            socket.setSoTimeout(5000);
+            out = socket.getOutputStream();
+            in = new DataInputStream(socket.getInputStream());
+            out.write(Protocol.frame(Protocol.DATA_ATTACH, user, token));
+        }
+
+        ByteBuffer read(byte expected) throws IOException {
+            ByteBuffer payload = Protocol.readFrame(in, type, Integer.MAX_VALUE);
+            if (type[0] != expected) {
+                throw new AssertionError("Quadro " + type[0] + " em vez de " + expected
+                        + (type[0] == Protocol.DATA_ERROR ? ": " + Protocol.readRest(payload) : ""));
+            }
+            return payload;
+        }
+
+        // DATA_UPLOAD e os blocos já confirmados que o DATA_STATUS traz
+        BitSet upload(String key, String dest, long size) throws IOException {
+            ByteBuffer request = Protocol.fields(Protocol.DATA_UPLOAD, 12, key, dest, "dados.bin");
+            request.putLong(size).putInt(CHUNK);
+            out.write(request.array());
+            ByteBuffer status = read(Protocol.DATA_STATUS);
+            Protocol.readField(status);
+            assertEquals(size, Protocol.readLong(status));
+            assertEquals(CHUNK, Protocol.readInt(status));
+            return BitSet.valueOf(Arrays.copyOfRange(status.array(), status.position(), status.limit()));
+        }
+
+        String uploadError(String key, String dest, long size) throws IOException {
+            ByteBuffer request = Protocol.fields(Protocol.DATA_UPLOAD, 12, key, dest, "dados.bin");
+            request.putLong(size).putInt(CHUNK);
+            out.write(request.array());
+            return Protocol.readRest(read(Protocol.DATA_ERROR));
+        }
+
+        // Envia um bloco (com o CRC dado) e devolve se o servidor o aceitou
+        boolean send(int index, int crc) throws IOException {
+            int start = index * CHUNK;
+            int length = Math.min(CHUNK, FILE.length - start);
+            out.write(Protocol.chunkHeader(index, length, crc));
+            out.write(FILE, start, length);
+            ByteBuffer ack = read(Protocol.DATA_ACK);
+            assertEquals(index, ack.getInt());
+            return ack.get() == 1;
+        }
+
+        boolean send(int index) throws IOException {
+            return send(index, crc(index));
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static int crc(int index) {
+        CRC32C crc = new CRC32C();
+        int start = index * CHUNK;
+        crc.update(FILE, start, Math.min(CHUNK, FILE.length - start));
+        return (int) crc.getValue();
+    }
+
+    // Espera o TRANSFER_OFFER na fila do destinatário e devolve o id da transferência
+    private static String awaitOffer(ClientHandler recipient) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            List<Object> items = new ArrayList<>();
+            recipient.outbox().drainTo(items);
+            for (Object item : items) {
+                byte[] frame = (byte[]) item;
+                if (frame[0] == Protocol.TRANSFER_OFFER) {
+                    ByteBuffer offer = ByteBuffer.wrap(frame, Protocol.HEADER_SIZE, frame.length - Protocol.HEADER_SIZE);
+                    String id = Protocol.readField(offer);
+                    assertEquals("xfer-alice", Protocol.readField(offer));
+                    assertEquals("dados.bin", Protocol.readField(offer));
+                    assertEquals(FILE.length, Protocol.readLong(offer));
+                    return id;
+                }
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("TRANSFER_OFFER não chegou");
+    }
+
+    // Busca o arquivo inteiro como o destinatário e avisa que terminou
+    private byte[] download(String id) throws IOException {
+        try (DataConnection connection = new DataConnection(server, "xfer-bob", bobToken)) {
+            ByteBuffer request = Protocol.fields(Protocol.DATA_DOWNLOAD, 1, id);
+            request.put((byte) 0);
+            connection.out.write(request.array());
+            connection.read(Protocol.DATA_STATUS);
+            ByteBuffer get = Protocol.header(Protocol.DATA_GET, 8);
+            get.putInt(0).putInt(4);
+            connection.out.write(get.array());
+            byte[] file = new byte[FILE.length];
+            for (int i = 0; i < 4; i++) {
+                ByteBuffer header = connection.read(Protocol.DATA_CHUNK);
+                int index = header.getInt();
+                int length = header.getInt();
+                assertEquals(crc(index), header.getInt());
+                connection.in.readFully(file, index * CHUNK, length);
+            }
+            connection.out.write(Protocol.header(Protocol.DATA_DONE, 0).array());
+            // O servidor fecha a conexão depois de registrar a entrega
+            assertEquals(-1, connection.in.read());
+            return file;
+        }
+    }
+
+    private long partFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.toString().endsWith(".part")).count();
+        }
+    }
+
+    @Test
+    void resumesFromConfirmedChunks() throws Exception {
+        try (DataConnection first = new DataConnection(server, "xfer-alice", aliceToken)) {
+            assertTrue(first.upload("arquivo-1", "@xfer-bob", FILE.length).isEmpty());
+            assertTrue(first.send(0));
+            assertTrue(first.send(2));
+            // CRC errado: o bloco não é confirmado
+            assertFalse(first.send(1, crc(1) ^ 1));
+        }
+        try (DataConnection second = new DataConnection(server, "xfer-alice", aliceToken)) {
+            BitSet received = second.upload("arquivo-1", "@xfer-bob", FILE.length);
+            assertEquals(BitSet.valueOf(new byte[] {0b0101}), received);
+            assertTrue(second.send(1));
+            assertTrue(second.send(3));
+        }
+        String id = awaitOffer(bob);
+        assertArrayEquals(FILE, download(id));
+
+        // Entregue a todos: os arquivos da transferência são apagados
+        assertEquals(0, partFiles());
+        assertEquals(0, server.pending());
+    }
+
+    @Test
+    void resumesAfterRestart() throws Exception {
+        try (DataConnection first = new DataConnection(server, "xfer-alice", aliceToken)) {
+            first.upload("arquivo-2", "@xfer-bob", FILE.length);
+            assertTrue(first.send(3));
+        }
+        // Outra instância no mesmo diretório: só o diário sabe o que chegou
+        server = startServer();
+        try (DataConnection second = new DataConnection(server, "xfer-alice", aliceToken)) {
+            assertEquals(BitSet.valueOf(new byte[] {0b1000}), second.upload("arquivo-2", "@xfer-bob", FILE.length));
+            for (int i = 0; i < 3; i++) {
+                assertTrue(second.send(i));
+            }
+        }
+        assertArrayEquals(FILE, download(awaitOffer(bob)));
+    }
+
+    @Test
+    void refusesResumeWithOtherDestinationOrSize() throws Exception {
+        ClientHandler carol = TestClients.connect("xfer-carol");
+        try {
+            try (DataConnection first = new DataConnection(server, "xfer-alice", aliceToken)) {
+                first.upload("arquivo-3", "@xfer-bob", FILE.length);
+                assertTrue(first.send(0));
+            }
+            try (DataConnection other = new DataConnection(server, "xfer-alice", aliceToken)) {
+                assertEquals("Transferência existente com outro tamanho ou destino.",
+                        other.uploadError("arquivo-3", "@xfer-carol", FILE.length));
+            }
+            try (DataConnection other = new DataConnection(server, "xfer-alice", aliceToken)) {
+                assertEquals("Transferência existente com outro tamanho ou destino.",
+                        other.uploadError("arquivo-3", "@xfer-bob", FILE.length + 1));
+            }
+            // A mesma chave de outro remetente é outra transferência
+            String carolToken = token(carol);
+            try (DataConnection other = new DataConnection(server, "xfer-carol", carolToken)) {
+                assertTrue(other.upload("arquivo-3", "@xfer-bob", FILE.length).isEmpty());
+            }
+        } finally {
+            TestClients.disconnect(carol);
+        }
+    }
+
+    @Test
+    void refusesInvalidSessionAndDestination() throws Exception {
+        try (DataConnection wrongToken = new DataConnection(server, "xfer-alice", bobToken)) {
+            assertEquals("Sessão do chat inválida ou encerrada.", Protocol.readRest(wrongToken.read(Protocol.DATA_ERROR)));
+        }
+        try (DataConnection unknown = new DataConnection(server, "xfer-alice", aliceToken)) {
+            assertEquals("[ERRO] Usuário 'ninguem' não encontrado para envio de arquivo.",
+                    unknown.uploadError("arquivo-4", "@ninguem", FILE.length));
+        }
+        assertEquals(0, server.pending());
+    }
+}
@@ -0,0 +1,279 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mede como a vazão total do cluster varia com o número de nós. Para cada
+ * quantidade de nós (1 até o máximo) sobe os nós em processos separados na
+ * mesma máquina e conecta clientes a todos; cada cliente envia mensagens
+ * privadas, sem parar, para um cliente do nó seguinte (com um nó só, do mesmo
+ * nó). Cada cliente mantém no máximo WINDOW mensagens ainda não entregues,
+ * então nenhuma é descartada por fila cheia. Conta as mensagens entregues por
+ * segundo, somando todos os clientes.
+ *
+ * Nós e clientes dividem os núcleos da máquina: o ganho com mais nós só
+ * aparece se houver núcleos livres para eles.
+ *
+ * Uso: java ClusterBenchmark [max_nos] [clientes_por_no] [segundos] [blocking|virtual|nio]
+ * Exemplo: java ClusterBenchmark 4 20 5 nio
+ */
+public class ClusterBenchmark {
+
+    private static final String HOST = "127.0.0.1";
+    private static final int CLIENT_PORT = 56100;
+    private static final int CLUSTER_PORT = 56300;
+    private static final int WINDOW = 256;
+    private static final String TEXT = "mensagem de teste para medir o cluster";
+
+    /** Cliente do benchmark: conta as mensagens privadas que recebe. */
+    private static final class Client {
+        final String name;
+        final Socket socket;
+        final OutputStream out;
+        final DataInputStream in;
+        final AtomicLong received = new AtomicLong();
+        // Mensagens que este cliente ainda pode enviar (devolvidas quando o destinatário recebe)
+        final Semaphore window = new Semaphore(0);
+        // Quem envia para este cliente
+        Client source;
+
+        Client(String name, int port) throws IOException {
+            this.name = name;
+            socket = new Socket(HOST, port);
+            socket.setTcpNoDelay(true);
+            out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            out.write(Protocol.handshake());
+            out.write(Protocol.frame(Protocol.LOGIN, name));
+            out.flush();
+        }
+
+        void readLoop() {
+            byte[] type = new byte[1];
+            byte[] prefix = "[PRIVADO".getBytes(StandardCharsets.UTF_8);
+            try {
+                ByteBuffer payload;
+                while ((payload = Protocol.readFrame(in, type, ChatClient.MAX_SERVER_PAYLOAD)) != null) {
+                    if (type[0] == Protocol.MESSAGE && startsWith(payload, prefix)) {
+                        received.incrementAndGet();
+                        if (source != null) {
+                            source.window.release();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Conexão encerrada no fim da rodada
+            }
+        }
+    }
+
+    private static volatile boolean running;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("node")) {
+            // Processo de um nó: sobe o servidor sem interface gráfica
+            ChatServer.start(args[1], Runtime.getRuntime().availableProcessors());
+            return;
+        }
+        int maxNodes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int clientsPerNode = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        String mode = args.length > 3 ? args[3] : "nio";
+
+        System.out.println("[BENCH] Modo " + mode + ", " + clientsPerNode + " clientes por nó, "
+                + Runtime.getRuntime().availableProcessors() + " núcleos");
+        double single = 0;
+        for (int nodes = 1; nodes <= maxNodes; nodes++) {
+            double rate = run(nodes, clientsPerNode, seconds, mode);
+            if (nodes == 1) {
+                single = rate;
+            }
+            System.out.printf("[BENCH]   %d nó(s): %,.0f msg/s entregues (%.2fx um nó)%n", nodes, rate, rate / single);
+        }
+        System.exit(0);
+    }
+
+    private static double run(int nodes, int clientsPerNode, int seconds, String mode) throws Exception {
+        File dir = Files.createTempDirectory("chat-cluster-bench").toFile();
+        List<Process> processes = startNodes(nodes, mode, dir);
+        List<Client> clients = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        try {
+            for (int node = 0; node < nodes; node++) {
+                for (int i = 0; i < clientsPerNode; i++) {
+                    Client client = new Client("c" + node + "_" + i, CLIENT_PORT + node);
+                    clients.add(client);
+                    Thread reader = new Thread(client::readLoop);
+                    reader.setDaemon(true);
+                    reader.start();
+                }
+            }
+            // Destinatário de cada cliente: o cliente de mesmo índice no nó seguinte
+            Client[] partners = new Client[clients.size()];
+            for (int i = 0; i < partners.length; i++) {
+                partners[i] = clients.get((i + clientsPerNode) % clients.size());
+            }
+            awaitDirectory(clients, partners);
+            for (int i = 0; i < partners.length; i++) {
+                partners[i].source = clients.get(i);
+                clients.get(i).window.release(WINDOW);
+            }
+
+            running = true;
+            for (int i = 0; i < partners.length; i++) {
+                Client client = clients.get(i);
+                Client partner = partners[i];
+                Thread sender = new Thread(() -> sendLoop(client, partner));
+                sender.setDaemon(true);
+                sender.start();
+                threads.add(sender);
+            }
+            // Aquecimento antes da medição
+            Thread.sleep(2000);
+            long before = totalReceived(clients);
+            long start = System.nanoTime();
+            Thread.sleep(seconds * 1000L);
+            long delivered = totalReceived(clients) - before;
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            running = false;
+            for (Thread sender : threads) {
+                sender.join();
+            }
+            return delivered / elapsed;
+        } finally {
+            for (Client client : clients) {
+                client.socket.close();
+            }
+            for (Process process : processes) {
+                process.destroy();
+                process.waitFor();
+            }
+        }
+    }
+
+    // Cada nó em um processo próprio, com o próprio log e porta
+    private static List<Process> startNodes(int nodes, String mode, File dir) throws Exception {
+        StringBuilder cluster = new StringBuilder();
+        for (int node = 0; node < nodes; node++) {
+            cluster.append(node > 0 ? "," : "").append("n").append(node).append('=').append(HOST).append(':')
+                    .append(CLUSTER_PORT + node);
+        }
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> processes = new ArrayList<>();
+        for (int node = 0; node < nodes; node++) {
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            command.add("-Xmx512m");
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add("-Dchat.port=" + (CLIENT_PORT + node));
+            command.add("-Dchat.logDir=" + new File(dir, "n" + node));
+            if (nodes > 1) {
+                command.add("-Dchat.nodeId=n" + node);
+                command.add("-Dchat.cluster=" + cluster);
+                command.add("-Dchat.clusterSecret=bench");
+            }
+            command.add("ClusterBenchmark");
+            command.add("node");
+            command.add(mode);
+            processes.add(new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(new File(dir, "n" + node + ".log"))
+                    .start());
+        }
+        for (int node = 0; node < nodes; node++) {
+            awaitPort(CLIENT_PORT + node);
+        }
+        return processes;
+    }
+
+    private static void awaitPort(int port) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20_000;
+        while (true) {
+            try {
+                new Socket(HOST, port).close();
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException("Nó na porta " + port + " não subiu");
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    // Repete uma mensagem de teste até cada destinatário ser encontrado pelo diretório
+    private static void awaitDirectory(List<Client> clients, Client[] partners) throws Exception {
+        long deadline = System.currentTimeMillis() + 30_000;
+        boolean complete = false;
+        while (!complete) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Diretório do cluster não convergiu");
+            }
+            complete = true;
+            for (int i = 0; i < partners.length; i++) {
+                if (partners[i].received.get() == 0) {
+                    complete = false;
+                    send(clients.get(i), partners[i], 1);
+                }
+            }
+            Thread.sleep(300);
+        }
+        // Mensagens de teste extras ainda a caminho
+        Thread.sleep(300);
+    }
+
+    private static void sendLoop(Client client, Client partner) {
+        try {
+            while (running) {
+                // Espera ao menos uma vaga na janela e envia todas as disponíveis
+                if (!client.window.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                    continue;
+                }
+                send(client, partner, 1 + client.window.drainPermits());
+            }
+        } catch (IOException | InterruptedException e) {
+            // Conexão encerrada no fim da rodada
+        }
+    }
+
+    private static void send(Client client, Client partner, int count) throws IOException {
+        byte[] frame = Protocol.frame(Protocol.PRIVATE, partner.name, TEXT);
+        for (int i = 0; i < count; i++) {
+            client.out.write(frame);
+        }
+        client.out.flush();
+    }
+
+    private static long totalReceived(List<Client> clients) {
+        long total = 0;
+        for (Client client : clients) {
+            total += client.received.get();
+        }
+        return total;
+    }
+
+    private static boolean startsWith(ByteBuffer payload, byte[] prefix) {
+        if (payload.remaining() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (payload.get(payload.position() + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+/**
+ * Mede o log de mensagens (MessageLog) no disco local:
+ * - vazão de gravação de mensagens offline com fsync ligado e desligado,
+ *   com várias threads gravando ao mesmo tempo (group commit), até todas
+ *   estarem confirmadas em disco. Na forma assíncrona as threads não esperam
+ *   (como o servidor); na síncrona cada uma espera a confirmação da sua
+ *   mensagem antes de gravar a próxima;
+ * - latência para entregar as pendências de um usuário que reconecta;
+ * - tempo de reabertura do log (reconstrução dos índices).
+ *
+ * Uso: java MessageLogBenchmark [diretorio] [mensagens] [threads]
+ * Exemplo: java MessageLogBenchmark /tmp/chat-bench 200000 8
+ */
+public class MessageLogBenchmark {
+
+    private static final String TEXT = "[PRIVADO de remetente]: mensagem de teste para medir o log em disco";
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Paths.get(args.length > 0 ? args[0] : "chat-log-bench");
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+
+        System.out.println("[BENCH] Gravação: " + messages + " mensagens, " + threads + " threads, em " + dir.toAbsolutePath());
+        for (boolean fsync : new boolean[] {false, true}) {
+            for (boolean sync : new boolean[] {false, true}) {
+                // A primeira rodada de cada configuração serve de aquecimento
+                write(dir, fsync, sync, messages / 10, threads, false);
+                write(dir, fsync, sync, messages, threads, true);
+            }
+        }
+
+        System.out.println("[BENCH] Reconexão: entrega das mensagens pendentes de um usuário");
+        for (int pending : new int[] {10, 100, 1_000, 10_000}) {
+            catchUp(dir, pending);
+        }
+        delete(dir);
+    }
+
+    private static void write(Path dir, boolean fsync, boolean sync, int messages, int threads, boolean report) throws Exception {
+        delete(dir);
+        MessageLog log = MessageLog.open(dir, fsync, MessageLog.SEGMENT_BYTES);
+        CountDownLatch durable = new CountDownLatch(messages);
+        int perThread = messages / threads;
+        Thread[] writers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            String recipient = "usuario" + t;
+            int count = t == threads - 1 ? messages - perThread * (threads - 1) : perThread;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < count; i++) {
+                    if (!sync) {
+                        log.appendPrivate(recipient, TEXT, durable::countDown);
+                        continue;
+                    }
+                    CountDownLatch confirmed = new CountDownLatch(1);
+                    log.appendPrivate(recipient, TEXT, () -> {
+                        confirmed.countDown();
+                        durable.countDown();
+                    });
+                    try {
+                        confirmed.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        durable.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long commits = log.commits();
+        log.close();
+        if (report) {
+            System.out.printf("[BENCH]   fsync %-5s %-10s %,.0f msg/s, %,d gravações em disco (%.1f mensagens por gravação)%n",
+                    fsync, sync ? "síncrono" : "assíncrono", messages / seconds, commits, (double) messages / commits);
+        }
+    }
+
+    private static void catchUp(Path dir, int pending) throws Exception {
+        delete(dir);
+        MessageLog log = MessageLog.open(dir, true, MessageLog.SEGMENT_BYTES);
+        CountDownLatch durable = new CountDownLatch(pending);
+        log.registerUser("offline");
+        for (int i = 0; i < pending; i++) {
+            log.appendPrivate("offline", TEXT, durable::countDown);
+            // Mensagens de outros usuários intercaladas, como em um servidor real
+            log.appendGroup("grupo", TEXT);
+        }
+        durable.await();
+        log.close();
+
+        long start = System.nanoTime();
+        log = MessageLog.open(dir, true, MessageLog.SEGMENT_BYTES);
+        long opened = System.nanoTime();
+        ClientHandler user = new ClientHandler(null);
+        List<String> messages = log.takePending("offline", Integer.MAX_VALUE);
+        user.sendBatch(messages);
+        long delivered = System.nanoTime();
+        log.close();
+        if (messages.size() != pending) {
+            throw new IllegalStateException("esperadas " + pending + " mensagens, lidas " + messages.size());
+        }
+        System.out.printf("[BENCH]   %,6d pendentes: reabertura %.2f ms, entrega %.2f ms%n",
+                pending, (opened - start) / 1e6, (delivered - opened) / 1e6);
+    }
+
+    private static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Vazão de um único processo cliente usando a biblioteca ChatConnection,
+ * contra um servidor já em execução: um remetente envia N mensagens privadas
+ * a um destinatário, primeiro esperando cada envio (um flush e um segmento
+ * TCP por mensagem, como o console) e depois em pipeline (envia tudo e só
+ * espera o último futuro; a escritora junta as mensagens em lotes). O tempo
+ * vai até o destinatário receber a última mensagem.
+ *
+ * Se o destinatário não acompanhar, a fila de saída dele no servidor
+ * descarta mensagens (política drop-oldest, e sempre no modo nio); as
+ * descartadas aparecem no relatório. Com o servidor em modo bloqueante e
+ * -Dchat.overflowPolicy=block o remetente espera em vez de perder mensagens.
+ *
+ * Uso: java PipelineBenchmark [mensagens] [host] [porta]
+ * Exemplo: java PipelineBenchmark 200000
+ */
+public class PipelineBenchmark {
+
+    private static final String MARK = "pipe-";
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        String host = args.length > 1 ? args[1] : "127.0.0.1";
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 55555;
+        String prefix = "pb" + System.nanoTime() % 100000 + "_";
+
+        AtomicInteger received = new AtomicInteger();
+        ChatConnection receiver = ChatConnection.connect(host, port, prefix + "destino", text -> {
+            if (text.contains(MARK)) {
+                received.incrementAndGet();
+            }
+        });
+        ChatConnection sender = ChatConnection.connect(host, port, prefix + "remetente", text -> { });
+        Thread.sleep(500);
+
+        // Aquecimento, sem medir
+        run(sender, receiver.getUsername(), Math.min(messages, 20_000), true, received, null);
+
+        run(sender, receiver.getUsername(), messages / 10, false, received, "um flush por mensagem");
+        run(sender, receiver.getUsername(), messages, true, received, "pipeline (lotes)");
+
+        sender.close();
+        receiver.close();
+        System.exit(0);
+    }
+
+    /**
+     * Envia count mensagens e espera o destinatário receber todas (ou parar
+     * de receber por um segundo, se houve descarte); mostra a vazão da fase.
+     */
+    private static void run(ChatConnection sender, String dest, int count, boolean pipelined,
+            AtomicInteger received, String phase) throws Exception {
+        received.set(0);
+        long start = System.nanoTime();
+        CompletableFuture<Void> last = null;
+        for (int i = 0; i < count; i++) {
+            last = sender.sendPrivate(dest, MARK + i);
+            if (!pipelined) {
+                last.join();
+            }
+        }
+        if (last != null) {
+            last.join();
+        }
+        // Fim: a última mensagem recebida
+        int seen = received.get();
+        long end = System.nanoTime();
+        while (seen < count && System.nanoTime() - end < 1_000_000_000L) {
+            Thread.sleep(1);
+            if (received.get() != seen) {
+                seen = received.get();
+                end = System.nanoTime();
+            }
+        }
+        if (phase == null) {
+            return;
+        }
+        double seconds = (end - start) / 1e9;
+        System.out.printf("[PIPELINE] %-22s %,9d mensagens em %6.2f s: %,10.0f mensagens/s entregues (%,d descartadas)%n",
+                phase, count, seconds, received.get() / seconds,
+                count - received.get());
+    }
+}
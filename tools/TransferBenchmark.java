@@ -0,0 +1,254 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vazão das transferências de arquivos por loopback contra um servidor já em
+ * execução: o mesmo arquivo (1 GB por padrão) vai de um usuário a outro pelas
+ * conexões de dados (TransferServer) com 1 e com N conexões paralelas, e
+ * pelo caminho antigo (SEND_FILE na conexão do chat), para comparação.
+ *
+ * Durante cada envio o remetente manda uma mensagem privada a cada 10 ms
+ * para o destinatário; a latência delas mostra se o chat fica parado atrás
+ * do arquivo.
+ *
+ * Uso: java TransferBenchmark [tamanho] [conexoes_paralelas] [host] [porta]
+ * Exemplo: java TransferBenchmark 1g 4
+ */
+public class TransferBenchmark {
+
+    private static final String MARK = "t=";
+    private static final long PING_INTERVAL_MILLIS = 10;
+
+    /** Usuário do teste: conexão do chat e, se o servidor oferece, as transferências em blocos. */
+    private static final class User {
+        final String name;
+        final Socket socket;
+        final OutputStream out;
+        final DataInputStream in;
+        final String token;
+        final int transferPort;
+        final int version;
+
+        User(String name, String host, int port) throws IOException {
+            this.name = name;
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            out = new BufferedOutputStream(socket.getOutputStream(), FileRelay.CHUNK_SIZE);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), FileRelay.CHUNK_SIZE));
+            out.write(Protocol.handshake());
+            out.flush();
+            byte[] type = new byte[1];
+            ByteBuffer hello = Protocol.readFrame(in, type, ChatClient.MAX_SERVER_PAYLOAD);
+            if (hello == null || type[0] != Protocol.HELLO || (version = hello.get()) < 2) {
+                throw new IOException("O servidor não aceitou o protocolo 2");
+            }
+            token = Protocol.readField(hello);
+            transferPort = Protocol.readInt(hello);
+            if (transferPort == 0) {
+                throw new IOException("O servidor está sem a porta de transferências");
+            }
+            out.write(Protocol.frame(Protocol.LOGIN, name));
+            out.flush();
+        }
+
+        FileTransfer transfers(String host, int streams) {
+            return new FileTransfer(host, transferPort, name, token, streams, version >= 3);
+        }
+
+        synchronized void write(byte[] data) throws IOException {
+            out.write(data);
+            out.flush();
+        }
+    }
+
+    // Arquivos oferecidos ao destinatário e avisos de arquivo recebido pelo caminho antigo
+    private static final SynchronousQueue<Object> arrivals = new SynchronousQueue<>();
+    // Latências das mensagens da fase atual
+    private static final List<Long> pings = Collections.synchronizedList(new ArrayList<>());
+
+    public static void main(String[] args) throws Exception {
+        long size = parseSize(args.length > 0 ? args[0] : "1g");
+        int streams = args.length > 1 ? Integer.parseInt(args[1]) : FileTransfer.STREAMS;
+        String host = args.length > 2 ? args[2] : "127.0.0.1";
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 55555;
+        String prefix = "tb" + System.nanoTime() % 100000 + "_";
+
+        Path dir = Files.createTempDirectory("chat-transfer-bench");
+        Path file = dir.resolve("origem.bin");
+        createFile(file, size);
+        System.out.printf("[TRANSF] Arquivo de %,d bytes em %s%n", size, dir);
+
+        User sender = new User(prefix + "remetente", host, port);
+        User receiver = new User(prefix + "destino", host, port);
+        Thread reader = new Thread(() -> readLoop(receiver), "leitor");
+        reader.setDaemon(true);
+        reader.start();
+        String dest = "@" + receiver.name;
+
+        int[] counts = streams > 1 ? new int[] {1, streams} : new int[] {1};
+        for (int count : counts) {
+            FileTransfer upload = sender.transfers(host, count);
+            FileTransfer download = receiver.transfers(host, count);
+            Thread pinger = startPinger(sender, dest);
+            long start = System.nanoTime();
+            upload.upload(dest, file);
+            long uploaded = System.nanoTime() - start;
+            FileTransfer.Offer offer = (FileTransfer.Offer) arrivals.poll(60, TimeUnit.SECONDS);
+            if (offer == null) {
+                throw new IOException("Oferta do arquivo não chegou");
+            }
+            start = System.nanoTime();
+            Path received = download.download(offer, dir);
+            long downloaded = System.nanoTime() - start;
+            pinger.interrupt();
+            pinger.join();
+            report(count + " conexão(ões): envio", size, uploaded);
+            report(count + " conexão(ões): busca", size, downloaded);
+            reportPings();
+            Files.delete(received);
+        }
+
+        // Caminho antigo: o arquivo ocupa a conexão do chat do começo ao fim
+        Thread pinger = startPinger(sender, dest);
+        long start = System.nanoTime();
+        sendLegacy(sender, dest, file, size);
+        if (arrivals.poll(600, TimeUnit.SECONDS) == null) {
+            throw new IOException("Arquivo não chegou pelo caminho antigo");
+        }
+        long elapsed = System.nanoTime() - start;
+        pinger.interrupt();
+        pinger.join();
+        report("conexão do chat (SEND_FILE)", size, elapsed);
+        reportPings();
+
+        Files.delete(file);
+        Files.delete(dir);
+        System.exit(0);
+    }
+
+    // Conteúdo aleatório (um bloco repetido), sem depender do cache de uma execução anterior
+    private static void createFile(Path file, long size) throws IOException {
+        byte[] block = new byte[FileRelay.CHUNK_SIZE * 16];
+        new Random(42).nextBytes(block);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (long written = 0; written < size; ) {
+                ByteBuffer buffer = ByteBuffer.wrap(block, 0, (int) Math.min(block.length, size - written));
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer);
+                }
+            }
+        }
+    }
+
+    private static void sendLegacy(User sender, String dest, Path file, long size) throws IOException {
+        byte[] buffer = new byte[FileRelay.CHUNK_SIZE];
+        synchronized (sender) {
+            sender.out.write(Protocol.fileFrame(Protocol.SEND_FILE, dest, file.getFileName().toString(), size));
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+                int read;
+                while ((read = channel.read(wrapped.clear())) > 0) {
+                    sender.out.write(buffer, 0, read);
+                }
+            }
+            sender.out.flush();
+        }
+    }
+
+    // Mensagem privada a cada PING_INTERVAL_MILLIS com o instante do envio
+    private static Thread startPinger(User sender, String dest) {
+        pings.clear();
+        Thread pinger = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    sender.write(Protocol.frame(Protocol.PRIVATE, dest.substring(1), MARK + System.nanoTime()));
+                    Thread.sleep(PING_INTERVAL_MILLIS);
+                }
+            } catch (IOException | InterruptedException e) {
+                // Fim da fase
+            }
+        }, "ping");
+        pinger.start();
+        return pinger;
+    }
+
+    private static void readLoop(User receiver) {
+        byte[] type = new byte[1];
+        byte[] skip = new byte[FileRelay.CHUNK_SIZE];
+        try {
+            ByteBuffer payload;
+            while ((payload = Protocol.readFrame(receiver.in, type, ChatClient.MAX_SERVER_PAYLOAD)) != null) {
+                if (type[0] == Protocol.MESSAGE) {
+                    String text = Protocol.readRest(payload);
+                    int mark = text.lastIndexOf("]: " + MARK);
+                    if (mark >= 0) {
+                        pings.add(System.nanoTime() - Long.parseLong(text.substring(mark + 3 + MARK.length())));
+                    }
+                } else if (type[0] == Protocol.TRANSFER_OFFER) {
+                    arrivals.put(FileTransfer.Offer.decode(payload));
+                } else if (type[0] == Protocol.RECV_FILE) {
+                    Protocol.readField(payload);
+                    Protocol.readField(payload);
+                    long remaining = Protocol.readLong(payload);
+                    while (remaining > 0) {
+                        int read = receiver.in.read(skip, 0, (int) Math.min(skip.length, remaining));
+                        if (read < 0) {
+                            return;
+                        }
+                        remaining -= read;
+                    }
+                    arrivals.put(Boolean.TRUE);
+                }
+            }
+        } catch (IOException | InterruptedException | NumberFormatException e) {
+            System.err.println("[TRANSF] Recebimento encerrado: " + e.getMessage());
+        }
+    }
+
+    private static void report(String phase, long size, long nanos) {
+        System.out.printf("[TRANSF] %-32s %8.1f MB/s (%.2f s)%n", phase, size / 1048576.0 / (nanos / 1e9),
+                nanos / 1e9);
+    }
+
+    private static void reportPings() {
+        long[] values;
+        synchronized (pings) {
+            values = pings.stream().mapToLong(Long::longValue).sorted().toArray();
+        }
+        if (values.length == 0) {
+            System.out.println("[TRANSF]   chat durante a transferência: nenhuma mensagem entregue");
+            return;
+        }
+        System.out.printf("[TRANSF]   chat durante a transferência: %d mensagens, p50 %.2f ms  p99 %.2f ms  máx %.2f ms%n",
+                values.length, percentile(values, 0.5) / 1e6, percentile(values, 0.99) / 1e6,
+                values[values.length - 1] / 1e6);
+    }
+
+    private static long percentile(long[] sorted, double q) {
+        int index = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    // "1g", "64m", "512k" ou bytes
+    private static long parseSize(String size) {
+        String value = size.toLowerCase();
+        long unit = value.endsWith("g") ? 1L << 30 : value.endsWith("m") ? 1L << 20 : value.endsWith("k") ? 1L << 10 : 1;
+        return Long.parseLong(unit == 1 ? value : value.substring(0, value.length() - 1)) * unit;
+    }
+}